@@ -1,5 +1,10 @@
 package bot.staro;
 
+import bot.staro.booleans.BigBoolean;
+import bot.staro.booleans.BitOperator;
+import bot.staro.booleans.BooleanFormula;
+import bot.staro.booleans.CompiledFormula;
+import bot.staro.booleans.FormulaProgram;
 import bot.staro.booleans.RemoteProcessBoolean;
 
 import java.lang.reflect.Constructor;
@@ -15,7 +20,7 @@ public final class Main {
         // determine what task to task
         // use provided arguments, or user input if none
         if (args.length == 0) {
-            System.out.println("Enter a task to test: benchmark/remoteprocessboolean");
+            System.out.println("Enter a task to test: benchmark/remoteprocessboolean/formula");
             task = getInput();
         } else {
             task = args[0];
@@ -42,6 +47,10 @@ public final class Main {
 
                 System.exit(0);
             }
+            case "formula" -> {
+                benchmarkFormula();
+                System.exit(0);
+            }
             default -> {
                 System.out.println("No tasks to run.");
                 System.exit(0);
@@ -77,6 +86,80 @@ public final class Main {
         benchmark("bot.staro.booleans.HolidayBoolean", null, 1000);
     }
 
+    /**
+     * Benchmarks a formula of 8 variables in the tree interpreter, the {@link FormulaProgram} and as bytecode
+     */
+    private static void benchmarkFormula() {
+        BooleanFormula[] x = new BooleanFormula[8];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = BooleanFormula.variable(i);
+        }
+
+        BooleanFormula shared = x[0].xor(x[1]).and(x[2].or(x[3].not()));
+        BooleanFormula formula = shared.implies(x[4].equivalence(x[5]))
+                .or(BooleanFormula.apply(BitOperator.NAND, shared, x[6]).and(x[7].xor(x[0])));
+        CompiledFormula compiled = CompiledFormula.of(formula);
+        System.out.println("====================================");
+        System.out.println("Benchmarking: " + compiled);
+        System.out.println("====================================");
+
+        boolean[][] assignments = new boolean[256][8];
+        for (int i = 0; i < assignments.length; i++) {
+            for (int v = 0; v < 8; v++) {
+                assignments[i][v] = (i >>> v & 1) != 0;
+            }
+        }
+
+        int sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += formula.evaluate(assignments[i & 255]) ? 1 : 0;
+            sink += compiled.test(assignments[i & 255]) ? 1 : 0;
+        }
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += formula.evaluate(assignments[i & 255]) ? 1 : 0;
+        }
+        long interpreted = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += compiled.test(assignments[i & 255]) ? 1 : 0;
+        }
+        long bytecode = System.nanoTime() - startTime;
+
+        System.out.printf("tree evaluate time: %.3f ms (%.3f ns per operation)%n", interpreted / 1_000_000.0, interpreted / (double) ITERATIONS);
+        System.out.printf("compiled test time: %.3f ms (%.3f ns per operation)%n", bytecode / 1_000_000.0, bytecode / (double) ITERATIONS);
+
+        // whole columns: ITERATIONS rows per run
+        Random random = new Random(0);
+        BigBoolean[] columns = new BigBoolean[8];
+        for (int v = 0; v < columns.length; v++) {
+            columns[v] = new BigBoolean(ITERATIONS);
+            for (int i = 0; i < ITERATIONS; i++) {
+                columns[v].setValue(i, random.nextBoolean());
+            }
+        }
+
+        FormulaProgram program = FormulaProgram.compile(formula);
+        for (int i = 0; i < 20; i++) {
+            sink += program.evaluate(columns).cardinality();
+            sink += compiled.evaluate(columns).cardinality();
+        }
+
+        startTime = System.nanoTime();
+        sink += program.evaluate(columns).cardinality();
+        long programTime = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        sink += compiled.evaluate(columns).cardinality();
+        long columnTime = System.nanoTime() - startTime;
+
+        System.out.printf("program evaluate time: %.3f ms (%.3f ns per operation)%n", programTime / 1_000_000.0, programTime / (double) ITERATIONS);
+        System.out.printf("compiled evaluate time: %.3f ms (%.3f ns per operation)%n", columnTime / 1_000_000.0, columnTime / (double) ITERATIONS);
+        System.out.println("(" + sink + ")");
+    }
+
     /**
      * Benchmarks a boolean class with the given number of iterations.
      *
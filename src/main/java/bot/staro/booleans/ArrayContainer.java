@@ -0,0 +1,187 @@
+package bot.staro.booleans;
+
+import java.util.Arrays;
+
+/**
+ * A {@link RoaringContainer} storing its set values as a sorted char array.
+ * It never holds more than {@link #MAX_SIZE} values, beyond that a bitmap is smaller.
+ *
+ * @author St4ro.
+ */
+final class ArrayContainer extends RoaringContainer {
+    static final int MAX_SIZE = 4096;
+
+    private char[] values;
+    private int size;
+
+    ArrayContainer() {
+        this(new char[4], 0);
+    }
+
+    ArrayContainer(char[] values, int size) {
+        this.values = values;
+        this.size = size;
+    }
+
+    @Override
+    int cardinality() {
+        return size;
+    }
+
+    @Override
+    boolean contains(char value) {
+        return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    @Override
+    RoaringContainer add(char value) {
+        int index = Arrays.binarySearch(values, 0, size, value);
+        if (index >= 0) {
+            return this;
+        }
+
+        if (size == MAX_SIZE) {
+            return toBitmap().add(value);
+        }
+
+        index = -index - 1;
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.min(MAX_SIZE, size * 2));
+        }
+
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        size++;
+        return this;
+    }
+
+    @Override
+    RoaringContainer remove(char value) {
+        int index = Arrays.binarySearch(values, 0, size, value);
+        if (index >= 0) {
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+        }
+
+        return this;
+    }
+
+    @Override
+    RoaringContainer copy() {
+        return new ArrayContainer(Arrays.copyOf(values, Math.max(size, 4)), size);
+    }
+
+    @Override
+    int numberOfRuns() {
+        int runs = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || values[i] != values[i - 1] + 1) {
+                runs++;
+            }
+        }
+
+        return runs;
+    }
+
+    @Override
+    BitmapContainer toBitmap() {
+        long[] words = new long[WORDS];
+        writeTo(words, 0);
+        return new BitmapContainer(words, size);
+    }
+
+    @Override
+    void writeTo(long[] words, int offset) {
+        for (int i = 0; i < size; i++) {
+            int word = offset + (values[i] >>> 6);
+            if (word < words.length) {
+                words[word] |= 1L << values[i];
+            }
+        }
+    }
+
+    @Override
+    RoaringContainer and(RoaringContainer other) {
+        char[] result = new char[Math.min(size, other.cardinality())];
+        int count = 0;
+        for (int i = 0; i < size && count < result.length; i++) {
+            if (other.contains(values[i])) {
+                result[count++] = values[i];
+            }
+        }
+
+        return new ArrayContainer(result, count);
+    }
+
+    @Override
+    RoaringContainer or(RoaringContainer other) {
+        if (!(other instanceof ArrayContainer array)) {
+            return other.or(this);
+        }
+
+        if (size + array.size > MAX_SIZE) {
+            return toBitmap().or(array);
+        }
+
+        char[] result = new char[size + array.size];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < size && j < array.size) {
+            char a = values[i];
+            char b = array.values[j];
+            if (a < b) {
+                result[count++] = a;
+                i++;
+            } else if (a > b) {
+                result[count++] = b;
+                j++;
+            } else {
+                result[count++] = a;
+                i++;
+                j++;
+            }
+        }
+
+        while (i < size) {
+            result[count++] = values[i++];
+        }
+
+        while (j < array.size) {
+            result[count++] = array.values[j++];
+        }
+
+        return new ArrayContainer(result, count);
+    }
+
+    @Override
+    RoaringContainer not(int limit) {
+        // the gaps between sparse values are a handful of long runs
+        char[] runs = new char[2 * (size + 1)];
+        int count = 0;
+        int start = 0;
+        for (int i = 0; i < size && values[i] < limit; i++) {
+            if (values[i] > start) {
+                runs[2 * count] = (char) start;
+                runs[2 * count + 1] = (char) (values[i] - start - 1);
+                count++;
+            }
+
+            start = values[i] + 1;
+        }
+
+        if (start < limit) {
+            runs[2 * count] = (char) start;
+            runs[2 * count + 1] = (char) (limit - start - 1);
+            count++;
+        }
+
+        return new RunContainer(runs, count);
+    }
+
+    @Override
+    int sizeInBytes() {
+        return 16 + 2 * values.length;
+    }
+
+}
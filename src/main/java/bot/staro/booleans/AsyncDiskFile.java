@@ -0,0 +1,199 @@
+package bot.staro.booleans;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The file of an asynchronous {@link DiskBoolean}: one byte, read and written through an
+ * {@link AsynchronousFileChannel} so no caller thread ever waits for the disk.
+ * <p>
+ * Every read starts only after the last write issued before it has finished, and every write only after
+ * that write and the reads issued since, so reads see exactly the writes made before them. A read issued while another one is in flight,
+ * with no write in between, joins it instead of reading the file again. At most {@code maxOutstanding}
+ * reads and writes are in flight; beyond that, new operations fail at once with a
+ * {@link RejectedExecutionException} instead of blocking, which an event loop can answer by backing off.
+ * Futures are completed on the executor given at creation, never on the I/O threads.
+ *
+ * @author St4ro.
+ */
+final class AsyncDiskFile implements Closeable {
+    private final AsynchronousFileChannel channel;
+    private final Executor executor;
+    private final Semaphore permits;
+    // guarded by this: the read later reads may join, the last write issued, and the reads issued since
+    private CompletableFuture<Boolean> read;
+    private CompletableFuture<Void> write = CompletableFuture.completedFuture(null);
+    private CompletableFuture<Void> reads = CompletableFuture.completedFuture(null);
+
+    AsyncDiskFile(Path path, Executor executor, int maxOutstanding) throws IOException {
+        if (maxOutstanding <= 0) {
+            throw new IllegalArgumentException("maxOutstanding must be positive, got " + maxOutstanding);
+        }
+
+        this.channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        this.executor = executor;
+        this.permits = new Semaphore(maxOutstanding);
+    }
+
+    /**
+     * @return a future of the value in the file, completed on the executor
+     */
+    CompletableFuture<Boolean> read() {
+        CompletableFuture<Void> finished = new CompletableFuture<>();
+        CompletableFuture<Boolean> done;
+        CompletableFuture<Void> after;
+        synchronized (this) {
+            if (read != null) {
+                return read.copy();
+            }
+
+            if (!permits.tryAcquire()) {
+                return CompletableFuture.failedFuture(new RejectedExecutionException("Too many outstanding DiskBoolean operations"));
+            }
+
+            done = new CompletableFuture<>();
+            read = done;
+            after = write;
+            reads = CompletableFuture.allOf(reads, finished);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        after.whenComplete((ignored, e) -> channel.read(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer count, Void attachment) {
+                finishRead(done, finished);
+                dispatch(done, buffer.get(0) == 1, null);
+            }
+
+            @Override
+            public void failed(Throwable t, Void attachment) {
+                finishRead(done, finished);
+                dispatch(done, null, t);
+            }
+        }));
+        return done.copy();
+    }
+
+    /**
+     * @return a future completed on the executor once the value is written
+     */
+    CompletableFuture<Void> write(boolean value) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        CompletableFuture<Void> after;
+        synchronized (this) {
+            if (!permits.tryAcquire()) {
+                return CompletableFuture.failedFuture(new RejectedExecutionException("Too many outstanding DiskBoolean operations"));
+            }
+
+            after = CompletableFuture.allOf(write, reads);
+            write = written;
+            reads = CompletableFuture.completedFuture(null);
+            // reads issued from now on must see this write, so they cannot join an earlier read
+            read = null;
+        }
+
+        CompletableFuture<Void> ret = new CompletableFuture<>();
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{(byte) (value ? 1 : 0)});
+        after.whenComplete((ignored, e) -> channel.write(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer count, Void attachment) {
+                // later operations start from the I/O thread, only the caller's future goes through the executor
+                written.complete(null);
+                permits.release();
+                dispatch(ret, null, null);
+            }
+
+            @Override
+            public void failed(Throwable t, Void attachment) {
+                written.complete(null);
+                permits.release();
+                dispatch(ret, null, t);
+            }
+        }));
+        return ret;
+    }
+
+    /**
+     * Waits for the writes issued so far and forces them to the device.
+     */
+    void force() throws IOException {
+        CompletableFuture<Void> last;
+        synchronized (this) {
+            last = write;
+        }
+
+        await(last);
+        channel.force(false);
+    }
+
+    /**
+     * Waits for the reads and writes in flight, then closes the file. Callers must not issue new ones.
+     */
+    @Override
+    public void close() throws IOException {
+        CompletableFuture<Void> last;
+        synchronized (this) {
+            last = CompletableFuture.allOf(write, reads);
+        }
+
+        try {
+            // a failed operation has already failed its own caller
+            await(last.exceptionally(e -> null));
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Waits for a future of a synchronous caller, unwrapping the IOException it failed with.
+     */
+    static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+
+            throw new CompletionException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a disk operation");
+        }
+    }
+
+    private void finishRead(CompletableFuture<Boolean> done, CompletableFuture<Void> finished) {
+        synchronized (this) {
+            if (read == done) {
+                read = null;
+            }
+        }
+
+        permits.release();
+        finished.complete(null);
+    }
+
+    private <T> void dispatch(CompletableFuture<T> future, T value, Throwable failure) {
+        Runnable completion = failure == null ? () -> future.complete(value) : () -> future.completeExceptionally(failure);
+        try {
+            executor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            // a shut down executor must not leave the caller waiting forever
+            future.completeExceptionally(e);
+        }
+    }
+
+}
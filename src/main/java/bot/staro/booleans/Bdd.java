@@ -0,0 +1,695 @@
+package bot.staro.booleans;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A reduced ordered binary decision diagram manager. Every boolean function over the variables
+ * {@code 0 .. variables - 1} (in this order from the root down) has exactly one node, so two
+ * functions are equivalent exactly when their node handles are equal.
+ * <p>
+ * Nodes are plain {@code int} handles into one {@code int[]} holding the variable, both children and
+ * the hash chain of every node, so a node costs 24 bytes with its reference count and hash bucket, and no object
+ * headers. A unique table hash-conses the nodes, and all operations go through {@link #ite} with a
+ * direct-mapped computed table of a fixed size, which evicts old results instead of growing.
+ * <p>
+ * Every node handle returned by a public method is referenced once, and must be released with
+ * {@link #deref} when it is no longer needed. Unreferenced nodes are reclaimed by a mark-and-sweep
+ * collection that runs before an operation when the table is running full, never during one.
+ * The manager is not thread safe.
+ *
+ * @author St4ro.
+ */
+public final class Bdd {
+    /**
+     * The handle of the constant false function.
+     */
+    public static final int FALSE = 0;
+    /**
+     * The handle of the constant true function.
+     */
+    public static final int TRUE = 1;
+
+    // the fields of a node, in nodes[NODE_INTS * node + field]
+    private static final int NODE_INTS = 4;
+    private static final int VAR = 0;
+    private static final int LOW = 1;
+    private static final int HIGH = 2;
+    private static final int NEXT = 3;
+    private static final int MARK = 1 << 31;
+    private static final int FREE = -1;
+    private static final int EMPTY = -1;
+
+    private final int variables;
+    private final int[] variableNodes;
+    private int[] nodes;
+    private int[] refs;
+    private int[] buckets;
+    private int capacity;
+    private int freeList;
+    private int freeCount;
+    // four ints per entry: f, g, h and ite(f, g, h)
+    private final int[] cache;
+    private final int cacheMask;
+
+    /**
+     * Creates a manager with room for 64K nodes to start with and a computed table of 256K entries.
+     *
+     * @param variables the number of variables
+     */
+    public Bdd(int variables) {
+        this(variables, 1 << 16, 1 << 18);
+    }
+
+    /**
+     * Creates a manager.
+     *
+     * @param variables the number of variables
+     * @param initialNodes the number of nodes to make room for, grown as needed
+     * @param cacheEntries the number of entries of the computed table, rounded up to a power of two
+     * @throws IllegalArgumentException if a parameter is out of range
+     */
+    public Bdd(int variables, int initialNodes, int cacheEntries) {
+        if (variables < 0 || initialNodes < 2 || cacheEntries < 1 || cacheEntries > 1 << 28) {
+            throw new IllegalArgumentException("variables < 0, initialNodes < 2 or cacheEntries not in [1, 2^28]");
+        }
+
+        this.variables = variables;
+        int entries = Integer.highestOneBit(cacheEntries - 1 | 1) << (cacheEntries > 1 ? 1 : 0);
+        this.cache = new int[NODE_INTS * entries];
+        this.cacheMask = entries - 1;
+        Arrays.fill(cache, EMPTY);
+        allocate(Integer.highestOneBit(Math.max(initialNodes, variables + 2) - 1) << 1);
+        for (int terminal = FALSE; terminal <= TRUE; terminal++) {
+            nodes[NODE_INTS * terminal + VAR] = variables;
+            nodes[NODE_INTS * terminal + LOW] = terminal;
+            nodes[NODE_INTS * terminal + HIGH] = terminal;
+            refs[terminal] = 1;
+        }
+
+        this.variableNodes = new int[variables];
+        for (int v = 0; v < variables; v++) {
+            variableNodes[v] = mk(v, FALSE, TRUE);
+            refs[variableNodes[v]] = 1;
+        }
+    }
+
+    /**
+     * @return the number of variables
+     */
+    public int getVariableCount() {
+        return variables;
+    }
+
+    /**
+     * @return the number of nodes currently in the unique table, terminals included
+     */
+    public int getLiveNodeCount() {
+        return capacity - freeCount;
+    }
+
+    /**
+     * @param v the variable
+     * @return the function that is the value of the variable. It is referenced forever, so it needs no deref.
+     * @throws IndexOutOfBoundsException if the variable does not exist
+     */
+    public int variable(int v) {
+        if (v < 0 || v >= variables) {
+            throw new IndexOutOfBoundsException("Index " + v + " out of bounds for dimension " + variables);
+        }
+
+        return variableNodes[v];
+    }
+
+    /**
+     * Adds a reference to a node, keeping it alive through collections.
+     *
+     * @param f the node
+     * @return f
+     */
+    public int ref(int f) {
+        checkNode(f);
+        if (refs[f] != Integer.MAX_VALUE) {
+            refs[f]++;
+        }
+
+        return f;
+    }
+
+    /**
+     * Releases a reference to a node. The node is reclaimed by the next collection once no reference is left.
+     *
+     * @param f the node
+     * @throws IllegalStateException if the node is not referenced
+     */
+    public void deref(int f) {
+        checkNode(f);
+        if (refs[f] == 0) {
+            throw new IllegalStateException("Node " + f + " is not referenced");
+        }
+
+        if (refs[f] != Integer.MAX_VALUE) {
+            refs[f]--;
+        }
+    }
+
+    /**
+     * Computes {@code if f then g else h}, the operation every other operation is built on.
+     *
+     * @return a new reference to the result
+     */
+    public int ite(int f, int g, int h) {
+        checkNode(f);
+        checkNode(g);
+        checkNode(h);
+        prepare();
+        return reference(iteRec(f, g, h));
+    }
+
+    /**
+     * @return a new reference to {@code NOT f}
+     */
+    public int not(int f) {
+        return ite(f, FALSE, TRUE);
+    }
+
+    /**
+     * @return a new reference to {@code f AND g}
+     */
+    public int and(int f, int g) {
+        return ite(f, g, FALSE);
+    }
+
+    /**
+     * @return a new reference to {@code f OR g}
+     */
+    public int or(int f, int g) {
+        return ite(f, TRUE, g);
+    }
+
+    /**
+     * @return a new reference to {@code f XOR g}
+     */
+    public int xor(int f, int g) {
+        return apply(BitOperator.XOR, f, g);
+    }
+
+    /**
+     * @return a new reference to {@code f -> g}
+     */
+    public int implies(int f, int g) {
+        return ite(f, g, TRUE);
+    }
+
+    /**
+     * @return a new reference to {@code f <-> g}
+     */
+    public int equivalence(int f, int g) {
+        return apply(BitOperator.EQUIVALENCE, f, g);
+    }
+
+    /**
+     * @return a new reference to {@code op(f, g)}
+     */
+    public int apply(BitOperator op, int f, int g) {
+        checkNode(f);
+        checkNode(g);
+        prepare();
+        return reference(applyRec(op, f, g));
+    }
+
+    /**
+     * Builds the diagram of a formula. Variable i of the formula is variable i of this manager.
+     *
+     * @param formula the formula
+     * @return a new reference to its diagram
+     * @throws IllegalArgumentException if the formula uses more variables than this manager has
+     */
+    public int fromFormula(BooleanFormula formula) {
+        if (formula.getVariableCount() > variables) {
+            throw new IllegalArgumentException("The formula uses " + formula.getVariableCount() + " variables, the manager has " + variables);
+        }
+
+        prepare();
+        return reference(build(formula));
+    }
+
+    /**
+     * Builds the diagram of a truth table, where entry i is the value for the assignment that sets variable v
+     * to bit v of i. This is the layout of {@link FormulaProgram#truthTable()}.
+     *
+     * @param table the truth table, of dimension 2^k for some k no larger than the number of variables
+     * @return a new reference to the diagram
+     * @throws IllegalArgumentException if the dimension is not a power of two or too large
+     */
+    public int fromTruthTable(BigBoolean table) {
+        int size = table.getDimension();
+        int k = Integer.numberOfTrailingZeros(size);
+        if (Integer.bitCount(size) != 1 || k > variables) {
+            throw new IllegalArgumentException("A truth table of " + variables + " variables has a power of two entries up to 2^" + variables);
+        }
+
+        prepare();
+        return reference(build(table.words(), k, 0, 0));
+    }
+
+    /**
+     * Writes the truth table of a function over its first k variables.
+     *
+     * @param f the function
+     * @param k the number of variables of the table, at most 30
+     * @return a new BigBoolean of dimension 2^k in the layout of {@link #fromTruthTable}
+     * @throws IllegalArgumentException if k is out of range or the function depends on a variable past k
+     */
+    public BigBoolean toTruthTable(int f, int k) {
+        checkNode(f);
+        if (k < 0 || k > 30 || k > variables) {
+            throw new IllegalArgumentException("k must be between 0 and min(30, variables)");
+        }
+
+        BigBoolean ret = new BigBoolean(1 << k);
+        fill(f, 0, k, 0, ret.words());
+        return ret;
+    }
+
+    /**
+     * Counts the assignments of all variables that satisfy a function.
+     *
+     * @param f the function
+     * @return the number of satisfying assignments, up to 2^variables
+     */
+    public BigInteger satCount(int f) {
+        checkNode(f);
+        return count(f, new HashMap<>()).shiftLeft(var(f));
+    }
+
+    /**
+     * Finds one assignment that satisfies a function. Variables the function does not constrain on the
+     * chosen path are false.
+     *
+     * @param f the function
+     * @return an assignment of all variables, or null if the function is unsatisfiable
+     */
+    public boolean[] anySat(int f) {
+        checkNode(f);
+        if (f == FALSE) {
+            return null;
+        }
+
+        boolean[] assignment = new boolean[variables];
+        // in a reduced diagram every non-terminal node has a path to TRUE
+        while (f != TRUE) {
+            int low = nodes[NODE_INTS * f + LOW];
+            if (low != FALSE) {
+                f = low;
+            } else {
+                assignment[var(f)] = true;
+                f = nodes[NODE_INTS * f + HIGH];
+            }
+        }
+
+        return assignment;
+    }
+
+    /**
+     * Evaluates a function for one assignment by walking a single path.
+     *
+     * @param f the function
+     * @param assignment the value of every variable
+     * @return the value of the function
+     */
+    public boolean evaluate(int f, boolean... assignment) {
+        checkNode(f);
+        while (f > TRUE) {
+            f = nodes[NODE_INTS * f + (assignment[var(f)] ? HIGH : LOW)];
+        }
+
+        return f == TRUE;
+    }
+
+    /**
+     * @param f the function
+     * @return the number of nodes of its diagram, terminals included
+     */
+    public int nodeCount(int f) {
+        checkNode(f);
+        int count = mark(f);
+        unmark(f);
+        return count;
+    }
+
+    /**
+     * Reclaims all nodes that are not reachable from a referenced node, and clears the computed table.
+     */
+    public void gc() {
+        for (int node = 0; node < capacity; node++) {
+            if (refs[node] > 0 && nodes[NODE_INTS * node + VAR] != FREE) {
+                mark(node);
+            }
+        }
+
+        Arrays.fill(buckets, EMPTY);
+        freeList = EMPTY;
+        freeCount = 0;
+        for (int node = capacity - 1; node > TRUE; node--) {
+            int base = NODE_INTS * node;
+            int var = nodes[base + VAR];
+            if (var != FREE && (var & MARK) != 0) {
+                nodes[base + VAR] = var & ~MARK;
+                insert(node);
+            } else {
+                release(node);
+            }
+        }
+
+        nodes[VAR] &= ~MARK;
+        nodes[NODE_INTS + VAR] &= ~MARK;
+        Arrays.fill(cache, EMPTY);
+    }
+
+    private int iteRec(int f, int g, int h) {
+        if (f == TRUE) {
+            return g;
+        }
+
+        if (f == FALSE) {
+            return h;
+        }
+
+        if (g == h) {
+            return g;
+        }
+
+        if (g == TRUE && h == FALSE) {
+            return f;
+        }
+
+        int slot = NODE_INTS * (hash(f, g, h) & cacheMask);
+        if (cache[slot] == f && cache[slot + 1] == g && cache[slot + 2] == h) {
+            return cache[slot + 3];
+        }
+
+        int v = Math.min(var(f), Math.min(var(g), var(h)));
+        int low = iteRec(cofactor(f, v, LOW), cofactor(g, v, LOW), cofactor(h, v, LOW));
+        int high = iteRec(cofactor(f, v, HIGH), cofactor(g, v, HIGH), cofactor(h, v, HIGH));
+        int ret = mk(v, low, high);
+        cache[slot] = f;
+        cache[slot + 1] = g;
+        cache[slot + 2] = h;
+        cache[slot + 3] = ret;
+        return ret;
+    }
+
+    private int applyRec(BitOperator op, int f, int g) {
+        return switch (op) {
+            case AND -> iteRec(f, g, FALSE);
+            case OR -> iteRec(f, TRUE, g);
+            case XOR -> iteRec(f, iteRec(g, FALSE, TRUE), g);
+            case AND_NOT -> iteRec(g, FALSE, f);
+            case NAND -> iteRec(f, iteRec(g, FALSE, TRUE), TRUE);
+            case NOR -> iteRec(f, FALSE, iteRec(g, FALSE, TRUE));
+            case IMPLIES -> iteRec(f, g, TRUE);
+            case EQUIVALENCE -> iteRec(f, g, iteRec(g, FALSE, TRUE));
+        };
+    }
+
+    /**
+     * Builds every distinct subformula once, in an iterative post-order walk, so shared and very deep
+     * formulas take time in the number of distinct subformulas and no stack.
+     */
+    private int build(BooleanFormula formula) {
+        Map<BooleanFormula, Integer> built = new HashMap<>();
+        Deque<BooleanFormula> stack = new ArrayDeque<>();
+        stack.push(formula);
+        while (!stack.isEmpty()) {
+            BooleanFormula node = stack.peek();
+            if (built.containsKey(node)) {
+                stack.pop();
+                continue;
+            }
+
+            boolean ready = true;
+            for (BooleanFormula operand : FormulaProgram.operands(node)) {
+                if (!built.containsKey(operand)) {
+                    stack.push(operand);
+                    ready = false;
+                }
+            }
+
+            if (ready) {
+                stack.pop();
+                built.put(node, buildNode(node, built));
+            }
+        }
+
+        return built.get(formula);
+    }
+
+    private int buildNode(BooleanFormula formula, Map<BooleanFormula, Integer> built) {
+        if (formula instanceof BooleanFormula.Variable variable) {
+            return variableNodes[variable.index];
+        }
+
+        if (formula instanceof BooleanFormula.Constant constant) {
+            return constant.value ? TRUE : FALSE;
+        }
+
+        if (formula instanceof BooleanFormula.Not not) {
+            return iteRec(built.get(not.operand), FALSE, TRUE);
+        }
+
+        BooleanFormula.Binary binary = (BooleanFormula.Binary) formula;
+        return applyRec(binary.op, built.get(binary.left), built.get(binary.right));
+    }
+
+    /**
+     * Builds the function of the table entries whose lowest v bits are prefix,
+     * which only depends on the variables v .. k - 1.
+     */
+    private int build(long[] table, int k, int v, int prefix) {
+        if (v == k) {
+            return (table[prefix >>> 6] & (1L << prefix)) != 0 ? TRUE : FALSE;
+        }
+
+        int low = build(table, k, v + 1, prefix);
+        int high = build(table, k, v + 1, prefix | (1 << v));
+        return mk(v, low, high);
+    }
+
+    /**
+     * Sets the table entries whose lowest v bits are prefix where f is true.
+     */
+    private void fill(int f, int v, int k, int prefix, long[] table) {
+        if (f == FALSE) {
+            return;
+        }
+
+        if (f == TRUE) {
+            for (int i = prefix; i < 1 << k; i += 1 << v) {
+                table[i >>> 6] |= 1L << i;
+            }
+
+            return;
+        }
+
+        if (var(f) >= k) {
+            throw new IllegalArgumentException("The function depends on variable " + var(f) + ", past the table");
+        }
+
+        int low = var(f) == v ? nodes[NODE_INTS * f + LOW] : f;
+        int high = var(f) == v ? nodes[NODE_INTS * f + HIGH] : f;
+        fill(low, v + 1, k, prefix, table);
+        fill(high, v + 1, k, prefix | (1 << v), table);
+    }
+
+    /**
+     * @return the number of satisfying assignments of the variables var(f) .. variables - 1
+     */
+    private BigInteger count(int f, Map<Integer, BigInteger> memo) {
+        if (f <= TRUE) {
+            return f == TRUE ? BigInteger.ONE : BigInteger.ZERO;
+        }
+
+        BigInteger ret = memo.get(f);
+        if (ret == null) {
+            int low = nodes[NODE_INTS * f + LOW];
+            int high = nodes[NODE_INTS * f + HIGH];
+            ret = count(low, memo).shiftLeft(var(low) - var(f) - 1)
+                    .add(count(high, memo).shiftLeft(var(high) - var(f) - 1));
+            memo.put(f, ret);
+        }
+
+        return ret;
+    }
+
+    private int mk(int v, int low, int high) {
+        if (low == high) {
+            return low;
+        }
+
+        int bucket = hash(v, low, high) & (capacity - 1);
+        for (int node = buckets[bucket]; node != EMPTY; node = nodes[NODE_INTS * node + NEXT]) {
+            int base = NODE_INTS * node;
+            if (nodes[base + VAR] == v && nodes[base + LOW] == low && nodes[base + HIGH] == high) {
+                return node;
+            }
+        }
+
+        if (freeCount == 0) {
+            // never collect in the middle of an operation, its intermediate results are not referenced
+            grow();
+            bucket = hash(v, low, high) & (capacity - 1);
+        }
+
+        int node = freeList;
+        int base = NODE_INTS * node;
+        freeList = nodes[base + NEXT];
+        freeCount--;
+        nodes[base + VAR] = v;
+        nodes[base + LOW] = low;
+        nodes[base + HIGH] = high;
+        nodes[base + NEXT] = buckets[bucket];
+        buckets[bucket] = node;
+        return node;
+    }
+
+    /**
+     * Makes room before an operation: collects when fewer than an eighth of the nodes are free,
+     * and grows the table when that still leaves less than a quarter free.
+     */
+    private void prepare() {
+        if (freeCount < capacity >>> 3) {
+            gc();
+            if (freeCount < capacity >>> 2) {
+                grow();
+            }
+        }
+    }
+
+    private void allocate(int size) {
+        int old = capacity;
+        nodes = nodes == null ? new int[NODE_INTS * size] : Arrays.copyOf(nodes, NODE_INTS * size);
+        refs = refs == null ? new int[size] : Arrays.copyOf(refs, size);
+        buckets = new int[size];
+        capacity = size;
+        Arrays.fill(buckets, EMPTY);
+        for (int node = Math.max(old, TRUE + 1); node < size; node++) {
+            nodes[NODE_INTS * node + VAR] = FREE;
+        }
+
+        if (old == 0) {
+            freeList = EMPTY;
+            freeCount = 0;
+        }
+
+        for (int node = size - 1; node >= Math.max(old, TRUE + 1); node--) {
+            release(node);
+        }
+    }
+
+    private void grow() {
+        if (capacity >= 1 << 28) {
+            throw new OutOfMemoryError("Bdd node table is full");
+        }
+
+        allocate(capacity << 1);
+        for (int node = TRUE + 1; node < capacity; node++) {
+            if (nodes[NODE_INTS * node + VAR] != FREE) {
+                insert(node);
+            }
+        }
+    }
+
+    private void insert(int node) {
+        int base = NODE_INTS * node;
+        int bucket = hash(nodes[base + VAR], nodes[base + LOW], nodes[base + HIGH]) & (capacity - 1);
+        nodes[base + NEXT] = buckets[bucket];
+        buckets[bucket] = node;
+    }
+
+    private void release(int node) {
+        int base = NODE_INTS * node;
+        nodes[base + VAR] = FREE;
+        nodes[base + NEXT] = freeList;
+        refs[node] = 0;
+        freeList = node;
+        freeCount++;
+    }
+
+    /**
+     * Marks every node reachable from f with an explicit stack.
+     *
+     * @return the number of nodes that were newly marked
+     */
+    private int mark(int f) {
+        int count = 0;
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = f;
+        while (top > 0) {
+            int node = stack[--top];
+            int base = NODE_INTS * node;
+            if ((nodes[base + VAR] & MARK) != 0) {
+                continue;
+            }
+
+            nodes[base + VAR] |= MARK;
+            count++;
+            if (node > TRUE) {
+                if (top + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length << 1);
+                }
+
+                stack[top++] = nodes[base + LOW];
+                stack[top++] = nodes[base + HIGH];
+            }
+        }
+
+        return count;
+    }
+
+    private void unmark(int f) {
+        int base = NODE_INTS * f;
+        if ((nodes[base + VAR] & MARK) == 0) {
+            return;
+        }
+
+        nodes[base + VAR] &= ~MARK;
+        if (f > TRUE) {
+            unmark(nodes[base + LOW]);
+            unmark(nodes[base + HIGH]);
+        }
+    }
+
+    private int var(int f) {
+        return nodes[NODE_INTS * f + VAR];
+    }
+
+    private int cofactor(int f, int v, int branch) {
+        return var(f) == v ? nodes[NODE_INTS * f + branch] : f;
+    }
+
+    private int reference(int f) {
+        if (refs[f] != Integer.MAX_VALUE) {
+            refs[f]++;
+        }
+
+        return f;
+    }
+
+    private void checkNode(int f) {
+        if (f < 0 || f >= capacity || nodes[NODE_INTS * f + VAR] == FREE) {
+            throw new IllegalArgumentException("Not a live node: " + f);
+        }
+    }
+
+    private static int hash(int a, int b, int c) {
+        int h = a * 0x9E3779B1 + b * 0x85EBCA77 + c * 0xC2B2AE3D;
+        return h ^ (h >>> 15);
+    }
+
+}
@@ -1,5 +1,11 @@
 package bot.staro.booleans;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
 /**
  * A boolean array implementation that can hold an arbitrary number of boolean values.
  * This class represents a sequence of boolean values as an array of longs for efficiency.
@@ -9,6 +15,8 @@ package bot.staro.booleans;
 public final class BigBoolean {
     private final long[] payload;
     private final int dimension;
+    // built on demand by rank/select queries, dropped on every mutation
+    private RankDirectory rankDirectory;
 
     /**
      * Creates a new BigBoolean with the specified dimension.
@@ -28,22 +36,8 @@ public final class BigBoolean {
      */
     public BigBoolean(String src) {
         dimension = src.length();
-        int size = dimension / 64 + 1;
-        payload = new long[size];
-        for (int i = 0; i < payload.length; i++) {
-            String chunk = src.substring(i * 64);
-            if ((i + 1) * 64 < src.length()) {
-                chunk = chunk.substring(0, 64);
-            }
-
-            for (int j = 0; j < chunk.length(); j++) {
-                char elem = chunk.charAt(j);
-                if ('1' == elem) {
-                    long bit = 1L << j;
-                    payload[i] = payload[i] | bit;
-                }
-            }
-        }
+        payload = new long[wordsFor(dimension)];
+        BigBooleanText.parseInto(src, payload);
     }
 
     /**
@@ -56,6 +50,295 @@ public final class BigBoolean {
         this.dimension = dimension;
         this.payload = new long[1];
         this.payload[0] = payload;
+        maskPadding();
+    }
+
+    /**
+     * Wraps an existing payload without copying it.
+     * The payload must use the layout of {@link #wordsFor(int)} and have its padding bits cleared.
+     *
+     * @param payload the words holding the boolean values
+     * @param dimension the number of boolean values this BigBoolean can hold
+     */
+    BigBoolean(long[] payload, int dimension) {
+        if (payload.length != wordsFor(dimension)) {
+            throw new AssertionError("payload.length != wordsFor(dimension)");
+        }
+
+        this.dimension = dimension;
+        this.payload = payload;
+    }
+
+    /**
+     * @return the number of words a BigBoolean of the given dimension is stored in
+     */
+    static int wordsFor(int dimension) {
+        return dimension / 64 + 1;
+    }
+
+    /**
+     * Gives other bit vectors of this package direct access to the payload.
+     * Callers that modify the returned array must call {@link #invalidate()}.
+     */
+    long[] words() {
+        return payload;
+    }
+
+    /**
+     * Parses a BigBoolean from any character sequence in linear time.
+     * Like {@link #BigBoolean(String)}, every '1' is true and any other character false.
+     *
+     * @param src the characters to parse
+     * @return the parsed BigBoolean, whose dimension is the length of src
+     */
+    public static BigBoolean parse(CharSequence src) {
+        long[] payload = new long[wordsFor(src.length())];
+        BigBooleanText.parseInto(src, payload);
+        return new BigBoolean(payload, src.length());
+    }
+
+    /**
+     * Reads a BigBoolean from a reader until it is exhausted. The input is read in chunks,
+     * so the text never has to be held in memory as a whole.
+     *
+     * @param in the reader providing '0'/'1' text
+     * @return the parsed BigBoolean, whose dimension is the number of characters read
+     * @throws IOException if the reader fails
+     */
+    public static BigBoolean read(Reader in) throws IOException {
+        return BigBooleanText.read(in);
+    }
+
+    /**
+     * Gets the boolean value at the specified index.
+     *
+     * @param index the index of the value, from 0 to dimension - 1
+     * @return the value at the index
+     * @throws IndexOutOfBoundsException if the index is outside of this BigBoolean
+     */
+    public boolean getValue(int index) {
+        checkIndex(index);
+        return (payload[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Sets the boolean value at the specified index.
+     *
+     * @param index the index of the value, from 0 to dimension - 1
+     * @param value the new value
+     * @throws IndexOutOfBoundsException if the index is outside of this BigBoolean
+     */
+    public void setValue(int index, boolean value) {
+        checkIndex(index);
+        rankDirectory = null;
+        if (value) {
+            payload[index >>> 6] |= 1L << index;
+        } else {
+            payload[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    /**
+     * @return the number of boolean values this BigBoolean holds
+     */
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Counts the values of this BigBoolean that are true.
+     * This is O(1) while a rank directory is built, and a popcount over the payload otherwise.
+     *
+     * @return the number of set bits
+     */
+    public int cardinality() {
+        RankDirectory directory = rankDirectory;
+        if (directory != null) {
+            return directory.cardinality();
+        }
+
+        return (int) BitKernels.popCount(payload, 0, payload.length);
+    }
+
+    /**
+     * Counts the true values in front of the specified index.
+     * The first call builds a rank directory, which costs about 3% of the payload
+     * and is kept until this BigBoolean is modified.
+     *
+     * @param index the end of the counted range, from 0 to dimension
+     * @return the number of set bits in {@code [0, index)}
+     * @throws IndexOutOfBoundsException if the index is outside of this BigBoolean
+     */
+    public int rank(int index) {
+        if (index < 0 || index > dimension) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for dimension " + dimension);
+        }
+
+        return rankDirectory().rank(payload, index);
+    }
+
+    /**
+     * Finds the index of the k-th true value, counting from zero.
+     * Like {@link #rank(int)}, this uses the rank directory.
+     *
+     * @param k the rank of the set bit to find
+     * @return the index of the set bit, or -1 if fewer than k + 1 values are true
+     */
+    public int select(int k) {
+        return rankDirectory().select(payload, k);
+    }
+
+    /**
+     * Finds the first true value at or after the specified index.
+     *
+     * @param fromIndex the index to start from
+     * @return the index of the next set bit, or -1 if there is none
+     */
+    public int nextSetBit(int fromIndex) {
+        if (fromIndex < 0) {
+            throw new IndexOutOfBoundsException("fromIndex < 0: " + fromIndex);
+        }
+
+        if (fromIndex >= dimension) {
+            return -1;
+        }
+
+        int i = fromIndex >>> 6;
+        long word = payload[i] & (-1L << fromIndex);
+        while (word == 0) {
+            if (++i == payload.length) {
+                return -1;
+            }
+
+            word = payload[i];
+        }
+
+        return (i << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * Finds the last true value at or before the specified index.
+     *
+     * @param fromIndex the index to start from, searching downwards
+     * @return the index of the previous set bit, or -1 if there is none
+     */
+    public int prevSetBit(int fromIndex) {
+        if (fromIndex >= dimension) {
+            fromIndex = dimension - 1;
+        }
+
+        if (fromIndex < 0) {
+            return -1;
+        }
+
+        int i = fromIndex >>> 6;
+        long word = payload[i] & (-1L >>> (63 - (fromIndex & 63)));
+        while (word == 0) {
+            if (--i < 0) {
+                return -1;
+            }
+
+            word = payload[i];
+        }
+
+        return (i << 6) + 63 - Long.numberOfLeadingZeros(word);
+    }
+
+    /**
+     * Finds the first false value at or after the specified index.
+     *
+     * @param fromIndex the index to start from
+     * @return the index of the next clear bit, or -1 if there is none
+     */
+    public int nextClearBit(int fromIndex) {
+        if (fromIndex < 0) {
+            throw new IndexOutOfBoundsException("fromIndex < 0: " + fromIndex);
+        }
+
+        if (fromIndex >= dimension) {
+            return -1;
+        }
+
+        int i = fromIndex >>> 6;
+        long word = ~payload[i] & (-1L << fromIndex);
+        while (word == 0) {
+            if (++i == payload.length) {
+                return -1;
+            }
+
+            word = ~payload[i];
+        }
+
+        // the padding bits are always clear, so the search may run past the dimension
+        int index = (i << 6) + Long.numberOfTrailingZeros(word);
+        return index < dimension ? index : -1;
+    }
+
+    /**
+     * Streams the indexes of all true values in ascending order.
+     * The stream is backed by a spliterator that splits on cache line boundaries,
+     * so {@code bits().parallel()} scales with the number of cores.
+     *
+     * @return a stream of the indexes of the set bits
+     */
+    public IntStream bits() {
+        return StreamSupport.intStream(new SetBitSpliterator(payload, 0, payload.length), false);
+    }
+
+    /**
+     * Calls the action with the index of every true value in ascending order.
+     * Set bits are found a word at a time with {@link Long#numberOfTrailingZeros}, and nothing is allocated.
+     *
+     * @param action the action to call for every set bit
+     */
+    public void forEachSetBit(IntConsumer action) {
+        for (int i = 0; i < payload.length; i++) {
+            long word = payload[i];
+            while (word != 0) {
+                action.accept((i << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+    }
+
+    /**
+     * @return a new batch iterator over the indexes of the set bits
+     * @see SetBitIterator
+     */
+    public SetBitIterator setBitIterator() {
+        return new SetBitIterator(this);
+    }
+
+    /**
+     * Must be called by package members that write to {@link #words()} directly.
+     */
+    void invalidate() {
+        rankDirectory = null;
+    }
+
+    private RankDirectory rankDirectory() {
+        RankDirectory directory = rankDirectory;
+        if (directory == null) {
+            directory = new RankDirectory(payload);
+            rankDirectory = directory;
+        }
+
+        return directory;
+    }
+
+    /**
+     * Overwrites all values of this BigBoolean with the values of another one,
+     * reusing the existing payload.
+     *
+     * @param src the BigBoolean to copy from
+     * @return this BigBoolean
+     * @throws AssertionError if the dimensions are not equal
+     */
+    public BigBoolean copyFrom(BigBoolean src) {
+        checkDimension(this, src);
+        rankDirectory = null;
+        System.arraycopy(src.payload, 0, payload, 0, payload.length);
+        return this;
     }
 
     /**
@@ -67,16 +350,350 @@ public final class BigBoolean {
      * @throws AssertionError if the dimensions of the operands are not equal
      */
     public static BigBoolean conjunction(BigBoolean a, BigBoolean b) {
-        if (a.dimension != b.dimension) {
-            throw new AssertionError("a.dimension != b.dimension");
-        }
+        checkDimension(a, b);
+        return apply(BitOperator.AND, a, b, new BigBoolean(a.dimension));
+    }
+
+    /**
+     * Performs a logical AND operation between two BigBoolean objects,
+     * writing the result into an existing BigBoolean instead of allocating one.
+     * The destination may be one of the operands.
+     *
+     * @param a the first BigBoolean operand
+     * @param b the second BigBoolean operand
+     * @param dest the BigBoolean receiving the result
+     * @return dest
+     * @throws AssertionError if the dimensions of the BigBooleans are not equal
+     */
+    public static BigBoolean conjunction(BigBoolean a, BigBoolean b, BigBoolean dest) {
+        return apply(BitOperator.AND, a, b, dest);
+    }
 
-        BigBoolean ret = new BigBoolean(a.dimension);
-        for (int i = 0; i < a.payload.length; i++) {
-            ret.payload[i] = a.payload[i] & b.payload[i];
+    /**
+     * Performs a logical OR operation between two BigBoolean objects.
+     *
+     * @param a the first BigBoolean operand
+     * @param b the second BigBoolean operand
+     * @return a new BigBoolean containing the result of the OR operation
+     * @throws AssertionError if the dimensions of the operands are not equal
+     */
+    public static BigBoolean disjunction(BigBoolean a, BigBoolean b) {
+        checkDimension(a, b);
+        return apply(BitOperator.OR, a, b, new BigBoolean(a.dimension));
+    }
+
+    /**
+     * Performs a logical OR operation, writing the result into dest.
+     *
+     * @see #conjunction(BigBoolean, BigBoolean, BigBoolean)
+     */
+    public static BigBoolean disjunction(BigBoolean a, BigBoolean b, BigBoolean dest) {
+        return apply(BitOperator.OR, a, b, dest);
+    }
+
+    /**
+     * Performs a logical XOR operation between two BigBoolean objects.
+     *
+     * @param a the first BigBoolean operand
+     * @param b the second BigBoolean operand
+     * @return a new BigBoolean containing the result of the XOR operation
+     * @throws AssertionError if the dimensions of the operands are not equal
+     */
+    public static BigBoolean exclusiveDisjunction(BigBoolean a, BigBoolean b) {
+        checkDimension(a, b);
+        return apply(BitOperator.XOR, a, b, new BigBoolean(a.dimension));
+    }
+
+    /**
+     * Performs a logical XOR operation, writing the result into dest.
+     *
+     * @see #conjunction(BigBoolean, BigBoolean, BigBoolean)
+     */
+    public static BigBoolean exclusiveDisjunction(BigBoolean a, BigBoolean b, BigBoolean dest) {
+        return apply(BitOperator.XOR, a, b, dest);
+    }
+
+    /**
+     * Computes {@code a AND NOT b}, the values set in a but not in b.
+     *
+     * @param a the first BigBoolean operand
+     * @param b the second BigBoolean operand
+     * @return a new BigBoolean containing the difference
+     * @throws AssertionError if the dimensions of the operands are not equal
+     */
+    public static BigBoolean difference(BigBoolean a, BigBoolean b) {
+        checkDimension(a, b);
+        return apply(BitOperator.AND_NOT, a, b, new BigBoolean(a.dimension));
+    }
+
+    /**
+     * Computes {@code a AND NOT b}, writing the result into dest.
+     *
+     * @see #conjunction(BigBoolean, BigBoolean, BigBoolean)
+     */
+    public static BigBoolean difference(BigBoolean a, BigBoolean b, BigBoolean dest) {
+        return apply(BitOperator.AND_NOT, a, b, dest);
+    }
+
+    /**
+     * Performs a logical NAND operation between two BigBoolean objects.
+     *
+     * @param a the first BigBoolean operand
+     * @param b the second BigBoolean operand
+     * @return a new BigBoolean containing the result of the NAND operation
+     * @throws AssertionError if the dimensions of the operands are not equal
+     */
+    public static BigBoolean alternativeDenial(BigBoolean a, BigBoolean b) {
+        checkDimension(a, b);
+        return apply(BitOperator.NAND, a, b, new BigBoolean(a.dimension));
+    }
+
+    /**
+     * Performs a logical NAND operation, writing the result into dest.
+     *
+     * @see #conjunction(BigBoolean, BigBoolean, BigBoolean)
+     */
+    public static BigBoolean alternativeDenial(BigBoolean a, BigBoolean b, BigBoolean dest) {
+        return apply(BitOperator.NAND, a, b, dest);
+    }
+
+    /**
+     * Performs a logical NOR operation between two BigBoolean objects.
+     *
+     * @param a the first BigBoolean operand
+     * @param b the second BigBoolean operand
+     * @return a new BigBoolean containing the result of the NOR operation
+     * @throws AssertionError if the dimensions of the operands are not equal
+     */
+    public static BigBoolean jointDenial(BigBoolean a, BigBoolean b) {
+        checkDimension(a, b);
+        return apply(BitOperator.NOR, a, b, new BigBoolean(a.dimension));
+    }
+
+    /**
+     * Performs a logical NOR operation, writing the result into dest.
+     *
+     * @see #conjunction(BigBoolean, BigBoolean, BigBoolean)
+     */
+    public static BigBoolean jointDenial(BigBoolean a, BigBoolean b, BigBoolean dest) {
+        return apply(BitOperator.NOR, a, b, dest);
+    }
+
+    /**
+     * Computes the material implication {@code a -> b}, which is {@code NOT a OR b}.
+     *
+     * @param a the first BigBoolean operand
+     * @param b the second BigBoolean operand
+     * @return a new BigBoolean containing the implication
+     * @throws AssertionError if the dimensions of the operands are not equal
+     */
+    public static BigBoolean implication(BigBoolean a, BigBoolean b) {
+        checkDimension(a, b);
+        return apply(BitOperator.IMPLIES, a, b, new BigBoolean(a.dimension));
+    }
+
+    /**
+     * Computes the material implication {@code a -> b}, writing the result into dest.
+     *
+     * @see #conjunction(BigBoolean, BigBoolean, BigBoolean)
+     */
+    public static BigBoolean implication(BigBoolean a, BigBoolean b, BigBoolean dest) {
+        return apply(BitOperator.IMPLIES, a, b, dest);
+    }
+
+    /**
+     * Computes the equivalence {@code a <-> b}, which is {@code NOT (a XOR b)}.
+     *
+     * @param a the first BigBoolean operand
+     * @param b the second BigBoolean operand
+     * @return a new BigBoolean containing the equivalence
+     * @throws AssertionError if the dimensions of the operands are not equal
+     */
+    public static BigBoolean equivalence(BigBoolean a, BigBoolean b) {
+        checkDimension(a, b);
+        return apply(BitOperator.EQUIVALENCE, a, b, new BigBoolean(a.dimension));
+    }
+
+    /**
+     * Computes the equivalence {@code a <-> b}, writing the result into dest.
+     *
+     * @see #conjunction(BigBoolean, BigBoolean, BigBoolean)
+     */
+    public static BigBoolean equivalence(BigBoolean a, BigBoolean b, BigBoolean dest) {
+        return apply(BitOperator.EQUIVALENCE, a, b, dest);
+    }
+
+    /**
+     * Applies a word operator to two BigBoolean objects, writing the result into dest.
+     * This is the allocation free core of all binary operations; the destination may
+     * be one of the operands.
+     *
+     * @param op the operator to apply
+     * @param a the first BigBoolean operand
+     * @param b the second BigBoolean operand
+     * @param dest the BigBoolean receiving the result
+     * @return dest
+     * @throws AssertionError if the dimensions of the BigBooleans are not equal
+     */
+    public static BigBoolean apply(BitOperator op, BigBoolean a, BigBoolean b, BigBoolean dest) {
+        checkDimension(a, b);
+        checkDimension(a, dest);
+        dest.rankDirectory = null;
+        BitKernels.apply(op, a.payload, b.payload, dest.payload, 0, dest.payload.length);
+        if (op.fillsPadding()) {
+            dest.maskPadding();
         }
 
-        return ret;
+        return dest;
+    }
+
+    /**
+     * Sets this BigBoolean to {@code this AND other}.
+     *
+     * @param other the other operand
+     * @return this BigBoolean
+     * @throws AssertionError if the dimensions of the operands are not equal
+     */
+    public BigBoolean andInPlace(BigBoolean other) {
+        return apply(BitOperator.AND, this, other, this);
+    }
+
+    /**
+     * Sets this BigBoolean to {@code this OR other}.
+     *
+     * @see #andInPlace(BigBoolean)
+     */
+    public BigBoolean orInPlace(BigBoolean other) {
+        return apply(BitOperator.OR, this, other, this);
+    }
+
+    /**
+     * Sets this BigBoolean to {@code this XOR other}.
+     *
+     * @see #andInPlace(BigBoolean)
+     */
+    public BigBoolean xorInPlace(BigBoolean other) {
+        return apply(BitOperator.XOR, this, other, this);
+    }
+
+    /**
+     * Sets this BigBoolean to {@code this AND NOT other}.
+     *
+     * @see #andInPlace(BigBoolean)
+     */
+    public BigBoolean andNotInPlace(BigBoolean other) {
+        return apply(BitOperator.AND_NOT, this, other, this);
+    }
+
+    /**
+     * Sets this BigBoolean to {@code NOT (this AND other)}.
+     *
+     * @see #andInPlace(BigBoolean)
+     */
+    public BigBoolean nandInPlace(BigBoolean other) {
+        return apply(BitOperator.NAND, this, other, this);
+    }
+
+    /**
+     * Sets this BigBoolean to {@code NOT (this OR other)}.
+     *
+     * @see #andInPlace(BigBoolean)
+     */
+    public BigBoolean norInPlace(BigBoolean other) {
+        return apply(BitOperator.NOR, this, other, this);
+    }
+
+    /**
+     * Sets this BigBoolean to {@code this -> other}.
+     *
+     * @see #andInPlace(BigBoolean)
+     */
+    public BigBoolean impliesInPlace(BigBoolean other) {
+        return apply(BitOperator.IMPLIES, this, other, this);
+    }
+
+    /**
+     * Sets this BigBoolean to {@code this <-> other}.
+     *
+     * @see #andInPlace(BigBoolean)
+     */
+    public BigBoolean equivalenceInPlace(BigBoolean other) {
+        return apply(BitOperator.EQUIVALENCE, this, other, this);
+    }
+
+    /**
+     * Writes {@code this AND other} into dest, leaving this BigBoolean untouched.
+     *
+     * @param other the other operand
+     * @param dest the BigBoolean receiving the result
+     * @return dest
+     * @throws AssertionError if the dimensions of the BigBooleans are not equal
+     */
+    public BigBoolean andInto(BigBoolean other, BigBoolean dest) {
+        return apply(BitOperator.AND, this, other, dest);
+    }
+
+    /**
+     * Writes {@code this OR other} into dest.
+     *
+     * @see #andInto(BigBoolean, BigBoolean)
+     */
+    public BigBoolean orInto(BigBoolean other, BigBoolean dest) {
+        return apply(BitOperator.OR, this, other, dest);
+    }
+
+    /**
+     * Writes {@code this XOR other} into dest.
+     *
+     * @see #andInto(BigBoolean, BigBoolean)
+     */
+    public BigBoolean xorInto(BigBoolean other, BigBoolean dest) {
+        return apply(BitOperator.XOR, this, other, dest);
+    }
+
+    /**
+     * Writes {@code this AND NOT other} into dest.
+     *
+     * @see #andInto(BigBoolean, BigBoolean)
+     */
+    public BigBoolean andNotInto(BigBoolean other, BigBoolean dest) {
+        return apply(BitOperator.AND_NOT, this, other, dest);
+    }
+
+    /**
+     * Writes {@code NOT (this AND other)} into dest.
+     *
+     * @see #andInto(BigBoolean, BigBoolean)
+     */
+    public BigBoolean nandInto(BigBoolean other, BigBoolean dest) {
+        return apply(BitOperator.NAND, this, other, dest);
+    }
+
+    /**
+     * Writes {@code NOT (this OR other)} into dest.
+     *
+     * @see #andInto(BigBoolean, BigBoolean)
+     */
+    public BigBoolean norInto(BigBoolean other, BigBoolean dest) {
+        return apply(BitOperator.NOR, this, other, dest);
+    }
+
+    /**
+     * Writes {@code this -> other} into dest.
+     *
+     * @see #andInto(BigBoolean, BigBoolean)
+     */
+    public BigBoolean impliesInto(BigBoolean other, BigBoolean dest) {
+        return apply(BitOperator.IMPLIES, this, other, dest);
+    }
+
+    /**
+     * Writes {@code this <-> other} into dest.
+     *
+     * @see #andInto(BigBoolean, BigBoolean)
+     */
+    public BigBoolean equivalenceInto(BigBoolean other, BigBoolean dest) {
+        return apply(BitOperator.EQUIVALENCE, this, other, dest);
     }
 
     /**
@@ -86,12 +703,56 @@ public final class BigBoolean {
      * @return a new BigBoolean containing the complement
      */
     public BigBoolean complement() {
-        BigBoolean ret = new BigBoolean(dimension);
-        for (int i = 0; i < payload.length; i++) {
-            ret.payload[i] = ~payload[i];
+        return complementInto(new BigBoolean(dimension));
+    }
+
+    /**
+     * Writes the complement of this BigBoolean into dest.
+     * The destination may be this BigBoolean.
+     *
+     * @param dest the BigBoolean receiving the complement
+     * @return dest
+     * @throws AssertionError if the dimensions are not equal
+     */
+    public BigBoolean complementInto(BigBoolean dest) {
+        checkDimension(this, dest);
+        dest.rankDirectory = null;
+        BitKernels.complement(payload, dest.payload, 0, dest.payload.length);
+        dest.maskPadding();
+        return dest;
+    }
+
+    /**
+     * Flips all boolean values of this BigBoolean.
+     *
+     * @return this BigBoolean
+     */
+    public BigBoolean complementInPlace() {
+        return complementInto(this);
+    }
+
+    /**
+     * Clears the bits of the last word that lie beyond the dimension, so that
+     * equal values always have equal payloads no matter which operation produced them.
+     */
+    void maskPadding() {
+        int last = payload.length - 1;
+        int valid = dimension - last * 64;
+        if (valid < 64) {
+            payload[last] &= valid <= 0 ? 0L : (1L << valid) - 1;
         }
+    }
 
-        return ret;
+    private void checkIndex(int index) {
+        if (index < 0 || index >= dimension) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for dimension " + dimension);
+        }
+    }
+
+    private static void checkDimension(BigBoolean a, BigBoolean b) {
+        if (a.dimension != b.dimension) {
+            throw new AssertionError("a.dimension != b.dimension");
+        }
     }
 
     /**
@@ -102,25 +763,20 @@ public final class BigBoolean {
      */
     @Override
     public String toString() {
-        StringBuilder ret = new StringBuilder();
-        for (int i = 0; i < payload.length; i++) {
-            long chunk = payload[i];
-            int dim = 64;
-            if (i + 1 == payload.length) {
-                dim = dimension - i * 64;
-            }
-
-            for (int j = 0; j < dim; j++) {
-                long bit = 1L << j;
-                if (bit == (bit & chunk)) {
-                    ret.append('1');
-                } else {
-                    ret.append('0');
-                }
-            }
-        }
+        char[] chars = new char[dimension];
+        BigBooleanText.unpack(payload, 0, chars, dimension);
+        return new String(chars);
+    }
 
-        return ret.toString();
+    /**
+     * Writes the string representation of this BigBoolean to an appendable, in chunks,
+     * without building the whole string first.
+     *
+     * @param out the destination, typically a Writer
+     * @throws IOException if the destination fails
+     */
+    public void writeTo(Appendable out) throws IOException {
+        BigBooleanText.write(payload, dimension, out);
     }
 
     /**
@@ -146,13 +802,7 @@ public final class BigBoolean {
             return false;
         }
 
-        for (int i = 0; i < payload.length; i++) {
-            if (payload[i] != other.payload[i]) {
-                return false;
-            }
-        }
-
-        return true;
+        return BitKernels.equal(payload, other.payload, 0, payload.length);
     }
 
     /**
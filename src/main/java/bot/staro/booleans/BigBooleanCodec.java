@@ -0,0 +1,310 @@
+package bot.staro.booleans;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * A compact binary format for {@link BigBoolean}, for shipping vectors between processes.
+ * <p>
+ * Every encoded vector starts with a 24 byte little-endian header:
+ * <pre>
+ *  0  int   magic "BBIN"
+ *  4  byte  version
+ *  5  byte  encoding, {@link #RAW} or {@link #EWAH}
+ *  6  short reserved
+ *  8  int   dimension
+ * 12  int   payload length in bytes
+ * 16  int   CRC32C of the payload
+ * 20  int   reserved
+ * </pre>
+ * followed by the payload. {@link #RAW} stores the words of the vector as they are.
+ * {@link #EWAH} is a word aligned run-length encoding: a marker word holds a run of identical
+ * all-zero or all-one words (bit 0 the run value, bits 1-32 the run length) and the number of
+ * literal words that follow it (bits 33-63). The encoder picks whichever is smaller.
+ *
+ * @author St4ro.
+ */
+public final class BigBooleanCodec {
+    public static final byte RAW = 0;
+    public static final byte EWAH = 1;
+
+    private static final int MAGIC = 0x4E494242; // "BBIN" in little-endian
+    private static final byte VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+    private static final long MAX_RUN = 0xFFFFFFFFL;
+    private static final int MAX_LITERALS = Integer.MAX_VALUE;
+    private static final int CHUNK_BYTES = 1 << 16;
+
+    private BigBooleanCodec() {
+    }
+
+    /**
+     * @param src the vector to encode
+     * @return the number of bytes {@link #encode(BigBoolean, ByteBuffer)} will write, header included
+     */
+    public static int encodedSize(BigBoolean src) {
+        return HEADER_BYTES + 8 * Math.min(src.words().length, ewahWords(src.words()));
+    }
+
+    /**
+     * Encodes a vector into a new heap buffer.
+     *
+     * @param src the vector to encode
+     * @return a buffer positioned at 0 holding the encoded vector
+     */
+    public static ByteBuffer encode(BigBoolean src) {
+        ByteBuffer ret = ByteBuffer.allocate(encodedSize(src));
+        encode(src, ret);
+        return ret.flip();
+    }
+
+    /**
+     * Encodes a vector directly into the given buffer, starting at its position.
+     * The position is advanced past the encoded vector; the byte order of the buffer is left alone.
+     *
+     * @param src the vector to encode
+     * @param dst the buffer to write to
+     * @throws BufferOverflowException if fewer than {@link #encodedSize} bytes remain
+     */
+    public static void encode(BigBoolean src, ByteBuffer dst) {
+        long[] words = src.words();
+        int ewahWords = ewahWords(words);
+        byte encoding = ewahWords < words.length ? EWAH : RAW;
+        int payloadBytes = 8 * Math.min(words.length, ewahWords);
+        if (dst.remaining() < HEADER_BYTES + payloadBytes) {
+            throw new BufferOverflowException();
+        }
+
+        ByteBuffer out = dst.slice().order(ByteOrder.LITTLE_ENDIAN);
+        out.position(HEADER_BYTES);
+        if (encoding == RAW) {
+            out.asLongBuffer().put(words);
+            out.position(HEADER_BYTES + payloadBytes);
+        } else {
+            writeEwah(words, out, null);
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(out.flip().position(HEADER_BYTES));
+        writeHeader(out, encoding, src.getDimension(), payloadBytes, (int) crc.getValue());
+        dst.position(dst.position() + HEADER_BYTES + payloadBytes);
+    }
+
+    /**
+     * Streams an encoded vector to a channel through a fixed 64KB buffer,
+     * so the encoded form never exists in memory as a whole.
+     *
+     * @param src the vector to encode
+     * @param channel the channel to write to
+     * @throws IOException if the channel fails
+     */
+    public static void encode(BigBoolean src, WritableByteChannel channel) throws IOException {
+        long[] words = src.words();
+        int ewahWords = ewahWords(words);
+        byte encoding = ewahWords < words.length ? EWAH : RAW;
+        int payloadBytes = 8 * Math.min(words.length, ewahWords);
+        ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        // the checksum goes into the header, so it is computed in a first pass over the payload
+        CRC32C crc = new CRC32C();
+        writePayload(words, encoding, chunk, crc::update);
+
+        chunk.clear();
+        writeHeader(chunk, encoding, src.getDimension(), payloadBytes, (int) crc.getValue());
+        chunk.position(HEADER_BYTES);
+        try {
+            writePayload(words, encoding, chunk, buffer -> {
+                try {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Decodes a vector starting at the position of the buffer, and advances the position past it.
+     * Raw payloads are copied into the new vector with one bulk transfer.
+     *
+     * @param src the buffer to read from
+     * @return the decoded vector
+     * @throws IllegalArgumentException if the data is not a valid encoded vector or fails its checksum
+     */
+    public static BigBoolean decode(ByteBuffer src) {
+        ByteBuffer in = src.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (in.remaining() < HEADER_BYTES || in.getInt(0) != MAGIC || in.get(4) != VERSION) {
+            throw new IllegalArgumentException("Not an encoded BigBoolean");
+        }
+
+        byte encoding = in.get(5);
+        int dimension = in.getInt(8);
+        int payloadBytes = in.getInt(12);
+        int checksum = in.getInt(16);
+        if (dimension < 0 || payloadBytes < 0 || (payloadBytes & 7) != 0 || in.remaining() - HEADER_BYTES < payloadBytes) {
+            throw new IllegalArgumentException("Corrupt BigBoolean header");
+        }
+
+        ByteBuffer payload = in.slice(HEADER_BYTES, payloadBytes).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new IllegalArgumentException("BigBoolean checksum mismatch");
+        }
+
+        long[] words = new long[BigBoolean.wordsFor(dimension)];
+        LongBuffer longs = payload.asLongBuffer();
+        if (encoding == RAW) {
+            if (longs.remaining() != words.length) {
+                throw new IllegalArgumentException("Corrupt BigBoolean payload");
+            }
+
+            longs.get(words);
+        } else if (encoding == EWAH) {
+            readEwah(longs, words);
+        } else {
+            throw new IllegalArgumentException("Unknown BigBoolean encoding " + encoding);
+        }
+
+        src.position(src.position() + HEADER_BYTES + payloadBytes);
+        return new BigBoolean(words, dimension);
+    }
+
+    private static void writeHeader(ByteBuffer out, byte encoding, int dimension, int payloadBytes, int checksum) {
+        out.putInt(0, MAGIC);
+        out.put(4, VERSION);
+        out.put(5, encoding);
+        out.putShort(6, (short) 0);
+        out.putInt(8, dimension);
+        out.putInt(12, payloadBytes);
+        out.putInt(16, checksum);
+        out.putInt(20, 0);
+    }
+
+    /**
+     * Writes the payload through a chunk buffer, handing every full chunk to the sink.
+     */
+    private static void writePayload(long[] words, byte encoding, ByteBuffer chunk, Consumer<ByteBuffer> sink) {
+        if (encoding == RAW) {
+            for (long word : words) {
+                if (chunk.remaining() < 8) {
+                    drain(chunk, sink);
+                }
+
+                chunk.putLong(word);
+            }
+        } else {
+            writeEwah(words, chunk, sink);
+        }
+
+        drain(chunk, sink);
+    }
+
+    private static void drain(ByteBuffer chunk, Consumer<ByteBuffer> sink) {
+        chunk.flip();
+        sink.accept(chunk);
+        chunk.clear();
+    }
+
+    /**
+     * Writes the EWAH form of the words. Without a sink the buffer must be large enough for all of it.
+     */
+    private static void writeEwah(long[] words, ByteBuffer out, Consumer<ByteBuffer> sink) {
+        int i = 0;
+        while (i < words.length) {
+            long runBit = 0;
+            long run = 0;
+            if (words[i] == 0 || words[i] == -1L) {
+                long value = words[i];
+                runBit = value == 0 ? 0 : 1;
+                while (i < words.length && words[i] == value && run < MAX_RUN) {
+                    run++;
+                    i++;
+                }
+            }
+
+            int literals = 0;
+            while (i + literals < words.length && words[i + literals] != 0 && words[i + literals] != -1L && literals < MAX_LITERALS) {
+                literals++;
+            }
+
+            put(out, sink, runBit | (run << 1) | ((long) literals << 33));
+            for (int end = i + literals; i < end; i++) {
+                put(out, sink, words[i]);
+            }
+        }
+    }
+
+    private static void put(ByteBuffer out, Consumer<ByteBuffer> sink, long word) {
+        if (sink != null && out.remaining() < 8) {
+            drain(out, sink);
+        }
+
+        out.putLong(word);
+    }
+
+    private static void readEwah(LongBuffer in, long[] words) {
+        int i = 0;
+        while (in.hasRemaining()) {
+            long marker = in.get();
+            long run = (marker >>> 1) & MAX_RUN;
+            int literals = (int) (marker >>> 33);
+            if (run > words.length - i || literals > words.length - i - run || literals > in.remaining()) {
+                throw new IllegalArgumentException("Corrupt BigBoolean payload");
+            }
+
+            if ((marker & 1) != 0) {
+                Arrays.fill(words, i, i + (int) run, -1L);
+            }
+
+            i += (int) run;
+            in.get(words, i, literals);
+            i += literals;
+        }
+
+        if (i != words.length) {
+            throw new IllegalArgumentException("Corrupt BigBoolean payload");
+        }
+    }
+
+    /**
+     * @return the number of words the EWAH form of the payload needs, markers included
+     */
+    private static int ewahWords(long[] words) {
+        long count = 0;
+        int i = 0;
+        while (i < words.length) {
+            if (words[i] == 0 || words[i] == -1L) {
+                long value = words[i];
+                long run = 0;
+                while (i < words.length && words[i] == value && run < MAX_RUN) {
+                    run++;
+                    i++;
+                }
+            }
+
+            int literals = 0;
+            while (i < words.length && words[i] != 0 && words[i] != -1L && literals < MAX_LITERALS) {
+                literals++;
+                i++;
+            }
+
+            count += 1 + literals;
+        }
+
+        return (int) Math.min(Integer.MAX_VALUE, count);
+    }
+
+}
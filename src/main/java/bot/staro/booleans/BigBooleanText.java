@@ -0,0 +1,148 @@
+package bot.staro.booleans;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Linear time conversion between {@link BigBoolean} payloads and their '0'/'1' text form.
+ * Text is processed in fixed-size chunks of {@link #BUFFER_CHARS} characters, so neither
+ * parsing nor printing ever copies the whole input or builds one huge intermediate string.
+ * Every full run of 64 characters is packed into a word at once, with the Vector API when available.
+ *
+ * @author St4ro.
+ */
+final class BigBooleanText {
+    // a multiple of 64, so every chunk but the last one fills whole words
+    private static final int BUFFER_CHARS = 8192;
+
+    private BigBooleanText() {
+    }
+
+    /**
+     * Parses the characters of src into a payload. Every '1' is true, any other character false.
+     *
+     * @param payload a zeroed payload of at least {@code wordsFor(src.length())} words
+     */
+    static void parseInto(CharSequence src, long[] payload) {
+        int length = src.length();
+        char[] buffer = new char[Math.min(BUFFER_CHARS, length)];
+        for (int from = 0; from < length; from += BUFFER_CHARS) {
+            int count = Math.min(BUFFER_CHARS, length - from);
+            copy(src, from, count, buffer);
+            pack(buffer, count, payload, from >>> 6);
+        }
+    }
+
+    /**
+     * Reads '0'/'1' text until the end of the reader.
+     *
+     * @return the parsed BigBoolean, whose dimension is the number of characters read
+     */
+    static BigBoolean read(Reader in) throws IOException {
+        char[] buffer = new char[BUFFER_CHARS];
+        long[] payload = new long[BUFFER_CHARS / 64];
+        int dimension = 0;
+        int filled = 0;
+        while (true) {
+            int read = in.read(buffer, filled, BUFFER_CHARS - filled);
+            if (read > 0) {
+                filled += read;
+            }
+
+            if (filled == BUFFER_CHARS || (read < 0 && filled > 0)) {
+                if (dimension + filled < 0) {
+                    throw new IOException("Input is longer than Integer.MAX_VALUE characters");
+                }
+
+                int words = BigBoolean.wordsFor(dimension + filled);
+                if (words > payload.length) {
+                    payload = Arrays.copyOf(payload, Math.max(words, (int) Math.min(Integer.MAX_VALUE - 8, 2L * payload.length)));
+                }
+
+                pack(buffer, filled, payload, dimension >>> 6);
+                dimension += filled;
+                filled = 0;
+            }
+
+            if (read < 0) {
+                break;
+            }
+        }
+
+        return new BigBoolean(payload.length == BigBoolean.wordsFor(dimension)
+                ? payload : Arrays.copyOf(payload, BigBoolean.wordsFor(dimension)), dimension);
+    }
+
+    /**
+     * Writes the first dimension bits of a payload as '0'/'1' text.
+     */
+    static void write(long[] payload, int dimension, Appendable out) throws IOException {
+        char[] buffer = new char[Math.min(BUFFER_CHARS, dimension)];
+        for (int from = 0; from < dimension; from += BUFFER_CHARS) {
+            int count = Math.min(BUFFER_CHARS, dimension - from);
+            unpack(payload, from >>> 6, buffer, count);
+            if (out instanceof Writer writer) {
+                writer.write(buffer, 0, count);
+            } else if (out instanceof StringBuilder builder) {
+                builder.append(buffer, 0, count);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    out.append(buffer[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the first dimension bits of a payload into a char array.
+     */
+    static void unpack(long[] payload, int wordOffset, char[] chars, int count) {
+        for (int i = 0; i < count; i++) {
+            chars[i] = (char) ('0' + ((payload[wordOffset + (i >>> 6)] >>> i) & 1));
+        }
+    }
+
+    private static void pack(char[] chars, int count, long[] payload, int wordOffset) {
+        int full = count >>> 6;
+        for (int w = 0; w < full; w++) {
+            payload[wordOffset + w] = packWord(chars, w << 6);
+        }
+
+        long word = 0;
+        for (int j = full << 6; j < count; j++) {
+            word |= (chars[j] == '1' ? 1L : 0L) << j;
+        }
+
+        if ((count & 63) != 0) {
+            payload[wordOffset + full] = word;
+        }
+    }
+
+    private static long packWord(char[] chars, int offset) {
+        if (BitKernels.VECTORIZED) {
+            return VectorBitKernels.packChars(chars, offset);
+        }
+
+        long word = 0;
+        for (int j = 0; j < 64; j++) {
+            word |= (chars[offset + j] == '1' ? 1L : 0L) << j;
+        }
+
+        return word;
+    }
+
+    private static void copy(CharSequence src, int from, int count, char[] dst) {
+        if (src instanceof String string) {
+            string.getChars(from, from + count, dst, 0);
+        } else if (src instanceof StringBuilder builder) {
+            builder.getChars(from, from + count, dst, 0);
+        } else {
+            for (int i = 0; i < count; i++) {
+                dst[i] = src.charAt(from + i);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,286 @@
+package bot.staro.booleans;
+
+import java.util.Arrays;
+
+/**
+ * A lazily evaluated boolean expression over {@link BigBoolean} operands.
+ * Building an expression only builds a small tree; nothing is computed until one of the
+ * terminal operations ({@link #evaluate()}, {@link #cardinality()}, {@link #anySet()}) runs.
+ * <p>
+ * The terminal operations stream through all operands in one fused pass of blocks of
+ * {@link #BLOCK_WORDS} words, so every intermediate result only ever exists as a few KB
+ * of L1-resident scratch instead of a full vector. Within a block, AND skips its right
+ * operand when the left one is all zero, OR skips it when the left one is all one, and
+ * {@link #anySet()} stops at the first block with a true value.
+ *
+ * <pre>
+ * BitExpression q = BitExpression.of(a).and(b).andNot(BitExpression.of(c).and(d));
+ * int hits = q.cardinality();
+ * </pre>
+ *
+ * @author St4ro.
+ */
+public abstract class BitExpression {
+    static final int BLOCK_WORDS = 256;
+
+    private final int dimension;
+    private final int depth;
+
+    private BitExpression(int dimension, int depth) {
+        this.dimension = dimension;
+        this.depth = depth;
+    }
+
+    /**
+     * @param operand the vector to use as a leaf of an expression
+     * @return an expression that evaluates to the values of the operand
+     */
+    public static BitExpression of(BigBoolean operand) {
+        return new Leaf(operand);
+    }
+
+    /**
+     * @return an expression for {@code this AND other}
+     */
+    public BitExpression and(BitExpression other) {
+        return apply(BitOperator.AND, other);
+    }
+
+    /**
+     * @return an expression for {@code this OR other}
+     */
+    public BitExpression or(BitExpression other) {
+        return apply(BitOperator.OR, other);
+    }
+
+    /**
+     * @return an expression for {@code this XOR other}
+     */
+    public BitExpression xor(BitExpression other) {
+        return apply(BitOperator.XOR, other);
+    }
+
+    /**
+     * @return an expression for {@code this AND NOT other}
+     */
+    public BitExpression andNot(BitExpression other) {
+        return apply(BitOperator.AND_NOT, other);
+    }
+
+    /**
+     * @return an expression for {@code op(this, other)}
+     * @throws AssertionError if the dimensions of the expressions are not equal
+     */
+    public BitExpression apply(BitOperator op, BitExpression other) {
+        if (dimension != other.dimension) {
+            throw new AssertionError("a.dimension != b.dimension");
+        }
+
+        return new Binary(op, this, other);
+    }
+
+    /**
+     * @return an expression for {@code NOT this}
+     */
+    public BitExpression not() {
+        return new Not(this);
+    }
+
+    /**
+     * @return the number of boolean values the expression evaluates to
+     */
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Evaluates the expression into a new BigBoolean.
+     *
+     * @return the result
+     */
+    public BigBoolean evaluate() {
+        return evaluateInto(new BigBoolean(dimension));
+    }
+
+    /**
+     * Evaluates the expression into an existing BigBoolean. The destination may be one of the
+     * operands, because every block is read completely before it is written back.
+     *
+     * @param dest the BigBoolean receiving the result
+     * @return dest
+     * @throws AssertionError if the dimensions are not equal
+     */
+    public BigBoolean evaluateInto(BigBoolean dest) {
+        if (dest.getDimension() != dimension) {
+            throw new AssertionError("a.dimension != b.dimension");
+        }
+
+        long[] words = dest.words();
+        long[][] scratch = scratch();
+        long[] block = new long[BLOCK_WORDS];
+        for (int from = 0; from < words.length; from += BLOCK_WORDS) {
+            int to = Math.min(from + BLOCK_WORDS, words.length);
+            compute(from, to, block, scratch);
+            System.arraycopy(block, 0, words, from, to - from);
+        }
+
+        dest.invalidate();
+        dest.maskPadding();
+        return dest;
+    }
+
+    /**
+     * Counts the true values of the expression without materializing it.
+     *
+     * @return the number of set bits of the result
+     */
+    public int cardinality() {
+        int words = BigBoolean.wordsFor(dimension);
+        long[][] scratch = scratch();
+        long[] block = new long[BLOCK_WORDS];
+        long count = 0;
+        for (int from = 0; from < words; from += BLOCK_WORDS) {
+            int to = Math.min(from + BLOCK_WORDS, words);
+            compute(from, to, block, scratch);
+            maskPadding(block, from, to);
+            count += BitKernels.popCount(block, 0, to - from);
+        }
+
+        return (int) count;
+    }
+
+    /**
+     * Checks whether any value of the expression is true, stopping at the first block that has one.
+     *
+     * @return true if at least one bit of the result is set
+     */
+    public boolean anySet() {
+        int words = BigBoolean.wordsFor(dimension);
+        long[][] scratch = scratch();
+        long[] block = new long[BLOCK_WORDS];
+        for (int from = 0; from < words; from += BLOCK_WORDS) {
+            int to = Math.min(from + BLOCK_WORDS, words);
+            compute(from, to, block, scratch);
+            maskPadding(block, from, to);
+            if (!isZero(block, to - from)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Computes the words {@code [from, to)} of this expression into {@code out[0, to - from)}.
+     * Nodes at depth d may use {@code scratch[d]} for the result of their right operand.
+     */
+    abstract void compute(int from, int to, long[] out, long[][] scratch);
+
+    private long[][] scratch() {
+        return new long[depth][BLOCK_WORDS];
+    }
+
+    private void maskPadding(long[] block, int from, int to) {
+        int lastWord = BigBoolean.wordsFor(dimension) - 1;
+        if (to - 1 == lastWord) {
+            int valid = dimension - lastWord * 64;
+            block[to - 1 - from] &= valid <= 0 ? 0L : valid >= 64 ? -1L : (1L << valid) - 1;
+        }
+    }
+
+    private static boolean isZero(long[] block, int length) {
+        for (int i = 0; i < length; i++) {
+            if (block[i] != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isOnes(long[] block, int length) {
+        for (int i = 0; i < length; i++) {
+            if (block[i] != -1L) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static final class Leaf extends BitExpression {
+        private final BigBoolean operand;
+
+        Leaf(BigBoolean operand) {
+            super(operand.getDimension(), 0);
+            this.operand = operand;
+        }
+
+        @Override
+        void compute(int from, int to, long[] out, long[][] scratch) {
+            System.arraycopy(operand.words(), from, out, 0, to - from);
+        }
+    }
+
+    private static final class Not extends BitExpression {
+        private final BitExpression operand;
+
+        Not(BitExpression operand) {
+            super(operand.dimension, operand.depth);
+            this.operand = operand;
+        }
+
+        @Override
+        void compute(int from, int to, long[] out, long[][] scratch) {
+            operand.compute(from, to, out, scratch);
+            BitKernels.complement(out, out, 0, to - from);
+        }
+    }
+
+    private static final class Binary extends BitExpression {
+        private final BitOperator op;
+        private final BitExpression left;
+        private final BitExpression right;
+        private final int level;
+
+        Binary(BitOperator op, BitExpression left, BitExpression right) {
+            // the right operand needs one scratch block below everything the left one uses
+            super(left.dimension, Math.max(left.depth, right.depth + 1));
+            this.op = op;
+            this.left = left;
+            this.right = right;
+            this.level = right.depth;
+        }
+
+        @Override
+        void compute(int from, int to, long[] out, long[][] scratch) {
+            int length = to - from;
+            left.compute(from, to, out, scratch);
+            switch (op) {
+                case AND, AND_NOT -> {
+                    if (isZero(out, length)) {
+                        return;
+                    }
+                }
+                case OR -> {
+                    if (isOnes(out, length)) {
+                        return;
+                    }
+                }
+                case NAND -> {
+                    if (isZero(out, length)) {
+                        Arrays.fill(out, 0, length, -1L);
+                        return;
+                    }
+                }
+                default -> {
+                }
+            }
+
+            long[] other = scratch[level];
+            right.compute(from, to, other, scratch);
+            BitKernels.apply(op, out, other, out, 0, length);
+        }
+    }
+
+}
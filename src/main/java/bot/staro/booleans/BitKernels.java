@@ -0,0 +1,149 @@
+package bot.staro.booleans;
+
+/**
+ * The word loops behind every bulk operation on packed bit vectors.
+ * Each operator gets its own tight loop so the JIT can unroll and vectorize it,
+ * and every loop works on a {@code [from, to)} word range so callers can split the work.
+ * <p>
+ * When the {@code jdk.incubator.vector} module is present (run with
+ * {@code --add-modules jdk.incubator.vector}) and the host has SIMD registers wider than a long,
+ * the bulk of every range is handed to {@link VectorBitKernels} and only the tail runs here.
+ * Setting the system property {@code bot.staro.booleans.vector} to {@code false} forces the scalar loops.
+ *
+ * @author St4ro.
+ */
+final class BitKernels {
+    /**
+     * Ranges shorter than this are not worth the vector setup.
+     */
+    private static final int VECTOR_THRESHOLD = 32;
+    static final boolean VECTORIZED = detectVectorSupport();
+
+    private BitKernels() {
+    }
+
+    /**
+     * Computes {@code dst[i] = op(a[i], b[i])} for every word in the range.
+     * The destination may be the same array as either operand.
+     */
+    static void apply(BitOperator op, long[] a, long[] b, long[] dst, int from, int to) {
+        if (VECTORIZED && to - from >= VECTOR_THRESHOLD) {
+            from = VectorBitKernels.apply(op, a, b, dst, from, to);
+        }
+
+        switch (op) {
+            case AND -> {
+                for (int i = from; i < to; i++) {
+                    dst[i] = a[i] & b[i];
+                }
+            }
+            case OR -> {
+                for (int i = from; i < to; i++) {
+                    dst[i] = a[i] | b[i];
+                }
+            }
+            case XOR -> {
+                for (int i = from; i < to; i++) {
+                    dst[i] = a[i] ^ b[i];
+                }
+            }
+            case AND_NOT -> {
+                for (int i = from; i < to; i++) {
+                    dst[i] = a[i] & ~b[i];
+                }
+            }
+            case NAND -> {
+                for (int i = from; i < to; i++) {
+                    dst[i] = ~(a[i] & b[i]);
+                }
+            }
+            case NOR -> {
+                for (int i = from; i < to; i++) {
+                    dst[i] = ~(a[i] | b[i]);
+                }
+            }
+            case IMPLIES -> {
+                for (int i = from; i < to; i++) {
+                    dst[i] = ~a[i] | b[i];
+                }
+            }
+            case EQUIVALENCE -> {
+                for (int i = from; i < to; i++) {
+                    dst[i] = ~(a[i] ^ b[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes {@code dst[i] = ~src[i]} for every word in the range.
+     */
+    static void complement(long[] src, long[] dst, int from, int to) {
+        if (VECTORIZED && to - from >= VECTOR_THRESHOLD) {
+            from = VectorBitKernels.complement(src, dst, from, to);
+        }
+
+        for (int i = from; i < to; i++) {
+            dst[i] = ~src[i];
+        }
+    }
+
+    /**
+     * @return the number of set bits in the range
+     */
+    static long popCount(long[] words, int from, int to) {
+        long count = 0;
+        if (VECTORIZED && to - from >= VECTOR_THRESHOLD) {
+            int upper = VectorBitKernels.vectorEnd(from, to);
+            count = VectorBitKernels.popCount(words, from, upper);
+            from = upper;
+        }
+
+        for (int i = from; i < to; i++) {
+            count += Long.bitCount(words[i]);
+        }
+
+        return count;
+    }
+
+    /**
+     * @return true if both arrays hold the same words in the range
+     */
+    static boolean equal(long[] a, long[] b, int from, int to) {
+        if (VECTORIZED && to - from >= VECTOR_THRESHOLD) {
+            from = VectorBitKernels.mismatch(a, b, from, to);
+            if (from < 0) {
+                return false;
+            }
+        }
+
+        for (int i = from; i < to; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks whether the Vector API can be used. The module lookup comes first so that
+     * {@link VectorBitKernels} is never loaded on a JVM without it.
+     */
+    private static boolean detectVectorSupport() {
+        if (!Boolean.parseBoolean(System.getProperty("bot.staro.booleans.vector", "true"))) {
+            return false;
+        }
+
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+
+        try {
+            return VectorBitKernels.isUsable();
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,378 @@
+package bot.staro.booleans;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * A dense boolean matrix with every row packed into words like a {@link BigBoolean}.
+ * All rows live in one array, row after row, with the padding bits of every row kept clear.
+ * <p>
+ * {@link #transpose()} works on 64x64 tiles that are transposed inside 64 words with the
+ * recursive block swap, so every tile is read and written exactly once. {@link #multiply}
+ * uses the Method of Four Russians: for every 8 rows of the right operand it tabulates all 256
+ * of their disjunctions, so every row of the result needs one table lookup and one row OR per 8
+ * columns of the left operand. {@link #transitiveClosure()} applies the same tables to Warshall's
+ * algorithm, 8 pivots at a time. The row updates are spread over the common pool in blocks of 64 rows.
+ *
+ * @author St4ro.
+ */
+public final class BitMatrix {
+    private static final int GROUP = 8;
+    private static final int ROW_BLOCK = 64;
+    // below this many words the row blocks are processed on the calling thread
+    private static final int PARALLEL_WORDS = 1 << 16;
+
+    private final long[] data;
+    private final int rows;
+    private final int columns;
+    private final int rowWords;
+
+    /**
+     * Creates a new BitMatrix where every value is false.
+     *
+     * @param rows the number of rows
+     * @param columns the number of columns
+     * @throws IllegalArgumentException if a size is negative or the matrix needs more than Integer.MAX_VALUE words
+     */
+    public BitMatrix(int rows, int columns) {
+        if (rows < 0 || columns < 0) {
+            throw new IllegalArgumentException("rows < 0 or columns < 0");
+        }
+
+        int rowWords = (columns + 63) >>> 6;
+        if ((long) rows * rowWords > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("A " + rows + "x" + columns + " matrix needs more than Integer.MAX_VALUE words");
+        }
+
+        this.rows = rows;
+        this.columns = columns;
+        this.rowWords = rowWords;
+        this.data = new long[rows * rowWords];
+    }
+
+    /**
+     * @param n the number of rows and columns
+     * @return a new n x n matrix with only the diagonal set
+     */
+    public static BitMatrix identity(int n) {
+        BitMatrix ret = new BitMatrix(n, n);
+        for (int i = 0; i < n; i++) {
+            ret.data[i * ret.rowWords + (i >>> 6)] |= 1L << i;
+        }
+
+        return ret;
+    }
+
+    /**
+     * Creates a matrix from its rows, e.g. adjacency lists kept as BigBooleans.
+     *
+     * @param rows the rows, which must all have the same dimension
+     * @return a new matrix with one row per BigBoolean
+     * @throws AssertionError if the dimensions of the rows are not equal
+     */
+    public static BitMatrix fromRows(BigBoolean... rows) {
+        BitMatrix ret = new BitMatrix(rows.length, rows.length == 0 ? 0 : rows[0].getDimension());
+        for (int r = 0; r < rows.length; r++) {
+            ret.setRow(r, rows[r]);
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     * @return the number of columns
+     */
+    public int getColumnCount() {
+        return columns;
+    }
+
+    /**
+     * Gets the value at the specified position.
+     *
+     * @param row the row, from 0 to rows - 1
+     * @param column the column, from 0 to columns - 1
+     * @return the value at the position
+     * @throws IndexOutOfBoundsException if the position is outside of this matrix
+     */
+    public boolean getValue(int row, int column) {
+        checkIndex(row, column);
+        return (data[row * rowWords + (column >>> 6)] & (1L << column)) != 0;
+    }
+
+    /**
+     * Sets the value at the specified position.
+     *
+     * @param row the row, from 0 to rows - 1
+     * @param column the column, from 0 to columns - 1
+     * @param value the new value
+     * @throws IndexOutOfBoundsException if the position is outside of this matrix
+     */
+    public void setValue(int row, int column, boolean value) {
+        checkIndex(row, column);
+        int word = row * rowWords + (column >>> 6);
+        data[word] = value ? data[word] | (1L << column) : data[word] & ~(1L << column);
+    }
+
+    /**
+     * Copies a row into a new BigBoolean.
+     *
+     * @param row the row, from 0 to rows - 1
+     * @return a new BigBoolean of dimension columns
+     * @throws IndexOutOfBoundsException if the row is outside of this matrix
+     */
+    public BigBoolean getRow(int row) {
+        checkRow(row);
+        BigBoolean ret = new BigBoolean(columns);
+        System.arraycopy(data, row * rowWords, ret.words(), 0, rowWords);
+        return ret;
+    }
+
+    /**
+     * Overwrites a row with the values of a BigBoolean.
+     *
+     * @param row the row, from 0 to rows - 1
+     * @param values the new values of the row
+     * @throws AssertionError if the dimension of the values is not the number of columns
+     * @throws IndexOutOfBoundsException if the row is outside of this matrix
+     */
+    public void setRow(int row, BigBoolean values) {
+        if (values.getDimension() != columns) {
+            throw new AssertionError("a.dimension != b.dimension");
+        }
+
+        checkRow(row);
+        System.arraycopy(values.words(), 0, data, row * rowWords, rowWords);
+    }
+
+    /**
+     * @return the number of values that are true
+     */
+    public long cardinality() {
+        return BitKernels.popCount(data, 0, data.length);
+    }
+
+    /**
+     * Transposes this matrix tile by tile.
+     *
+     * @return a new columns x rows matrix
+     */
+    public BitMatrix transpose() {
+        BitMatrix ret = new BitMatrix(columns, rows);
+        int tileRows = (rows + 63) >>> 6;
+        forEachBlock(ret.rows, data.length, block -> {
+            // the block of 64 result rows is the column tile block of this matrix
+            long[] tile = new long[64];
+            int firstColumn = block * ROW_BLOCK;
+            int count = Math.min(64, columns - firstColumn);
+            for (int t = 0; t < tileRows; t++) {
+                int firstRow = t << 6;
+                int height = Math.min(64, rows - firstRow);
+                for (int r = 0; r < height; r++) {
+                    tile[r] = data[(firstRow + r) * rowWords + block];
+                }
+
+                Arrays.fill(tile, height, 64, 0L);
+                transpose64(tile);
+                for (int c = 0; c < count; c++) {
+                    ret.data[(firstColumn + c) * ret.rowWords + t] = tile[c];
+                }
+            }
+        });
+
+        return ret;
+    }
+
+    /**
+     * Multiplies two boolean matrices: the result is true at (i, j) if row i of a and column j of b
+     * share a true value. Runs in O(n^3 / (64 * 8)) word operations with the Method of Four Russians.
+     *
+     * @param a the left operand
+     * @param b the right operand
+     * @return a new a.rows x b.columns matrix
+     * @throws AssertionError if the columns of a are not the rows of b
+     */
+    public static BitMatrix multiply(BitMatrix a, BitMatrix b) {
+        if (a.columns != b.rows) {
+            throw new AssertionError("a.columns != b.rows");
+        }
+
+        BitMatrix ret = new BitMatrix(a.rows, b.columns);
+        int width = b.rowWords;
+        long[] table = new long[256 * width];
+        for (int first = 0; first < b.rows; first += GROUP) {
+            b.tabulate(first, table);
+            int word = first >>> 6;
+            int shift = first & 63;
+            forEachBlock(a.rows, (long) a.rows * width, block -> {
+                int end = Math.min(a.rows, (block + 1) * ROW_BLOCK);
+                for (int i = block * ROW_BLOCK; i < end; i++) {
+                    int key = (int) (a.data[i * a.rowWords + word] >>> shift) & 0xFF;
+                    if (key != 0) {
+                        or(table, key * width, ret.data, i * width, width);
+                    }
+                }
+            });
+        }
+
+        return ret;
+    }
+
+    /**
+     * Computes the transitive closure of this square matrix read as the adjacency matrix of a graph:
+     * the result is true at (i, j) if there is a path of at least one edge from i to j.
+     * <p>
+     * This is Warshall's algorithm with 8 pivots per step. The 8 pivot rows are first closed among
+     * themselves, after which every other row needs a single lookup in the table of their disjunctions,
+     * and these rows are updated in parallel.
+     *
+     * @return a new matrix holding the closure
+     * @throws AssertionError if this matrix is not square
+     */
+    public BitMatrix transitiveClosure() {
+        if (rows != columns) {
+            throw new AssertionError("rows != columns");
+        }
+
+        BitMatrix ret = copy();
+        long[] closure = ret.data;
+        long[] table = new long[256 * rowWords];
+        for (int first = 0; first < rows; first += GROUP) {
+            int last = Math.min(rows, first + GROUP);
+            for (int k = first; k < last; k++) {
+                for (int p = first; p < last; p++) {
+                    if (p != k && (closure[p * rowWords + (k >>> 6)] & (1L << k)) != 0) {
+                        or(closure, k * rowWords, closure, p * rowWords, rowWords);
+                    }
+                }
+            }
+
+            ret.tabulate(first, table);
+            int word = first >>> 6;
+            int shift = first & 63;
+            int pivots = first;
+            forEachBlock(rows, data.length, block -> {
+                int end = Math.min(rows, (block + 1) * ROW_BLOCK);
+                for (int i = block * ROW_BLOCK; i < end; i++) {
+                    if (i >= pivots && i < last) {
+                        continue;
+                    }
+
+                    int key = (int) (closure[i * rowWords + word] >>> shift) & 0xFF;
+                    if (key != 0) {
+                        or(table, key * rowWords, closure, i * rowWords, rowWords);
+                    }
+                }
+            });
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return a new matrix holding the same values
+     */
+    public BitMatrix copy() {
+        BitMatrix ret = new BitMatrix(rows, columns);
+        System.arraycopy(data, 0, ret.data, 0, data.length);
+        return ret;
+    }
+
+    /**
+     * Fills {@code table[key * rowWords, (key + 1) * rowWords)} with the OR of the rows
+     * {@code first + j} for every bit j set in key. Rows past the end count as empty.
+     * Every entry is one entry with a bit less plus one row, so the table costs 256 row ORs.
+     */
+    private void tabulate(int first, long[] table) {
+        Arrays.fill(table, 0, rowWords, 0L);
+        for (int key = 1; key < 256; key++) {
+            int without = key & (key - 1);
+            int row = first + Integer.numberOfTrailingZeros(key);
+            System.arraycopy(table, without * rowWords, table, key * rowWords, rowWords);
+            if (row < rows) {
+                or(data, row * rowWords, table, key * rowWords, rowWords);
+            }
+        }
+    }
+
+    private static void or(long[] src, int srcOffset, long[] dst, int dstOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset + i] |= src[srcOffset + i];
+        }
+    }
+
+    /**
+     * Runs the action for every block of {@link #ROW_BLOCK} rows, in parallel if the work is large enough.
+     */
+    private static void forEachBlock(int rows, long words, IntConsumer action) {
+        IntStream blocks = IntStream.range(0, (rows + ROW_BLOCK - 1) / ROW_BLOCK);
+        (words >= PARALLEL_WORDS ? blocks.parallel() : blocks).forEach(action);
+    }
+
+    /**
+     * Transposes a 64x64 tile in place, where bit c of tile[r] is the value at (r, c).
+     * Each step swaps the off-diagonal quadrants of all sub-blocks of the current size with masked XORs.
+     */
+    static void transpose64(long[] tile) {
+        long mask = 0x00000000FFFFFFFFL;
+        for (int j = 32; j != 0; j >>>= 1, mask ^= mask << j) {
+            for (int k = 0; k < 64; k = (k + j + 1) & ~j) {
+                long t = ((tile[k] >>> j) ^ tile[k + j]) & mask;
+                tile[k] ^= t << j;
+                tile[k + j] ^= t;
+            }
+        }
+    }
+
+    private void checkIndex(int row, int column) {
+        checkRow(row);
+        if (column < 0 || column >= columns) {
+            throw new IndexOutOfBoundsException("Index " + column + " out of bounds for dimension " + columns);
+        }
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Index " + row + " out of bounds for dimension " + rows);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(rows * (columns + 1));
+        char[] line = new char[columns];
+        for (int r = 0; r < rows; r++) {
+            BigBooleanText.unpack(data, r * rowWords, line, columns);
+            builder.append(line).append('\n');
+        }
+
+        return builder.toString();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+
+        BitMatrix other = (BitMatrix) obj;
+        return rows == other.rows && columns == other.columns && Arrays.equals(data, other.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * rows + columns) + Arrays.hashCode(data);
+    }
+
+}
@@ -0,0 +1,57 @@
+package bot.staro.booleans;
+
+/**
+ * The binary boolean operators that can be applied word by word to bit vectors.
+ * Every operator works on 64 boolean values at once, one per bit of a long.
+ *
+ * @author St4ro.
+ */
+public enum BitOperator {
+    /** {@code a & b} */
+    AND,
+    /** {@code a | b} */
+    OR,
+    /** {@code a ^ b} */
+    XOR,
+    /** {@code a & ~b} */
+    AND_NOT,
+    /** {@code ~(a & b)} */
+    NAND,
+    /** {@code ~(a | b)} */
+    NOR,
+    /** {@code ~a | b} */
+    IMPLIES,
+    /** {@code ~(a ^ b)} */
+    EQUIVALENCE;
+
+    /**
+     * Applies this operator to 64 pairs of boolean values at once.
+     *
+     * @param a the left operand word
+     * @param b the right operand word
+     * @return the resulting word
+     */
+    public long apply(long a, long b) {
+        return switch (this) {
+            case AND -> a & b;
+            case OR -> a | b;
+            case XOR -> a ^ b;
+            case AND_NOT -> a & ~b;
+            case NAND -> ~(a & b);
+            case NOR -> ~(a | b);
+            case IMPLIES -> ~a | b;
+            case EQUIVALENCE -> ~(a ^ b);
+        };
+    }
+
+    /**
+     * Whether this operator maps two false values to true. Such operators set the
+     * unused padding bits of a vector, which then have to be masked off again.
+     *
+     * @return true if {@code apply(0, 0) != 0}
+     */
+    public boolean fillsPadding() {
+        return apply(0L, 0L) != 0L;
+    }
+
+}
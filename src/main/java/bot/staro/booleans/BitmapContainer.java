@@ -0,0 +1,201 @@
+package bot.staro.booleans;
+
+import java.util.Arrays;
+
+/**
+ * A {@link RoaringContainer} storing its values as 1024 plain words.
+ *
+ * @author St4ro.
+ */
+final class BitmapContainer extends RoaringContainer {
+    private final long[] words;
+    private int cardinality;
+
+    BitmapContainer(long[] words, int cardinality) {
+        this.words = words;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * Copies a slice of a dense payload into a new bitmap.
+     */
+    static BitmapContainer of(long[] src, int from, int to) {
+        long[] words = new long[WORDS];
+        System.arraycopy(src, from, words, 0, to - from);
+        return new BitmapContainer(words, (int) BitKernels.popCount(words, 0, WORDS));
+    }
+
+    @Override
+    int cardinality() {
+        return cardinality;
+    }
+
+    @Override
+    boolean contains(char value) {
+        return (words[value >>> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    RoaringContainer add(char value) {
+        long bit = 1L << value;
+        if ((words[value >>> 6] & bit) == 0) {
+            words[value >>> 6] |= bit;
+            cardinality++;
+        }
+
+        return this;
+    }
+
+    @Override
+    RoaringContainer remove(char value) {
+        long bit = 1L << value;
+        if ((words[value >>> 6] & bit) != 0) {
+            words[value >>> 6] &= ~bit;
+            cardinality--;
+            if (cardinality <= ArrayContainer.MAX_SIZE) {
+                return toArray();
+            }
+        }
+
+        return this;
+    }
+
+    @Override
+    RoaringContainer copy() {
+        return new BitmapContainer(words.clone(), cardinality);
+    }
+
+    @Override
+    int numberOfRuns() {
+        int runs = 0;
+        long previous = 0;
+        for (long word : words) {
+            // a run starts at every set bit whose lower neighbour is clear
+            runs += Long.bitCount(word & ~((word << 1) | (previous >>> 63)));
+            previous = word;
+        }
+
+        return runs;
+    }
+
+    @Override
+    BitmapContainer toBitmap() {
+        return this;
+    }
+
+    ArrayContainer toArray() {
+        char[] values = new char[cardinality];
+        int count = 0;
+        for (int i = 0; i < WORDS; i++) {
+            long word = words[i];
+            while (word != 0) {
+                values[count++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+
+        return new ArrayContainer(values, count);
+    }
+
+    RunContainer toRuns() {
+        char[] runs = new char[2 * numberOfRuns()];
+        int count = 0;
+        int start = nextSet(0);
+        while (start < BITS) {
+            int end = nextClear(start);
+            runs[2 * count] = (char) start;
+            runs[2 * count + 1] = (char) (end - start - 1);
+            count++;
+            start = end < BITS ? nextSet(end) : BITS;
+        }
+
+        return new RunContainer(runs, count);
+    }
+
+    /**
+     * @return the first set value at or after from, or {@link #BITS} if there is none
+     */
+    private int nextSet(int from) {
+        int i = from >>> 6;
+        long word = words[i] & (-1L << from);
+        while (word == 0) {
+            if (++i == WORDS) {
+                return BITS;
+            }
+
+            word = words[i];
+        }
+
+        return (i << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * @return the first clear value at or after from, or {@link #BITS} if there is none
+     */
+    private int nextClear(int from) {
+        int i = from >>> 6;
+        long word = ~words[i] & (-1L << from);
+        while (word == 0) {
+            if (++i == WORDS) {
+                return BITS;
+            }
+
+            word = ~words[i];
+        }
+
+        return (i << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    @Override
+    void writeTo(long[] words, int offset) {
+        int end = Math.min(WORDS, words.length - offset);
+        for (int i = 0; i < end; i++) {
+            words[offset + i] |= this.words[i];
+        }
+    }
+
+    @Override
+    RoaringContainer and(RoaringContainer other) {
+        if (other instanceof ArrayContainer) {
+            return other.and(this);
+        }
+
+        long[] result = new long[WORDS];
+        BitKernels.apply(BitOperator.AND, words, other.toBitmap().words, result, 0, WORDS);
+        return new BitmapContainer(result, (int) BitKernels.popCount(result, 0, WORDS));
+    }
+
+    @Override
+    RoaringContainer or(RoaringContainer other) {
+        long[] result = words.clone();
+        other.writeTo(result, 0);
+        return new BitmapContainer(result, (int) BitKernels.popCount(result, 0, WORDS));
+    }
+
+    @Override
+    RoaringContainer not(int limit) {
+        long[] result = new long[WORDS];
+        int full = limit >>> 6;
+        BitKernels.complement(words, result, 0, full);
+        if ((limit & 63) != 0) {
+            result[full] = ~words[full] & ((1L << limit) - 1);
+        }
+
+        return new BitmapContainer(result, (int) BitKernels.popCount(result, 0, WORDS));
+    }
+
+    @Override
+    boolean contentEquals(RoaringContainer other) {
+        if (other instanceof BitmapContainer bitmap) {
+            return Arrays.equals(words, bitmap.words);
+        }
+
+        return super.contentEquals(other);
+    }
+
+    @Override
+    int sizeInBytes() {
+        return 16 + BITMAP_BYTES;
+    }
+
+}
@@ -0,0 +1,388 @@
+package bot.staro.booleans;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/**
+ * A bitmap index over a fixed number of rows, with one or more {@link BigBoolean}s per column.
+ * Queries are trees of {@link BitmapPredicate}s that the index plans into a single fused
+ * {@link BitExpression}, so a query streams over every bitmap it needs exactly once.
+ * <p>
+ * Three kinds of columns can be registered:
+ * <ul>
+ * <li>bitmap columns, a single BigBoolean holding a boolean attribute,</li>
+ * <li>equality-encoded columns, one bitmap per distinct value, best for few distinct values,</li>
+ * <li>range-encoded columns, one bitmap per bit of the value (bit-sliced), so any range
+ * query needs at most 2 * 64 bitmaps no matter how many distinct values there are.</li>
+ * </ul>
+ * The planner orders the operands of every conjunction from the most to the least selective,
+ * so the fused evaluation can skip the remaining operands of a block as soon as it is empty.
+ *
+ * <pre>
+ * BitmapIndex index = new BitmapIndex(rows)
+ *         .addEqualityColumn("country", countries)
+ *         .addRangeColumn("age", ages);
+ * IntStream hits = index.rowIds(BitmapPredicate.eq("country", 49).and(BitmapPredicate.between("age", 18, 30)));
+ * </pre>
+ *
+ * @author St4ro.
+ */
+public final class BitmapIndex {
+    private final int rows;
+    private final Map<String, Column> columns = new HashMap<>();
+    private BitExpression none;
+    private BitExpression all;
+
+    /**
+     * Creates an empty index.
+     *
+     * @param rows the number of rows of every column
+     */
+    public BitmapIndex(int rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * @return the number of rows of every column
+     */
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     * Registers a boolean attribute. It matches the values 1 (true) and 0 (false) in predicates.
+     * The bitmap is used as it is, so later changes to it show up in queries.
+     *
+     * @param name the name of the column
+     * @param values the value of every row
+     * @return this index
+     * @throws AssertionError if the dimension of the bitmap is not the row count
+     */
+    public BitmapIndex addBitmapColumn(String name, BigBoolean values) {
+        if (values.getDimension() != rows) {
+            throw new AssertionError("a.dimension != b.dimension");
+        }
+
+        return add(name, new BitmapColumn(values));
+    }
+
+    /**
+     * Registers an equality-encoded column, with one bitmap for every distinct value.
+     *
+     * @param name the name of the column
+     * @param values the value of every row
+     * @return this index
+     * @throws IllegalArgumentException if there is not exactly one value per row
+     */
+    public BitmapIndex addEqualityColumn(String name, long[] values) {
+        checkLength(values);
+        TreeMap<Long, BigBoolean> bitmaps = new TreeMap<>();
+        for (int row = 0; row < rows; row++) {
+            bitmaps.computeIfAbsent(values[row], value -> new BigBoolean(rows)).words()[row >>> 6] |= 1L << row;
+        }
+
+        return add(name, new EqualityColumn(bitmaps));
+    }
+
+    /**
+     * Registers a range-encoded numeric column, stored as one bitmap per bit of {@code value - min}.
+     *
+     * @param name the name of the column
+     * @param values the value of every row
+     * @return this index
+     * @throws IllegalArgumentException if there is not exactly one value per row
+     */
+    public BitmapIndex addRangeColumn(String name, long[] values) {
+        checkLength(values);
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (long value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        if (rows == 0) {
+            min = max = 0;
+        }
+
+        BigBoolean[] slices = new BigBoolean[64 - Long.numberOfLeadingZeros(max - min)];
+        for (int b = 0; b < slices.length; b++) {
+            slices[b] = new BigBoolean(rows);
+        }
+
+        for (int row = 0; row < rows; row++) {
+            long offset = values[row] - min;
+            while (offset != 0) {
+                slices[Long.numberOfTrailingZeros(offset)].words()[row >>> 6] |= 1L << row;
+                offset &= offset - 1;
+            }
+        }
+
+        return add(name, new SlicedColumn(slices, min, max));
+    }
+
+    /**
+     * Plans a query without running it.
+     *
+     * @param predicate the query
+     * @return the fused expression that computes the matching rows
+     * @throws IllegalArgumentException if the query uses an unknown column
+     */
+    public BitExpression plan(BitmapPredicate predicate) {
+        return predicate.compile(this);
+    }
+
+    /**
+     * Runs a query in one pass over the bitmaps it needs.
+     *
+     * @param predicate the query
+     * @return a new BigBoolean with the bits of the matching rows set
+     * @throws IllegalArgumentException if the query uses an unknown column
+     */
+    public BigBoolean evaluate(BitmapPredicate predicate) {
+        return plan(predicate).evaluate();
+    }
+
+    /**
+     * Counts the rows matching a query without materializing the result.
+     *
+     * @param predicate the query
+     * @return the number of matching rows
+     * @throws IllegalArgumentException if the query uses an unknown column
+     */
+    public int count(BitmapPredicate predicate) {
+        return plan(predicate).cardinality();
+    }
+
+    /**
+     * Runs a query and streams the IDs of the matching rows in ascending order.
+     *
+     * @param predicate the query
+     * @return the matching row IDs
+     * @throws IllegalArgumentException if the query uses an unknown column
+     */
+    public IntStream rowIds(BitmapPredicate predicate) {
+        return evaluate(predicate).bits();
+    }
+
+    Column column(String name) {
+        Column column = columns.get(name);
+        if (column == null) {
+            throw new IllegalArgumentException("Unknown column " + name);
+        }
+
+        return column;
+    }
+
+    BitExpression none() {
+        if (none == null) {
+            none = BitExpression.of(new BigBoolean(rows));
+        }
+
+        return none;
+    }
+
+    BitExpression all() {
+        if (all == null) {
+            all = BitExpression.of(new BigBoolean(rows).complementInPlace());
+        }
+
+        return all;
+    }
+
+    private BitmapIndex add(String name, Column column) {
+        if (columns.putIfAbsent(name, column) != null) {
+            throw new IllegalArgumentException("Duplicate column " + name);
+        }
+
+        return this;
+    }
+
+    private void checkLength(long[] values) {
+        if (values.length != rows) {
+            throw new IllegalArgumentException("Expected " + rows + " values, got " + values.length);
+        }
+    }
+
+    /**
+     * A column that can answer inclusive range predicates, equality being the range [v, v].
+     */
+    abstract class Column {
+        /**
+         * @return an expression for the rows with {@code lo <= value <= hi}
+         */
+        abstract BitExpression range(long lo, long hi);
+
+        /**
+         * @return the estimated fraction of rows with {@code lo <= value <= hi}
+         */
+        abstract double selectivity(long lo, long hi);
+    }
+
+    private final class BitmapColumn extends Column {
+        private final BigBoolean values;
+
+        BitmapColumn(BigBoolean values) {
+            this.values = values;
+        }
+
+        @Override
+        BitExpression range(long lo, long hi) {
+            boolean withFalse = lo <= 0 && hi >= 0;
+            boolean withTrue = lo <= 1 && hi >= 1;
+            if (withFalse && withTrue) {
+                return all();
+            }
+
+            if (withTrue) {
+                return BitExpression.of(values);
+            }
+
+            return withFalse ? BitExpression.of(values).not() : none();
+        }
+
+        @Override
+        double selectivity(long lo, long hi) {
+            double set = rows == 0 ? 0 : (double) values.cardinality() / rows;
+            return (lo <= 0 && hi >= 0 ? 1 - set : 0) + (lo <= 1 && hi >= 1 ? set : 0);
+        }
+    }
+
+    private final class EqualityColumn extends Column {
+        private final NavigableMap<Long, BigBoolean> bitmaps;
+        private final Map<Long, Integer> counts = new HashMap<>();
+
+        EqualityColumn(NavigableMap<Long, BigBoolean> bitmaps) {
+            this.bitmaps = bitmaps;
+            bitmaps.forEach((value, bitmap) -> counts.put(value, bitmap.cardinality()));
+        }
+
+        @Override
+        BitExpression range(long lo, long hi) {
+            if (lo > hi) {
+                return none();
+            }
+
+            NavigableMap<Long, BigBoolean> inside = bitmaps.subMap(lo, true, hi, true);
+            if (inside.isEmpty()) {
+                return none();
+            }
+
+            if (inside.size() == bitmaps.size()) {
+                return all();
+            }
+
+            // every row has exactly one value, so a wide range is cheaper as the complement of the rest
+            if (2 * inside.size() > bitmaps.size()) {
+                BitExpression outside = union(bitmaps.headMap(lo, false), null);
+                return union(bitmaps.tailMap(hi, false), outside).not();
+            }
+
+            return union(inside, null);
+        }
+
+        @Override
+        double selectivity(long lo, long hi) {
+            if (lo > hi || rows == 0) {
+                return 0;
+            }
+
+            long matching = 0;
+            for (Long value : bitmaps.subMap(lo, true, hi, true).keySet()) {
+                matching += counts.get(value);
+            }
+
+            return (double) matching / rows;
+        }
+
+        private BitExpression union(Map<Long, BigBoolean> part, BitExpression expr) {
+            for (BigBoolean bitmap : part.values()) {
+                expr = expr == null ? BitExpression.of(bitmap) : expr.or(BitExpression.of(bitmap));
+            }
+
+            return expr;
+        }
+    }
+
+    private final class SlicedColumn extends Column {
+        // slices[b] holds bit b of value - min
+        private final BigBoolean[] slices;
+        private final long min;
+        private final long max;
+
+        SlicedColumn(BigBoolean[] slices, long min, long max) {
+            this.slices = slices;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        BitExpression range(long lo, long hi) {
+            lo = Math.max(lo, min);
+            hi = Math.min(hi, max);
+            if (lo > hi) {
+                return none();
+            }
+
+            if (lo == hi) {
+                return equalTo(lo - min);
+            }
+
+            BitExpression upper = hi == max ? null : atMost(hi - min);
+            BitExpression lower = lo == min ? null : atMost(lo - 1 - min);
+            if (upper == null) {
+                return lower == null ? all() : lower.not();
+            }
+
+            return lower == null ? upper : upper.andNot(lower);
+        }
+
+        @Override
+        double selectivity(long lo, long hi) {
+            lo = Math.max(lo, min);
+            hi = Math.min(hi, max);
+            // assumes the values are spread evenly between min and max
+            return lo > hi ? 0 : Math.min(1, ((double) hi - lo + 1) / ((double) max - min + 1));
+        }
+
+        /**
+         * Builds {@code offset <= c} from the lowest bit up: for the bits 0..i, the value is at most c
+         * if bit i of c is 1 and the value has a 0 there, or if both bits match and the lower bits are at most c.
+         * The chain grows on the left, so it needs a single scratch block, and a block that is
+         * already all true or all false skips the remaining slices.
+         */
+        private BitExpression atMost(long c) {
+            BitExpression expr = null;
+            for (int b = 0; b < slices.length; b++) {
+                BitExpression slice = BitExpression.of(slices[b]);
+                if ((c >>> b & 1) != 0) {
+                    if (expr != null) {
+                        expr = expr.or(slice.not());
+                    }
+                } else {
+                    expr = expr == null ? slice.not() : expr.andNot(slice);
+                }
+            }
+
+            return expr == null ? all() : expr;
+        }
+
+        private BitExpression equalTo(long c) {
+            BitExpression expr = null;
+            for (int b = 0; b < slices.length; b++) {
+                BitExpression slice = BitExpression.of(slices[b]);
+                if ((c >>> b & 1) != 0) {
+                    expr = expr == null ? slice : expr.and(slice);
+                } else {
+                    expr = expr == null ? slice.not() : expr.andNot(slice);
+                }
+            }
+
+            return expr == null ? all() : expr;
+        }
+    }
+
+}
@@ -0,0 +1,276 @@
+package bot.staro.booleans;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A query over the columns of a {@link BitmapIndex}: comparisons of a column with constants,
+ * combined with AND, OR and NOT. Predicates are immutable and can be reused across indexes
+ * that have the same column names.
+ *
+ * @author St4ro.
+ */
+public abstract class BitmapPredicate {
+
+    private BitmapPredicate() {
+    }
+
+    /**
+     * @return a predicate for the rows where a bitmap column is true
+     */
+    public static BitmapPredicate isTrue(String column) {
+        return eq(column, 1);
+    }
+
+    /**
+     * @return a predicate for the rows where the column equals the value
+     */
+    public static BitmapPredicate eq(String column, long value) {
+        return new Compare(column, value, value);
+    }
+
+    /**
+     * @return a predicate for the rows with {@code lo <= column <= hi}
+     */
+    public static BitmapPredicate between(String column, long lo, long hi) {
+        return new Compare(column, lo, hi);
+    }
+
+    /**
+     * @return a predicate for the rows with {@code column < value}
+     */
+    public static BitmapPredicate lessThan(String column, long value) {
+        return value == Long.MIN_VALUE ? new Compare(column, 0, -1) : new Compare(column, Long.MIN_VALUE, value - 1);
+    }
+
+    /**
+     * @return a predicate for the rows with {@code column <= value}
+     */
+    public static BitmapPredicate atMost(String column, long value) {
+        return new Compare(column, Long.MIN_VALUE, value);
+    }
+
+    /**
+     * @return a predicate for the rows with {@code column > value}
+     */
+    public static BitmapPredicate greaterThan(String column, long value) {
+        return value == Long.MAX_VALUE ? new Compare(column, 0, -1) : new Compare(column, value + 1, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return a predicate for the rows with {@code column >= value}
+     */
+    public static BitmapPredicate atLeast(String column, long value) {
+        return new Compare(column, value, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return a predicate for the rows matching all operands
+     */
+    public static BitmapPredicate and(BitmapPredicate... operands) {
+        return new And(List.of(operands));
+    }
+
+    /**
+     * @return a predicate for the rows matching at least one operand
+     */
+    public static BitmapPredicate or(BitmapPredicate... operands) {
+        return new Or(List.of(operands));
+    }
+
+    /**
+     * @return a predicate for the rows not matching the operand
+     */
+    public static BitmapPredicate not(BitmapPredicate operand) {
+        return operand instanceof Not not ? not.operand : new Not(operand);
+    }
+
+    /**
+     * @return a predicate for {@code this AND other}
+     */
+    public BitmapPredicate and(BitmapPredicate other) {
+        return and(this, other);
+    }
+
+    /**
+     * @return a predicate for {@code this OR other}
+     */
+    public BitmapPredicate or(BitmapPredicate other) {
+        return or(this, other);
+    }
+
+    /**
+     * @return a predicate for {@code NOT this}
+     */
+    public BitmapPredicate not() {
+        return not(this);
+    }
+
+    /**
+     * @return the estimated fraction of the rows of the index that match, from 0 to 1
+     */
+    abstract double selectivity(BitmapIndex index);
+
+    abstract BitExpression compile(BitmapIndex index);
+
+    /**
+     * Sorts the operands of a conjunction or disjunction by their estimated selectivity.
+     */
+    private static List<BitmapPredicate> sorted(List<BitmapPredicate> operands, BitmapIndex index, boolean descending) {
+        double[] selectivity = new double[operands.size()];
+        Integer[] order = new Integer[operands.size()];
+        for (int i = 0; i < order.length; i++) {
+            selectivity[i] = operands.get(i).selectivity(index);
+            order[i] = i;
+        }
+
+        Comparator<Integer> bySelectivity = Comparator.comparingDouble(i -> selectivity[i]);
+        Arrays.sort(order, descending ? bySelectivity.reversed() : bySelectivity);
+        List<BitmapPredicate> ret = new ArrayList<>(order.length);
+        for (int i : order) {
+            ret.add(operands.get(i));
+        }
+
+        return ret;
+    }
+
+    private static final class Compare extends BitmapPredicate {
+        private final String column;
+        private final long lo;
+        private final long hi;
+
+        Compare(String column, long lo, long hi) {
+            this.column = column;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        double selectivity(BitmapIndex index) {
+            return index.column(column).selectivity(lo, hi);
+        }
+
+        @Override
+        BitExpression compile(BitmapIndex index) {
+            return index.column(column).range(lo, hi);
+        }
+
+        @Override
+        public String toString() {
+            return lo == hi ? column + " = " + lo : lo + " <= " + column + " <= " + hi;
+        }
+    }
+
+    private static final class And extends BitmapPredicate {
+        private final List<BitmapPredicate> operands;
+
+        And(List<BitmapPredicate> operands) {
+            this.operands = operands;
+        }
+
+        @Override
+        double selectivity(BitmapIndex index) {
+            // assumes the operands are independent
+            double ret = 1;
+            for (BitmapPredicate operand : operands) {
+                ret *= operand.selectivity(index);
+            }
+
+            return ret;
+        }
+
+        @Override
+        BitExpression compile(BitmapIndex index) {
+            BitExpression expr = null;
+            List<BitmapPredicate> negated = new ArrayList<>();
+            for (BitmapPredicate operand : sorted(operands, index, false)) {
+                if (operand instanceof Not not) {
+                    // a negated operand is cheaper as AND NOT, but it cannot start the chain
+                    negated.add(not.operand);
+                } else {
+                    expr = expr == null ? operand.compile(index) : expr.and(operand.compile(index));
+                }
+            }
+
+            for (BitmapPredicate operand : negated) {
+                expr = expr == null ? operand.compile(index).not() : expr.andNot(operand.compile(index));
+            }
+
+            return expr == null ? index.all() : expr;
+        }
+
+        @Override
+        public String toString() {
+            return join(operands, " AND ");
+        }
+    }
+
+    private static final class Or extends BitmapPredicate {
+        private final List<BitmapPredicate> operands;
+
+        Or(List<BitmapPredicate> operands) {
+            this.operands = operands;
+        }
+
+        @Override
+        double selectivity(BitmapIndex index) {
+            double none = 1;
+            for (BitmapPredicate operand : operands) {
+                none *= 1 - operand.selectivity(index);
+            }
+
+            return 1 - none;
+        }
+
+        @Override
+        BitExpression compile(BitmapIndex index) {
+            // the widest operand first, so that blocks which are already full skip the rest
+            BitExpression expr = null;
+            for (BitmapPredicate operand : sorted(operands, index, true)) {
+                expr = expr == null ? operand.compile(index) : expr.or(operand.compile(index));
+            }
+
+            return expr == null ? index.none() : expr;
+        }
+
+        @Override
+        public String toString() {
+            return join(operands, " OR ");
+        }
+    }
+
+    private static final class Not extends BitmapPredicate {
+        private final BitmapPredicate operand;
+
+        Not(BitmapPredicate operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        double selectivity(BitmapIndex index) {
+            return 1 - operand.selectivity(index);
+        }
+
+        @Override
+        BitExpression compile(BitmapIndex index) {
+            return operand.compile(index).not();
+        }
+
+        @Override
+        public String toString() {
+            return "NOT (" + operand + ")";
+        }
+    }
+
+    private static String join(List<BitmapPredicate> operands, String separator) {
+        StringBuilder builder = new StringBuilder("(");
+        for (int i = 0; i < operands.size(); i++) {
+            builder.append(i == 0 ? "" : separator).append(operands.get(i));
+        }
+
+        return builder.append(')').toString();
+    }
+
+}
@@ -0,0 +1,324 @@
+package bot.staro.booleans;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A Bloom filter stored in a {@link BigBoolean}, for cheap negative answers in front of slow lookups.
+ * {@link #mightContain} never returns false for a key that was put, and returns true for
+ * a key that was not put with about the false positive probability the filter was created for.
+ * <p>
+ * Every key is hashed once with the 128-bit MurmurHash3, and the k bit positions are derived
+ * from the two halves with the Kirsch-Mitzenmacher scheme {@code h1 + i * h2}. In the
+ * {@linkplain #createBlocked blocked} layout, the first half only picks one 512 bit block
+ * (one cache line) and all k bits are set inside it, so a lookup touches a single line
+ * at the cost of a slightly higher false positive rate for the same size.
+ *
+ * @author St4ro.
+ */
+public final class BloomFilter {
+    static final int BLOCK_BITS = 512;
+    private static final int MAGIC = 0x4D4F4C42; // "BLOM"
+
+    private final BigBoolean bits;
+    private final int hashes;
+    private final boolean blocked;
+
+    BloomFilter(BigBoolean bits, int hashes, boolean blocked) {
+        this.bits = bits;
+        this.hashes = hashes;
+        this.blocked = blocked;
+    }
+
+    /**
+     * Creates an empty Bloom filter sized for the given number of keys and false positive probability.
+     *
+     * @param expectedInsertions the number of keys that will be put
+     * @param fpp the desired false positive probability, between 0 and 1 exclusive
+     * @return a new Bloom filter
+     * @throws IllegalArgumentException if the parameters are out of range or need more than Integer.MAX_VALUE bits
+     */
+    public static BloomFilter create(long expectedInsertions, double fpp) {
+        int size = optimalBits(expectedInsertions, fpp, 1);
+        return new BloomFilter(new BigBoolean(size), optimalHashes(expectedInsertions, size), false);
+    }
+
+    /**
+     * Creates an empty Bloom filter in the blocked layout, where all bits of a key share one cache line.
+     *
+     * @param expectedInsertions the number of keys that will be put
+     * @param fpp the desired false positive probability, between 0 and 1 exclusive
+     * @return a new blocked Bloom filter
+     * @throws IllegalArgumentException if the parameters are out of range or need more than Integer.MAX_VALUE bits
+     */
+    public static BloomFilter createBlocked(long expectedInsertions, double fpp) {
+        int size = optimalBits(expectedInsertions, fpp, BLOCK_BITS);
+        return new BloomFilter(new BigBoolean(size), optimalHashes(expectedInsertions, size), true);
+    }
+
+    /**
+     * Adds a key.
+     *
+     * @param key the key
+     * @return true if the filter changed, i.e. the key was definitely not present before
+     */
+    public boolean put(long key) {
+        long[] hash = new long[2];
+        Murmur3.hash128(key, hash);
+        return put(hash[0], hash[1]);
+    }
+
+    /**
+     * Adds a key.
+     *
+     * @param key the key
+     * @return true if the filter changed, i.e. the key was definitely not present before
+     */
+    public boolean put(byte[] key) {
+        long[] hash = new long[2];
+        Murmur3.hash128(key, 0, key.length, hash);
+        return put(hash[0], hash[1]);
+    }
+
+    /**
+     * Adds a key, hashed as its UTF-8 bytes.
+     *
+     * @param key the key
+     * @return true if the filter changed, i.e. the key was definitely not present before
+     */
+    public boolean put(CharSequence key) {
+        return put(key.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param key the key
+     * @return false if the key was definitely never put, true if it probably was
+     */
+    public boolean mightContain(long key) {
+        long[] hash = new long[2];
+        Murmur3.hash128(key, hash);
+        return mightContain(hash[0], hash[1]);
+    }
+
+    /**
+     * @param key the key
+     * @return false if the key was definitely never put, true if it probably was
+     */
+    public boolean mightContain(byte[] key) {
+        long[] hash = new long[2];
+        Murmur3.hash128(key, 0, key.length, hash);
+        return mightContain(hash[0], hash[1]);
+    }
+
+    /**
+     * @param key the key, hashed as its UTF-8 bytes
+     * @return false if the key was definitely never put, true if it probably was
+     */
+    public boolean mightContain(CharSequence key) {
+        return mightContain(key.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a filter that might contain every key that either filter might contain.
+     * The result is exactly the filter that putting the keys of both would have built.
+     *
+     * @param a the first filter
+     * @param b the second filter
+     * @return a new Bloom filter
+     * @throws IllegalArgumentException if the filters do not have the same size, hash count and layout
+     */
+    public static BloomFilter union(BloomFilter a, BloomFilter b) {
+        checkCompatible(a, b);
+        return new BloomFilter(BigBoolean.disjunction(a.bits, b.bits), a.hashes, a.blocked);
+    }
+
+    /**
+     * Creates a filter that might contain the keys both filters might contain.
+     * Unlike the union, its false positive rate can be higher than that of a filter built from the common keys.
+     *
+     * @param a the first filter
+     * @param b the second filter
+     * @return a new Bloom filter
+     * @throws IllegalArgumentException if the filters do not have the same size, hash count and layout
+     */
+    public static BloomFilter intersection(BloomFilter a, BloomFilter b) {
+        checkCompatible(a, b);
+        return new BloomFilter(BigBoolean.conjunction(a.bits, b.bits), a.hashes, a.blocked);
+    }
+
+    /**
+     * Adds all keys of another filter to this one.
+     *
+     * @param other the filter to merge in
+     * @return this filter
+     * @throws IllegalArgumentException if the filters do not have the same size, hash count and layout
+     */
+    public BloomFilter putAll(BloomFilter other) {
+        checkCompatible(this, other);
+        bits.orInPlace(other.bits);
+        return this;
+    }
+
+    /**
+     * @return the number of bits of this filter
+     */
+    public int getBitSize() {
+        return bits.getDimension();
+    }
+
+    /**
+     * @return the number of bit positions every key sets
+     */
+    public int getHashCount() {
+        return hashes;
+    }
+
+    /**
+     * @return true if this filter uses the blocked layout
+     */
+    public boolean isBlocked() {
+        return blocked;
+    }
+
+    /**
+     * Estimates the probability that {@link #mightContain} returns true for a key that was never put,
+     * from the fraction of bits that are currently set.
+     *
+     * @return the estimated false positive probability
+     */
+    public double expectedFpp() {
+        return Math.pow((double) bits.cardinality() / bits.getDimension(), hashes);
+    }
+
+    /**
+     * Estimates the number of distinct keys that were put, from the fraction of bits that are set.
+     *
+     * @return the estimated number of keys
+     */
+    public long approximateElementCount() {
+        double size = bits.getDimension();
+        double set = bits.cardinality();
+        return Math.round(-size / hashes * Math.log1p(-set / size));
+    }
+
+    /**
+     * Encodes this filter as a 12 byte header (magic, hash count, layout) followed by the
+     * {@link BigBooleanCodec} form of its bits, so sparse filters are stored compressed.
+     *
+     * @return a buffer positioned at 0 holding the encoded filter
+     */
+    public ByteBuffer encode() {
+        ByteBuffer ret = ByteBuffer.allocate(12 + BigBooleanCodec.encodedSize(bits)).order(ByteOrder.LITTLE_ENDIAN);
+        ret.putInt(MAGIC).putInt(hashes).putInt(blocked ? 1 : 0);
+        BigBooleanCodec.encode(bits, ret);
+        return ret.flip();
+    }
+
+    /**
+     * Decodes a filter written by {@link #encode()}, starting at the position of the buffer.
+     *
+     * @param src the buffer to read from
+     * @return the decoded filter
+     * @throws IllegalArgumentException if the data is not a valid encoded filter
+     */
+    public static BloomFilter decode(ByteBuffer src) {
+        ByteBuffer in = src.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (in.remaining() < 12 || in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not an encoded BloomFilter");
+        }
+
+        int hashes = in.getInt();
+        int layout = in.getInt();
+        BigBoolean bits = BigBooleanCodec.decode(in);
+        if (hashes < 1 || layout < 0 || layout > 1 || bits.getDimension() == 0
+                || (layout == 1 && bits.getDimension() % BLOCK_BITS != 0)) {
+            throw new IllegalArgumentException("Corrupt BloomFilter header");
+        }
+
+        src.position(src.position() + in.position());
+        return new BloomFilter(bits, hashes, layout == 1);
+    }
+
+    /**
+     * Computes the i-th of the k bit positions of a key from the two halves of its hash.
+     */
+    static int index(long h1, long h2, int i, int size, boolean blocked) {
+        if (blocked) {
+            int block = (int) ((h1 & Long.MAX_VALUE) % (size / BLOCK_BITS));
+            // an odd step visits every position of the block before repeating one
+            int step = (int) (h2 >>> 32) | 1;
+            return block * BLOCK_BITS + (((int) h2 + i * step) & (BLOCK_BITS - 1));
+        }
+
+        return (int) (((h1 + i * h2) & Long.MAX_VALUE) % size);
+    }
+
+    static int optimalBits(long expectedInsertions, double fpp, int granularity) {
+        if (expectedInsertions < 1 || !(fpp > 0 && fpp < 1)) {
+            throw new IllegalArgumentException("expectedInsertions < 1 or fpp not in (0, 1)");
+        }
+
+        double bits = Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        double rounded = Math.ceil(Math.max(bits, 64) / granularity) * granularity;
+        if (rounded > Integer.MAX_VALUE - BLOCK_BITS) {
+            throw new IllegalArgumentException("A filter for " + expectedInsertions + " keys at fpp " + fpp + " needs more than Integer.MAX_VALUE bits");
+        }
+
+        return (int) rounded;
+    }
+
+    static int optimalHashes(long expectedInsertions, int size) {
+        return Math.max(1, (int) Math.round((double) size / expectedInsertions * Math.log(2)));
+    }
+
+    private boolean put(long h1, long h2) {
+        int size = bits.getDimension();
+        boolean changed = false;
+        for (int i = 0; i < hashes; i++) {
+            int index = index(h1, h2, i, size, blocked);
+            if (!bits.getValue(index)) {
+                bits.setValue(index, true);
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    private boolean mightContain(long h1, long h2) {
+        int size = bits.getDimension();
+        for (int i = 0; i < hashes; i++) {
+            if (!bits.getValue(index(h1, h2, i, size, blocked))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static void checkCompatible(BloomFilter a, BloomFilter b) {
+        if (a.bits.getDimension() != b.bits.getDimension() || a.hashes != b.hashes || a.blocked != b.blocked) {
+            throw new IllegalArgumentException("Bloom filters differ in size, hash count or layout");
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof BloomFilter other)) {
+            return false;
+        }
+
+        return hashes == other.hashes && blocked == other.blocked && bits.equals(other.bits);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * bits.hashCode() + hashes) + (blocked ? 1 : 0);
+    }
+
+}
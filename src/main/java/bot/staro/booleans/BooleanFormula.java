@@ -0,0 +1,422 @@
+package bot.staro.booleans;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An immutable boolean formula over numbered variables, built from the operators of {@link BitOperator}.
+ * A formula can be evaluated for a single assignment with {@link #evaluate(boolean...)}, but it is
+ * meant to be {@link #compile() compiled} into a {@link FormulaProgram} that evaluates it for 64
+ * assignments per instruction over whole columns of inputs.
+ *
+ * <pre>
+ * BooleanFormula f = BooleanFormula.variable(0).and(BooleanFormula.variable(1).not()).or(BooleanFormula.variable(2));
+ * BigBoolean results = f.compile().evaluate(x0, x1, x2);
+ * </pre>
+ *
+ * Formulas are compared structurally, so equal subformulas are computed only once by the program.
+ * Evaluating, comparing and printing formulas walks them iteratively, so even very deep formulas can be used.
+ *
+ * @author St4ro.
+ */
+public abstract class BooleanFormula {
+    private static final BooleanFormula FALSE = new Constant(false);
+    private static final BooleanFormula TRUE = new Constant(true);
+
+    private final int variableCount;
+
+    private BooleanFormula(int variableCount) {
+        this.variableCount = variableCount;
+    }
+
+    /**
+     * @param index the index of the variable, which is the index of its input column
+     * @return a formula that is the value of the variable
+     * @throws IllegalArgumentException if the index is negative
+     */
+    public static BooleanFormula variable(int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("index < 0");
+        }
+
+        return new Variable(index);
+    }
+
+    /**
+     * @return a formula that is always the given value
+     */
+    public static BooleanFormula constant(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    /**
+     * @return a formula for {@code op(a, b)}
+     */
+    public static BooleanFormula apply(BitOperator op, BooleanFormula a, BooleanFormula b) {
+        return new Binary(Objects.requireNonNull(op), a, b);
+    }
+
+    /**
+     * @return a formula for {@code NOT a}
+     */
+    public static BooleanFormula not(BooleanFormula a) {
+        return a instanceof Not not ? not.operand : new Not(a);
+    }
+
+    /**
+     * @return a formula for {@code this AND other}
+     */
+    public BooleanFormula and(BooleanFormula other) {
+        return apply(BitOperator.AND, this, other);
+    }
+
+    /**
+     * @return a formula for {@code this OR other}
+     */
+    public BooleanFormula or(BooleanFormula other) {
+        return apply(BitOperator.OR, this, other);
+    }
+
+    /**
+     * @return a formula for {@code this XOR other}
+     */
+    public BooleanFormula xor(BooleanFormula other) {
+        return apply(BitOperator.XOR, this, other);
+    }
+
+    /**
+     * @return a formula for {@code this -> other}
+     */
+    public BooleanFormula implies(BooleanFormula other) {
+        return apply(BitOperator.IMPLIES, this, other);
+    }
+
+    /**
+     * @return a formula for {@code this <-> other}
+     */
+    public BooleanFormula equivalence(BooleanFormula other) {
+        return apply(BitOperator.EQUIVALENCE, this, other);
+    }
+
+    /**
+     * @return a formula for {@code NOT this}
+     */
+    public BooleanFormula not() {
+        return not(this);
+    }
+
+    /**
+     * @return one more than the highest variable index the formula uses, 0 if it uses none
+     */
+    public int getVariableCount() {
+        return variableCount;
+    }
+
+    /**
+     * Evaluates the formula for a single assignment.
+     *
+     * @param assignment the value of every variable, by index
+     * @return the value of the formula
+     * @throws IndexOutOfBoundsException if the assignment has fewer values than the formula has variables
+     */
+    public boolean evaluate(boolean... assignment) {
+        // evaluate every distinct node once in post-order, so shared subformulas stay linear
+        Map<BooleanFormula, Long> values = new IdentityHashMap<>();
+        Deque<BooleanFormula> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            BooleanFormula node = stack.peek();
+            if (values.containsKey(node)) {
+                stack.pop();
+                continue;
+            }
+
+            boolean ready = true;
+            if (node instanceof Not not) {
+                ready = push(not.operand, values, stack);
+            } else if (node instanceof Binary binary) {
+                ready = push(binary.left, values, stack) & push(binary.right, values, stack);
+            }
+
+            if (ready) {
+                stack.pop();
+                values.put(node, node.eval(assignment, values));
+            }
+        }
+
+        return (values.get(this) & 1) != 0;
+    }
+
+    /**
+     * Compiles the formula into a program that evaluates it for whole columns of assignments.
+     *
+     * @return the compiled program
+     */
+    public FormulaProgram compile() {
+        return FormulaProgram.compile(this);
+    }
+
+    /**
+     * @param values the values of the operands, which are already evaluated
+     */
+    abstract long eval(boolean[] assignment, Map<BooleanFormula, Long> values);
+
+    private static boolean push(BooleanFormula operand, Map<BooleanFormula, Long> values, Deque<BooleanFormula> stack) {
+        if (values.containsKey(operand)) {
+            return true;
+        }
+
+        stack.push(operand);
+        return false;
+    }
+
+    /**
+     * Compares two formulas structurally with an explicit stack. Every pair of nodes is compared
+     * at most once, so formulas with shared subformulas compare in linear time.
+     */
+    private static boolean structurallyEqual(BooleanFormula a, Object obj) {
+        if (a == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof BooleanFormula b) || a.getClass() != b.getClass() || a.hashCode() != b.hashCode()) {
+            return false;
+        }
+
+        Deque<BooleanFormula> stack = new ArrayDeque<>();
+        Set<Pair> seen = null;
+        stack.push(a);
+        stack.push(b);
+        while (!stack.isEmpty()) {
+            BooleanFormula y = stack.pop();
+            BooleanFormula x = stack.pop();
+            if (x.getClass() != y.getClass() || x.hashCode() != y.hashCode()) {
+                return false;
+            }
+
+            BooleanFormula[] xs;
+            BooleanFormula[] ys;
+            if (x instanceof Not nx) {
+                xs = new BooleanFormula[]{nx.operand};
+                ys = new BooleanFormula[]{((Not) y).operand};
+            } else if (x instanceof Binary bx) {
+                Binary by = (Binary) y;
+                if (bx.op != by.op) {
+                    return false;
+                }
+
+                xs = new BooleanFormula[]{bx.left, bx.right};
+                ys = new BooleanFormula[]{by.left, by.right};
+            } else if (x.equals(y)) {
+                continue;
+            } else {
+                return false;
+            }
+
+            for (int i = 0; i < xs.length; i++) {
+                if (xs[i] != ys[i]) {
+                    if (seen == null) {
+                        seen = new HashSet<>();
+                    }
+
+                    if (seen.add(new Pair(xs[i], ys[i]))) {
+                        stack.push(xs[i]);
+                        stack.push(ys[i]);
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Prints a formula with an explicit stack of the subformulas and the text between them.
+     */
+    private static String print(BooleanFormula formula) {
+        StringBuilder builder = new StringBuilder();
+        Deque<Object> stack = new ArrayDeque<>();
+        stack.push(formula);
+        while (!stack.isEmpty()) {
+            Object next = stack.pop();
+            if (next instanceof Not not) {
+                builder.append('!');
+                stack.push(not.operand);
+            } else if (next instanceof Binary binary) {
+                builder.append('(');
+                stack.push(")");
+                stack.push(binary.right);
+                stack.push(" " + binary.op + " ");
+                stack.push(binary.left);
+            } else {
+                builder.append(next);
+            }
+        }
+
+        return builder.toString();
+    }
+
+    static final class Variable extends BooleanFormula {
+        final int index;
+
+        Variable(int index) {
+            super(index + 1);
+            this.index = index;
+        }
+
+        @Override
+        long eval(boolean[] assignment, Map<BooleanFormula, Long> values) {
+            return assignment[index] ? -1L : 0;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Variable other && index == other.index;
+        }
+
+        @Override
+        public int hashCode() {
+            return index;
+        }
+
+        @Override
+        public String toString() {
+            return "x" + index;
+        }
+    }
+
+    static final class Constant extends BooleanFormula {
+        final boolean value;
+
+        Constant(boolean value) {
+            super(0);
+            this.value = value;
+        }
+
+        @Override
+        long eval(boolean[] assignment, Map<BooleanFormula, Long> values) {
+            return value ? -1L : 0;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Constant other && value == other.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value ? 1231 : 1237;
+        }
+
+        @Override
+        public String toString() {
+            return value ? "1" : "0";
+        }
+    }
+
+    static final class Not extends BooleanFormula {
+        final BooleanFormula operand;
+        private final int hash;
+
+        Not(BooleanFormula operand) {
+            super(operand.variableCount);
+            this.operand = operand;
+            this.hash = ~operand.hashCode();
+        }
+
+        @Override
+        long eval(boolean[] assignment, Map<BooleanFormula, Long> values) {
+            return ~values.get(operand);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return structurallyEqual(this, obj);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return print(this);
+        }
+    }
+
+    static final class Binary extends BooleanFormula {
+        final BitOperator op;
+        final BooleanFormula left;
+        final BooleanFormula right;
+        // cached, so that interning a formula with shared subformulas stays linear
+        private final int hash;
+
+        Binary(BitOperator op, BooleanFormula left, BooleanFormula right) {
+            super(Math.max(left.variableCount, right.variableCount));
+            this.op = op;
+            this.left = left;
+            this.right = right;
+            this.hash = hash(op, left.hashCode(), right.hashCode());
+        }
+
+        /**
+         * Mixes the hashes of the operands, so that chains like {@code d = d.xor(d)} do not shift
+         * the bits of the hash out and make every level collide.
+         */
+        private static int hash(BitOperator op, int left, int right) {
+            int h = Integer.rotateLeft((31 * op.ordinal() + left) * 0x9E3779B9, 13) ^ right;
+            h *= 0x85EBCA6B;
+            return h ^ (h >>> 16);
+        }
+
+        @Override
+        long eval(boolean[] assignment, Map<BooleanFormula, Long> values) {
+            return op.apply(values.get(left), values.get(right));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return structurallyEqual(this, obj);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return print(this);
+        }
+    }
+
+    /**
+     * A pair of nodes under comparison, by identity.
+     */
+    private static final class Pair {
+        private final BooleanFormula a;
+        private final BooleanFormula b;
+
+        Pair(BooleanFormula a, BooleanFormula b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Pair other && a == other.a && b == other.b;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(a) + System.identityHashCode(b);
+        }
+    }
+
+}
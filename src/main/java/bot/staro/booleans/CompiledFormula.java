@@ -0,0 +1,163 @@
+package bot.staro.booleans;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link BooleanFormula} compiled to JVM bytecode. Every formula gets its own hidden class whose methods
+ * are the formula as straight-line code, so the JIT compiles it like a hand-written expression instead of
+ * dispatching on every node of a tree. {@link #evaluateWords} runs the whole loop over word columns inside
+ * the generated class, with 64 assignments per long operation.
+ * <p>
+ * Compiled formulas are cached by their structure, and the cache only holds them weakly: once a compiled
+ * formula is no longer referenced, it and its class can be unloaded. Formulas too large for one JVM method
+ * fall back to the {@link FormulaProgram} interpreter behind the same methods.
+ *
+ * <pre>
+ * CompiledFormula rule = CompiledFormula.of(BooleanFormula.variable(0).and(BooleanFormula.variable(1).not()));
+ * boolean hit = rule.test(true, false);
+ * BigBoolean hits = rule.evaluate(column0, column1);
+ * </pre>
+ *
+ * @author St4ro.
+ */
+public abstract class CompiledFormula {
+    private static final Map<BooleanFormula, CacheEntry> CACHE = new HashMap<>();
+    private static final ReferenceQueue<CompiledFormula> QUEUE = new ReferenceQueue<>();
+
+    private BooleanFormula formula;
+
+    CompiledFormula() {
+    }
+
+    /**
+     * Gets the compiled form of a formula, compiling it unless a structurally equal formula
+     * was compiled before and is still in use.
+     *
+     * @param formula the formula
+     * @return the compiled formula
+     */
+    public static CompiledFormula of(BooleanFormula formula) {
+        synchronized (CACHE) {
+            for (Object stale; (stale = QUEUE.poll()) != null; ) {
+                CacheEntry entry = (CacheEntry) stale;
+                CACHE.remove(entry.key, entry);
+            }
+
+            CacheEntry entry = CACHE.get(formula);
+            CompiledFormula ret = entry == null ? null : entry.get();
+            if (ret == null) {
+                ret = FormulaCompiler.compile(formula);
+                if (ret == null) {
+                    ret = new Interpreted(formula);
+                }
+
+                ret.formula = formula;
+                CACHE.put(formula, new CacheEntry(formula, ret));
+            }
+
+            return ret;
+        }
+    }
+
+    /**
+     * Evaluates the formula for a single assignment.
+     *
+     * @param assignment the value of every variable, by index
+     * @return the value of the formula
+     * @throws IndexOutOfBoundsException if the assignment has fewer values than the formula has variables
+     */
+    public abstract boolean test(boolean... assignment);
+
+    /**
+     * Evaluates the formula for the words {@code [from, to)} of the columns, 64 assignments per word:
+     * {@code out[i]} receives the formula applied to {@code columns[v][i]} for every variable v.
+     *
+     * @param columns one array of words per variable
+     * @param out the array receiving the results
+     * @param from the first word
+     * @param to the word after the last one
+     */
+    public abstract void evaluateWords(long[][] columns, long[] out, int from, int to);
+
+    /**
+     * Evaluates the formula for every row of the input columns: row i assigns
+     * {@code inputs[v].getValue(i)} to variable v.
+     *
+     * @param inputs one column per variable, all of the same dimension
+     * @return a new BigBoolean holding the value of the formula for every row
+     * @throws IllegalArgumentException if there are fewer columns than variables
+     * @throws AssertionError if the dimensions of the columns are not equal
+     */
+    public BigBoolean evaluate(BigBoolean... inputs) {
+        int variables = formula.getVariableCount();
+        if (inputs.length < Math.max(1, variables)) {
+            throw new IllegalArgumentException("Expected " + Math.max(1, variables) + " input columns, got " + inputs.length);
+        }
+
+        BigBoolean dest = new BigBoolean(inputs[0].getDimension());
+        long[][] columns = new long[inputs.length][];
+        for (int v = 0; v < inputs.length; v++) {
+            if (inputs[v].getDimension() != dest.getDimension()) {
+                throw new AssertionError("a.dimension != b.dimension");
+            }
+
+            columns[v] = inputs[v].words();
+        }
+
+        long[] out = dest.words();
+        evaluateWords(columns, out, 0, out.length);
+        dest.invalidate();
+        dest.maskPadding();
+        return dest;
+    }
+
+    /**
+     * @return the formula this was compiled from
+     */
+    public BooleanFormula getFormula() {
+        return formula;
+    }
+
+    /**
+     * @return true if the formula runs as generated bytecode, false if it was too large and is interpreted
+     */
+    public boolean isBytecode() {
+        return !(this instanceof Interpreted);
+    }
+
+    @Override
+    public String toString() {
+        return (isBytecode() ? "compiled " : "interpreted ") + formula;
+    }
+
+    private static final class CacheEntry extends WeakReference<CompiledFormula> {
+        private final BooleanFormula key;
+
+        CacheEntry(BooleanFormula key, CompiledFormula value) {
+            super(value, QUEUE);
+            this.key = key;
+        }
+    }
+
+    private static final class Interpreted extends CompiledFormula {
+        private final FormulaProgram program;
+
+        Interpreted(BooleanFormula source) {
+            this.program = FormulaProgram.compile(source);
+        }
+
+        @Override
+        public boolean test(boolean... assignment) {
+            return program.test(assignment);
+        }
+
+        @Override
+        public void evaluateWords(long[][] columns, long[] out, int from, int to) {
+            program.evaluateWords(columns, out, from, to);
+        }
+    }
+
+}
@@ -0,0 +1,332 @@
+package bot.staro.booleans;
+
+import java.util.Arrays;
+
+/**
+ * A compressed counterpart of {@link BigBoolean} for sparse or clustered values.
+ * The index space is cut into chunks of 2^16 values. Chunks without any true value take
+ * no memory at all, and every other chunk is kept in whichever {@link RoaringContainer}
+ * is smallest for its contents: a sorted array, a plain bitmap or a list of runs.
+ * <p>
+ * The set operations work container by container and never expand the whole vector.
+ *
+ * @author St4ro.
+ */
+public final class CompressedBigBoolean {
+    private final int dimension;
+    // keys[i] is the index of the chunk held by containers[i], sorted ascending
+    private char[] keys;
+    private RoaringContainer[] containers;
+    private int size;
+
+    /**
+     * Creates a new CompressedBigBoolean where every value is false.
+     *
+     * @param dimension the number of boolean values this CompressedBigBoolean can hold
+     */
+    public CompressedBigBoolean(int dimension) {
+        this(dimension, new char[4], new RoaringContainer[4], 0);
+    }
+
+    private CompressedBigBoolean(int dimension, char[] keys, RoaringContainer[] containers, int size) {
+        this.dimension = dimension;
+        this.keys = keys;
+        this.containers = containers;
+        this.size = size;
+    }
+
+    /**
+     * Compresses a dense BigBoolean.
+     *
+     * @param src the BigBoolean to compress
+     * @return a new CompressedBigBoolean holding the same values
+     */
+    public static CompressedBigBoolean fromBigBoolean(BigBoolean src) {
+        long[] words = src.words();
+        int chunks = (words.length + RoaringContainer.WORDS - 1) / RoaringContainer.WORDS;
+        CompressedBigBoolean ret = new CompressedBigBoolean(src.getDimension(), new char[chunks], new RoaringContainer[chunks], 0);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int from = chunk * RoaringContainer.WORDS;
+            int to = Math.min(from + RoaringContainer.WORDS, words.length);
+            if (BitKernels.popCount(words, from, to) > 0) {
+                ret.keys[ret.size] = (char) chunk;
+                ret.containers[ret.size] = BitmapContainer.of(words, from, to).optimize();
+                ret.size++;
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Expands this CompressedBigBoolean into a dense BigBoolean.
+     *
+     * @return a new BigBoolean holding the same values
+     */
+    public BigBoolean toBigBoolean() {
+        long[] words = new long[BigBoolean.wordsFor(dimension)];
+        for (int i = 0; i < size; i++) {
+            containers[i].writeTo(words, keys[i] * RoaringContainer.WORDS);
+        }
+
+        return new BigBoolean(words, dimension);
+    }
+
+    /**
+     * Gets the boolean value at the specified index.
+     *
+     * @param index the index of the value, from 0 to dimension - 1
+     * @return the value at the index
+     * @throws IndexOutOfBoundsException if the index is outside of this CompressedBigBoolean
+     */
+    public boolean getValue(int index) {
+        checkIndex(index);
+        int i = Arrays.binarySearch(keys, 0, size, (char) (index >>> 16));
+        return i >= 0 && containers[i].contains((char) index);
+    }
+
+    /**
+     * Sets the boolean value at the specified index.
+     *
+     * @param index the index of the value, from 0 to dimension - 1
+     * @param value the new value
+     * @throws IndexOutOfBoundsException if the index is outside of this CompressedBigBoolean
+     */
+    public void setValue(int index, boolean value) {
+        checkIndex(index);
+        char key = (char) (index >>> 16);
+        int i = Arrays.binarySearch(keys, 0, size, key);
+        if (value) {
+            if (i < 0) {
+                i = -i - 1;
+                insert(i, key, new ArrayContainer());
+            }
+
+            containers[i] = containers[i].add((char) index);
+        } else if (i >= 0) {
+            RoaringContainer container = containers[i].remove((char) index);
+            if (container.cardinality() == 0) {
+                System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+                System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+                containers[--size] = null;
+            } else {
+                containers[i] = container;
+            }
+        }
+    }
+
+    /**
+     * @return the number of boolean values this CompressedBigBoolean holds
+     */
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Counts the values of this CompressedBigBoolean that are true.
+     *
+     * @return the number of set bits
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+
+        return cardinality;
+    }
+
+    /**
+     * Estimates the heap memory used by the compressed values.
+     *
+     * @return the estimated size in bytes
+     */
+    public long getSizeInBytes() {
+        long bytes = 2L * keys.length + 4L * containers.length;
+        for (int i = 0; i < size; i++) {
+            bytes += containers[i].sizeInBytes();
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Performs a logical AND operation between two CompressedBigBoolean objects.
+     * Only chunks present in both operands are visited.
+     *
+     * @param a the first CompressedBigBoolean operand
+     * @param b the second CompressedBigBoolean operand
+     * @return a new CompressedBigBoolean containing the result of the AND operation
+     * @throws AssertionError if the dimensions of the operands are not equal
+     */
+    public static CompressedBigBoolean conjunction(CompressedBigBoolean a, CompressedBigBoolean b) {
+        checkDimension(a, b);
+        int capacity = Math.max(1, Math.min(a.size, b.size));
+        CompressedBigBoolean ret = new CompressedBigBoolean(a.dimension, new char[capacity], new RoaringContainer[capacity], 0);
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                RoaringContainer container = a.containers[i].and(b.containers[j]);
+                if (container.cardinality() > 0) {
+                    ret.keys[ret.size] = a.keys[i];
+                    ret.containers[ret.size] = container.optimize();
+                    ret.size++;
+                }
+
+                i++;
+                j++;
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Performs a logical OR operation between two CompressedBigBoolean objects.
+     *
+     * @param a the first CompressedBigBoolean operand
+     * @param b the second CompressedBigBoolean operand
+     * @return a new CompressedBigBoolean containing the result of the OR operation
+     * @throws AssertionError if the dimensions of the operands are not equal
+     */
+    public static CompressedBigBoolean disjunction(CompressedBigBoolean a, CompressedBigBoolean b) {
+        checkDimension(a, b);
+        int capacity = Math.max(1, a.size + b.size);
+        CompressedBigBoolean ret = new CompressedBigBoolean(a.dimension, new char[capacity], new RoaringContainer[capacity], 0);
+        int i = 0;
+        int j = 0;
+        while (i < a.size || j < b.size) {
+            if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                ret.keys[ret.size] = a.keys[i];
+                ret.containers[ret.size++] = a.containers[i++].copy();
+            } else if (i == a.size || a.keys[i] > b.keys[j]) {
+                ret.keys[ret.size] = b.keys[j];
+                ret.containers[ret.size++] = b.containers[j++].copy();
+            } else {
+                ret.keys[ret.size] = a.keys[i];
+                ret.containers[ret.size++] = a.containers[i++].or(b.containers[j++]).optimize();
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Returns the complement of this CompressedBigBoolean.
+     * Chunks without any true value become a single run.
+     *
+     * @return a new CompressedBigBoolean containing the complement
+     */
+    public CompressedBigBoolean complement() {
+        int chunks = (int) (((long) dimension + RoaringContainer.BITS - 1) >>> 16);
+        CompressedBigBoolean ret = new CompressedBigBoolean(dimension, new char[Math.max(1, chunks)], new RoaringContainer[Math.max(1, chunks)], 0);
+        int i = 0;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int limit = (int) Math.min(RoaringContainer.BITS, (long) dimension - ((long) chunk << 16));
+            RoaringContainer container;
+            if (i < size && keys[i] == chunk) {
+                container = containers[i++].not(limit);
+            } else {
+                container = new RunContainer(new char[] {0, (char) (limit - 1)}, 1);
+            }
+
+            if (container.cardinality() > 0) {
+                ret.keys[ret.size] = (char) chunk;
+                ret.containers[ret.size++] = container.optimize();
+            }
+        }
+
+        return ret;
+    }
+
+    private void insert(int index, char key, RoaringContainer container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= dimension) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for dimension " + dimension);
+        }
+    }
+
+    private static void checkDimension(CompressedBigBoolean a, CompressedBigBoolean b) {
+        if (a.dimension != b.dimension) {
+            throw new AssertionError("a.dimension != b.dimension");
+        }
+    }
+
+    /**
+     * Returns a string representation of this CompressedBigBoolean, in the same
+     * format as {@link BigBoolean#toString()}.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+        return toBigBoolean().toString();
+    }
+
+    /**
+     * Two CompressedBigBoolean objects are equal if they have the same dimension and
+     * the same values, no matter which containers hold them.
+     *
+     * @param obj the object to compare with
+     * @return true if the objects are equal, false otherwise
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+
+        CompressedBigBoolean other = (CompressedBigBoolean) obj;
+        if (dimension != other.dimension || size != other.size) {
+            return false;
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (keys[i] != other.keys[i] || !containers[i].contentEquals(other.containers[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns a hash code value for this CompressedBigBoolean.
+     * It only depends on the chunks and their cardinalities, which are the same for every representation.
+     *
+     * @return a hash code value
+     */
+    @Override
+    public int hashCode() {
+        int result = 17;
+        result = 31 * result + dimension;
+        for (int i = 0; i < size; i++) {
+            result = 31 * result + keys[i];
+            result = 31 * result + containers[i].cardinality();
+        }
+
+        return result;
+    }
+
+}
@@ -0,0 +1,369 @@
+package bot.staro.booleans;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A bit vector like {@link BigBoolean} that can be shared between threads.
+ * Every bit operation is a single atomic read-modify-write of its word through a {@link VarHandle},
+ * so readers never block and writers only retry on their own word. The one exception is a starved
+ * snapshot, which blocks writers until it has its copy.
+ * <p>
+ * To support consistent {@link #snapshot() snapshots}, every write that changes a word also bumps
+ * the version counter of its stripe of words, {@link #DEFAULT_STRIPE_WORDS} unless the constructor is given
+ * another size. Every counter is padded to a cache line of its own, so writers to different stripes never
+ * touch the same memory. The padding costs one cache line per stripe: an eighth of the values with the
+ * default stripe, and as much as the values themselves with a stripe of one cache line (8 words).
+ * Smaller stripes let more writers work without sharing a counter.
+ * <p>
+ * A snapshot collects the counters, copies the words and collects the counters again, and only
+ * accepts the copy if no counter moved in between. After {@link #SNAPSHOT_ATTEMPTS} failed attempts,
+ * it blocks new writes until it has its copy, so a steady stream of writers cannot starve it. A writer
+ * can therefore block for as long as a starved snapshot takes to copy the words.
+ *
+ * @author St4ro.
+ */
+public final class ConcurrentBigBoolean {
+    /**
+     * The number of words that share one version counter by default, which is eight cache lines of values.
+     */
+    public static final int DEFAULT_STRIPE_WORDS = 64;
+    /**
+     * The number of copies a snapshot attempts before it blocks writers.
+     */
+    public static final int SNAPSHOT_ATTEMPTS = 16;
+    // the distance in longs between two counters, so no two of them share a cache line
+    private static final int VERSION_SPACING = 8;
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long[] payload;
+    private final long[] versions;
+    private final int dimension;
+    private final int stripeShift;
+    // private, so no caller can hold it and stall the writers
+    private final Object pauseLock = new Object();
+    // the number of snapshots pausing writers, guarded by pauseLock for writes
+    private volatile int pausing;
+
+    /**
+     * Creates a new ConcurrentBigBoolean where every value is false, with the default stripe size.
+     *
+     * @param dimension the number of boolean values this ConcurrentBigBoolean can hold
+     */
+    public ConcurrentBigBoolean(int dimension) {
+        this(dimension, DEFAULT_STRIPE_WORDS);
+    }
+
+    /**
+     * Creates a new ConcurrentBigBoolean where every value is false.
+     *
+     * @param dimension the number of boolean values this ConcurrentBigBoolean can hold
+     * @param stripeWords the number of words that share one version counter, a power of two
+     * @throws IllegalArgumentException if stripeWords is not a positive power of two
+     */
+    public ConcurrentBigBoolean(int dimension, int stripeWords) {
+        if (stripeWords <= 0 || Integer.bitCount(stripeWords) != 1) {
+            throw new IllegalArgumentException("The stripe size must be a power of two, got " + stripeWords);
+        }
+
+        this.dimension = dimension;
+        this.payload = new long[BigBoolean.wordsFor(dimension)];
+        this.stripeShift = Integer.numberOfTrailingZeros(stripeWords);
+        this.versions = new long[((payload.length + stripeWords - 1) >>> stripeShift) * VERSION_SPACING];
+    }
+
+    /**
+     * Creates a new ConcurrentBigBoolean holding the values of a BigBoolean.
+     *
+     * @param src the values to start with
+     */
+    public ConcurrentBigBoolean(BigBoolean src) {
+        this(src.getDimension());
+        System.arraycopy(src.words(), 0, payload, 0, payload.length);
+    }
+
+    /**
+     * Gets the boolean value at the specified index. Never blocks.
+     *
+     * @param index the index of the value, from 0 to dimension - 1
+     * @return the value at the index
+     * @throws IndexOutOfBoundsException if the index is outside of this ConcurrentBigBoolean
+     */
+    public boolean getValue(int index) {
+        checkIndex(index);
+        return ((long) WORDS.getVolatile(payload, index >>> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Atomically sets the boolean value at the specified index.
+     *
+     * @param index the index of the value, from 0 to dimension - 1
+     * @param value the new value
+     * @throws IndexOutOfBoundsException if the index is outside of this ConcurrentBigBoolean
+     */
+    public void setValue(int index, boolean value) {
+        getAndSet(index, value);
+    }
+
+    /**
+     * Atomically sets the value at the specified index to true.
+     *
+     * @param index the index of the value
+     * @return the previous value
+     */
+    public boolean set(int index) {
+        checkIndex(index);
+        int word = index >>> 6;
+        long bit = 1L << index;
+        awaitWrites();
+        long previous = (long) WORDS.getAndBitwiseOr(payload, word, bit);
+        if ((previous & bit) == 0) {
+            bump(word);
+        }
+
+        return (previous & bit) != 0;
+    }
+
+    /**
+     * Atomically sets the value at the specified index to false.
+     *
+     * @param index the index of the value
+     * @return the previous value
+     */
+    public boolean clear(int index) {
+        checkIndex(index);
+        int word = index >>> 6;
+        long bit = 1L << index;
+        awaitWrites();
+        long previous = (long) WORDS.getAndBitwiseAnd(payload, word, ~bit);
+        if ((previous & bit) != 0) {
+            bump(word);
+        }
+
+        return (previous & bit) != 0;
+    }
+
+    /**
+     * Atomically flips the value at the specified index.
+     *
+     * @param index the index of the value
+     * @return the previous value
+     */
+    public boolean flip(int index) {
+        checkIndex(index);
+        int word = index >>> 6;
+        long bit = 1L << index;
+        awaitWrites();
+        long previous = (long) WORDS.getAndBitwiseXor(payload, word, bit);
+        bump(word);
+        return (previous & bit) != 0;
+    }
+
+    /**
+     * Atomically sets the value at the specified index and returns the old one.
+     *
+     * @param index the index of the value
+     * @param value the new value
+     * @return the previous value
+     */
+    public boolean getAndSet(int index, boolean value) {
+        return value ? set(index) : clear(index);
+    }
+
+    /**
+     * Atomically sets the value at the specified index to update if it currently is expect.
+     *
+     * @param index the index of the value
+     * @param expect the expected current value
+     * @param update the new value
+     * @return true if the value was expect, false if it was not and nothing changed
+     */
+    public boolean compareAndSetBit(int index, boolean expect, boolean update) {
+        checkIndex(index);
+        int word = index >>> 6;
+        long bit = 1L << index;
+        while (true) {
+            awaitWrites();
+            long current = (long) WORDS.getVolatile(payload, word);
+            if (((current & bit) != 0) != expect) {
+                return false;
+            }
+
+            if (expect == update) {
+                return true;
+            }
+
+            // other bits of the word may change under us, which only costs a retry
+            if (WORDS.compareAndSet(payload, word, current, current ^ bit)) {
+                bump(word);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Merges another vector into this one with {@code this |= other}, one atomic word at a time.
+     * Concurrent writers to the same words are never lost.
+     *
+     * @param other the values to merge in
+     * @throws AssertionError if the dimensions are not equal
+     */
+    public void orFrom(BigBoolean other) {
+        checkDimension(other.getDimension());
+        long[] src = other.words();
+        for (int i = 0; i < payload.length; i++) {
+            if (src[i] != 0) {
+                awaitWrites();
+                long previous = (long) WORDS.getAndBitwiseOr(payload, i, src[i]);
+                if ((~previous & src[i]) != 0) {
+                    bump(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges another vector into this one with {@code this &= other}, one atomic word at a time.
+     *
+     * @param other the values to intersect with
+     * @throws AssertionError if the dimensions are not equal
+     */
+    public void andFrom(BigBoolean other) {
+        checkDimension(other.getDimension());
+        long[] src = other.words();
+        for (int i = 0; i < payload.length; i++) {
+            if (src[i] != -1L) {
+                awaitWrites();
+                long previous = (long) WORDS.getAndBitwiseAnd(payload, i, src[i]);
+                if ((previous & ~src[i]) != 0) {
+                    bump(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies all values at a single point in time. The copy is retried until no write landed while
+     * it was taken; after {@link #SNAPSHOT_ATTEMPTS} attempts, new writes block until the copy is taken.
+     *
+     * @return a new BigBoolean holding a consistent copy of the values
+     */
+    public BigBoolean snapshot() {
+        long[] copy = new long[payload.length];
+        long[] before = new long[versions.length / VERSION_SPACING];
+        for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+            if (tryCopy(copy, before)) {
+                return new BigBoolean(copy, dimension);
+            }
+
+            Thread.onSpinWait();
+        }
+
+        synchronized (pauseLock) {
+            pausing++;
+        }
+
+        try {
+            // writers that passed the pause before it began land at most one more write each
+            while (!tryCopy(copy, before)) {
+                Thread.onSpinWait();
+            }
+
+            return new BigBoolean(copy, dimension);
+        } finally {
+            synchronized (pauseLock) {
+                if (--pausing == 0) {
+                    pauseLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private boolean tryCopy(long[] copy, long[] before) {
+        for (int s = 0; s < before.length; s++) {
+            before[s] = (long) WORDS.getVolatile(versions, s * VERSION_SPACING);
+        }
+
+        for (int i = 0; i < payload.length; i++) {
+            copy[i] = (long) WORDS.getVolatile(payload, i);
+        }
+
+        for (int s = 0; s < before.length; s++) {
+            if (before[s] != (long) WORDS.getVolatile(versions, s * VERSION_SPACING)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Counts the true values. Under concurrent writes, the count is not taken at a single
+     * point in time; use {@code snapshot().cardinality()} for that.
+     *
+     * @return the number of set bits
+     */
+    public int cardinality() {
+        int count = 0;
+        for (int i = 0; i < payload.length; i++) {
+            count += Long.bitCount((long) WORDS.getVolatile(payload, i));
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the number of boolean values this ConcurrentBigBoolean holds
+     */
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Publishes a completed write of the given word to snapshots. This must happen after the
+     * write itself, so that a snapshot which saw the new value also sees the new version.
+     */
+    private void bump(int word) {
+        WORDS.getAndAdd(versions, (word >>> stripeShift) * VERSION_SPACING, 1L);
+    }
+
+    /**
+     * Blocks while a snapshot pauses writers. Without one, this is a single read that writers only share.
+     */
+    private void awaitWrites() {
+        if (pausing != 0) {
+            synchronized (pauseLock) {
+                boolean interrupted = false;
+                while (pausing != 0) {
+                    try {
+                        pauseLock.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= dimension) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for dimension " + dimension);
+        }
+    }
+
+    private void checkDimension(int other) {
+        if (dimension != other) {
+            throw new AssertionError("a.dimension != b.dimension");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+}
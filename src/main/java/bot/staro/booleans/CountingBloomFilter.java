@@ -0,0 +1,231 @@
+package bot.staro.booleans;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A Bloom filter that also supports removing keys, by keeping a 4-bit counter instead of a single bit
+ * at every position. The counters are packed 16 to a long, so the filter is four times the size of a
+ * {@link BloomFilter} with the same parameters and uses the same bit positions for every key.
+ * <p>
+ * A counter that reaches 15 sticks there: it is never decremented again, because the number of keys
+ * behind it is no longer known. This keeps {@link #mightContain} free of false negatives even after
+ * the overflow, at the cost of never clearing that position.
+ *
+ * @author St4ro.
+ */
+public final class CountingBloomFilter {
+    private static final long MAX_COUNT = 15;
+
+    private final long[] counters;
+    private final int size;
+    private final int hashes;
+    private final boolean blocked;
+
+    private CountingBloomFilter(int size, int hashes, boolean blocked) {
+        this.counters = new long[(size + 15) >>> 4];
+        this.size = size;
+        this.hashes = hashes;
+        this.blocked = blocked;
+    }
+
+    /**
+     * Creates an empty counting Bloom filter sized for the given number of keys and false positive probability.
+     *
+     * @param expectedInsertions the number of keys that will be present at the same time
+     * @param fpp the desired false positive probability, between 0 and 1 exclusive
+     * @return a new counting Bloom filter
+     * @throws IllegalArgumentException if the parameters are out of range or need more than Integer.MAX_VALUE counters
+     */
+    public static CountingBloomFilter create(long expectedInsertions, double fpp) {
+        int size = BloomFilter.optimalBits(expectedInsertions, fpp, 1);
+        return new CountingBloomFilter(size, BloomFilter.optimalHashes(expectedInsertions, size), false);
+    }
+
+    /**
+     * Creates an empty counting Bloom filter in the blocked layout of {@link BloomFilter#createBlocked}.
+     *
+     * @param expectedInsertions the number of keys that will be present at the same time
+     * @param fpp the desired false positive probability, between 0 and 1 exclusive
+     * @return a new blocked counting Bloom filter
+     * @throws IllegalArgumentException if the parameters are out of range or need more than Integer.MAX_VALUE counters
+     */
+    public static CountingBloomFilter createBlocked(long expectedInsertions, double fpp) {
+        int size = BloomFilter.optimalBits(expectedInsertions, fpp, BloomFilter.BLOCK_BITS);
+        return new CountingBloomFilter(size, BloomFilter.optimalHashes(expectedInsertions, size), true);
+    }
+
+    /**
+     * Adds a key.
+     *
+     * @param key the key
+     */
+    public void put(long key) {
+        long[] hash = new long[2];
+        Murmur3.hash128(key, hash);
+        add(hash[0], hash[1], 1);
+    }
+
+    /**
+     * Adds a key.
+     *
+     * @param key the key
+     */
+    public void put(byte[] key) {
+        long[] hash = new long[2];
+        Murmur3.hash128(key, 0, key.length, hash);
+        add(hash[0], hash[1], 1);
+    }
+
+    /**
+     * Adds a key, hashed as its UTF-8 bytes.
+     *
+     * @param key the key
+     */
+    public void put(CharSequence key) {
+        put(key.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Removes a key that was put before. Removing a key that was never put may
+     * remove other keys as well, so the method refuses keys the filter surely does not hold.
+     *
+     * @param key the key
+     * @return false if the key was definitely not present and nothing changed
+     */
+    public boolean remove(long key) {
+        long[] hash = new long[2];
+        Murmur3.hash128(key, hash);
+        return remove(hash[0], hash[1]);
+    }
+
+    /**
+     * Removes a key that was put before.
+     *
+     * @param key the key
+     * @return false if the key was definitely not present and nothing changed
+     */
+    public boolean remove(byte[] key) {
+        long[] hash = new long[2];
+        Murmur3.hash128(key, 0, key.length, hash);
+        return remove(hash[0], hash[1]);
+    }
+
+    /**
+     * Removes a key that was put before, hashed as its UTF-8 bytes.
+     *
+     * @param key the key
+     * @return false if the key was definitely not present and nothing changed
+     */
+    public boolean remove(CharSequence key) {
+        return remove(key.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param key the key
+     * @return false if the key is definitely not present, true if it probably is
+     */
+    public boolean mightContain(long key) {
+        long[] hash = new long[2];
+        Murmur3.hash128(key, hash);
+        return mightContain(hash[0], hash[1]);
+    }
+
+    /**
+     * @param key the key
+     * @return false if the key is definitely not present, true if it probably is
+     */
+    public boolean mightContain(byte[] key) {
+        long[] hash = new long[2];
+        Murmur3.hash128(key, 0, key.length, hash);
+        return mightContain(hash[0], hash[1]);
+    }
+
+    /**
+     * @param key the key, hashed as its UTF-8 bytes
+     * @return false if the key is definitely not present, true if it probably is
+     */
+    public boolean mightContain(CharSequence key) {
+        return mightContain(key.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Projects the counters onto a plain {@link BloomFilter} with a bit set for every non-zero counter.
+     * The result answers the same queries, can be combined with other filters and is a quarter of the size.
+     *
+     * @return a new Bloom filter
+     */
+    public BloomFilter toBloomFilter() {
+        BigBoolean bits = new BigBoolean(size);
+        long[] words = bits.words();
+        for (int c = 0; c < counters.length; c++) {
+            long packed = counters[c];
+            // fold every nibble onto its lowest bit, then gather the 16 bits
+            packed |= packed >>> 2;
+            packed |= packed >>> 1;
+            packed &= 0x1111111111111111L;
+            long bits16 = 0;
+            for (int n = 0; n < 16; n++) {
+                bits16 |= ((packed >>> (n << 2)) & 1) << n;
+            }
+
+            words[c >>> 2] |= bits16 << ((c & 3) << 4);
+        }
+
+        return new BloomFilter(bits, hashes, blocked);
+    }
+
+    /**
+     * @return the number of counters of this filter
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of counters every key increments
+     */
+    public int getHashCount() {
+        return hashes;
+    }
+
+    private void add(long h1, long h2, int delta) {
+        for (int i = 0; i < hashes; i++) {
+            int index = BloomFilter.index(h1, h2, i, size, blocked);
+            long count = count(index);
+            // a saturated counter sticks, and an empty one can only be reached by removing a false positive
+            if (count != MAX_COUNT && count + delta >= 0) {
+                setCount(index, count + delta);
+            }
+        }
+    }
+
+    private boolean remove(long h1, long h2) {
+        if (!mightContain(h1, h2)) {
+            return false;
+        }
+
+        add(h1, h2, -1);
+        return true;
+    }
+
+    private boolean mightContain(long h1, long h2) {
+        for (int i = 0; i < hashes; i++) {
+            if (count(BloomFilter.index(h1, h2, i, size, blocked)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private long count(int index) {
+        return (counters[index >>> 4] >>> ((index & 15) << 2)) & MAX_COUNT;
+    }
+
+    private void setCount(int index, long count) {
+        int shift = (index & 15) << 2;
+        int word = index >>> 4;
+        counters[word] = (counters[word] & ~(MAX_COUNT << shift)) | (count << shift);
+    }
+
+}
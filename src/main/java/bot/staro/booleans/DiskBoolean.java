@@ -1,15 +1,43 @@
 package bot.staro.booleans;
 
 import java.io.*;
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * A boolean which has a value stored on disk
+ * <p>
+ * By default the value is one bit of a {@link DiskBooleanStore}, shared with many other DiskBooleans,
+ * and the slot is returned to the store when the DiskBoolean is closed or becomes unreachable.
+ * A {@link #cached cached} DiskBoolean has a byte of a file shared by all cached DiskBooleans instead,
+ * returned to the file the same way, and keeps its value in memory: reads never touch the disk, and writes
+ * are coalesced and written behind by a background writer, with the {@link Durability} chosen at creation.
+ * One force of the shared file covers the writes of every cached DiskBoolean. A {@link #durable durable} DiskBoolean appends
+ * every value to a crash-safe write-ahead log instead of overwriting its file.
  * @author Edward E Stamper
  */
-public class DiskBoolean {
-    // the file that the value is stored.
-    private final File handle;
+public class DiskBoolean implements Closeable {
+    // the shared file and the in-memory value of a cached DiskBoolean, null otherwise
+    private final CachedFile file;
+    private final CachedValue cache;
+    // the write-ahead log of a durable DiskBoolean, null otherwise
+    private final LoggedBigBoolean log;
+    // the file of an asynchronous DiskBoolean, null otherwise
+    private final AsyncDiskFile async;
+    // the store holding the value otherwise, and the slot in the store or the cached file
+    private final DiskBooleanStore store;
+    private final int slot;
+    private final Cleaner.Cleanable cleanable;
+    private volatile boolean closed;
 
     public DiskBoolean() {
         this(false);
@@ -19,12 +47,39 @@ public class DiskBoolean {
      * @param value the initial boolean value
      */
     public DiskBoolean(boolean value) {
+        this(DiskBooleanStore.shared(), value);
+    }
+
+    /**
+     * Creates a DiskBoolean in a slot of the given store.
+     *
+     * @param store the store holding the value
+     * @param value the initial boolean value
+     */
+    public DiskBoolean(DiskBooleanStore store, boolean value) {
+        this.file = null;
+        this.cache = null;
+        this.log = null;
+        this.async = null;
+        this.store = store;
+        this.slot = store.allocate();
+        this.cleanable = store.register(this, slot);
+        store.set(slot, value);
+    }
+
+    private DiskBoolean(boolean value, Durability durability) {
         try {
-            // Create the file handle for storing the boolean value
-            handle = Files.createTempFile("boolean", "boolean").toFile();
+            file = CachedFile.shared();
         } catch (IOException e) {
             throw new RuntimeException("Could not allocate a file for DiskBoolean object.", e);
         }
+
+        cache = new CachedValue(durability);
+        log = null;
+        async = null;
+        store = null;
+        slot = file.allocate();
+        cleanable = file.register(this, slot);
         // update the value to the initial value
         try {
             setValue(value);
@@ -33,36 +88,392 @@ public class DiskBoolean {
         }
     }
 
+    private DiskBoolean(LoggedBigBoolean log) {
+        this.file = null;
+        this.cache = null;
+        this.log = log;
+        this.async = null;
+        this.store = null;
+        this.slot = -1;
+        this.cleanable = null;
+    }
+
+    private DiskBoolean(AsyncDiskFile async) {
+        this.file = null;
+        this.cache = null;
+        this.log = null;
+        this.async = async;
+        this.store = null;
+        this.slot = -1;
+        this.cleanable = null;
+    }
+
+    /**
+     * Creates a DiskBoolean in the file shared by cached DiskBooleans that serves reads from memory.
+     * Writes return as soon as the value is in memory, except with {@link Durability#SYNC}.
+     *
+     * @param value the initial boolean value
+     * @param durability when written values are forced to the device
+     * @return the cached DiskBoolean, to be {@link #close() closed} when no longer needed
+     */
+    public static DiskBoolean cached(boolean value, Durability durability) {
+        return new DiskBoolean(value, durability);
+    }
+
+    /**
+     * Creates a DiskBoolean that survives crashes, backed by a {@link LoggedBigBoolean write-ahead log} in a
+     * directory of its own. Opening the same directory again recovers the last value that reached the disk intact.
+     *
+     * @param directory the directory of the log, created if missing
+     * @param durability when written values are forced to the device
+     * @return the durable DiskBoolean, to be {@link #close() closed} when no longer needed
+     * @throws IOException if the log cannot be recovered or opened
+     */
+    public static DiskBoolean durable(Path directory, Durability durability) throws IOException {
+        return new DiskBoolean(LoggedBigBoolean.open(directory, 1, durability));
+    }
+
+    /**
+     * Creates a DiskBoolean with a file of its own that is read and written with asynchronous I/O,
+     * for {@link #getValueAsync()} and {@link #setValueAsync(boolean)} callers that must never block.
+     *
+     * @param value the initial boolean value
+     * @param executor the executor completing the futures
+     * @param maxOutstanding the most reads and writes that may be in flight, beyond which new ones are rejected
+     * @return the asynchronous DiskBoolean, to be {@link #close() closed} when no longer needed
+     * @throws IOException if the file cannot be created or the initial value not written
+     */
+    public static DiskBoolean async(boolean value, Executor executor, int maxOutstanding) throws IOException {
+        AsyncDiskFile file = new AsyncDiskFile(Files.createTempFile("boolean", "boolean"), executor, maxOutstanding);
+        try {
+            AsyncDiskFile.await(file.write(value));
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+
+        return new DiskBoolean(file);
+    }
+
     /**
      * @return the value saved on disk
      */
     public boolean getValue() throws IOException {
-        // create a byte array to store the value in memory
-        byte[] value = new byte[1];
+        checkOpen();
+        if (cache != null) {
+            return cache.value;
+        }
+
+        if (log != null) {
+            return log.getValue(0);
+        }
 
-        // create an input stream to read the data stored in "handle"
-        try (InputStream in = new FileInputStream(handle)) {
-            // read the value from the file
-            in.read(value);
+        if (async != null) {
+            return AsyncDiskFile.await(async.read());
         }
 
-        // return if the written value is "1", meaning true.
-        // otherwise, false
-        return value[0] == 1;
+        try {
+            // a concurrent close must not free the slot, and let another DiskBoolean take it, during the access
+            synchronized (this) {
+                checkOpen();
+                return store.get(slot);
+            }
+        } finally {
+            // the slot must not be cleaned while it is read
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
      * @param value the value that will be written to the file
      */
     public void setValue(boolean value) throws IOException {
-        // create an output stream that overrides current data in the file
-        try (FileOutputStream out = new FileOutputStream(handle, false)) {
-            // write a 1 for true
-            // write a 0 byte for false
-            final byte[] byteValue = new byte[] {
-                    (byte)(value ? 1 : 0)};
-            out.write(byteValue);
-            out.flush();
+        checkOpen();
+        if (cache != null) {
+            cache.value = value;
+            cache.changed();
+            return;
+        }
+
+        if (log != null) {
+            log.setValue(0, value);
+            return;
+        }
+
+        if (async != null) {
+            AsyncDiskFile.await(async.write(value));
+            return;
+        }
+
+        try {
+            synchronized (this) {
+                checkOpen();
+                store.set(slot, value);
+            }
+        } finally {
+            Reference.reachabilityFence(this);
+        }
+    }
+
+    /**
+     * Reads the value without blocking. For an {@link #async asynchronous} DiskBoolean, the read is
+     * joined with a read already in flight when possible, and the future completes on its executor;
+     * any other DiskBoolean serves the value from memory or its mapping and returns a completed future.
+     *
+     * @return a future of the value saved on disk, failed with the IOException of the read if it failed,
+     * or with a {@link java.util.concurrent.RejectedExecutionException} if too many operations are in flight
+     */
+    public CompletableFuture<Boolean> getValueAsync() {
+        if (async != null && !closed) {
+            return async.read();
+        }
+
+        try {
+            return CompletableFuture.completedFuture(getValue());
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Writes the value without blocking. For an {@link #async asynchronous} DiskBoolean, the future
+     * completes on its executor once the value is written. A cached or durable DiskBoolean changes its
+     * value at once and queues the write; with {@link Durability#SYNC}, the future completes on the common
+     * pool once the write is forced, and otherwise at once. Any other DiskBoolean writes to its store at once.
+     *
+     * @param value the value that will be written to the file
+     * @return a future completed once the value is written, failed like {@link #getValueAsync()}
+     */
+    public CompletableFuture<Void> setValueAsync(boolean value) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new ClosedChannelException());
+        }
+
+        if (async != null) {
+            return async.write(value);
+        }
+
+        if (cache != null) {
+            cache.value = value;
+            return cache.changedAsync();
+        }
+
+        if (log != null) {
+            return log.setValueAsync(0, value);
+        }
+
+        try {
+            setValue(value);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Blocks until every value set so far is written and forced to the device, whatever the durability.
+     * For a DiskBoolean in a store, this forces the whole store.
+     */
+    public void flush() throws IOException {
+        checkOpen();
+        if (cache != null) {
+            cache.flush();
+        } else if (log != null) {
+            log.flush();
+        } else if (async != null) {
+            async.force();
+        } else {
+            store.force();
+        }
+    }
+
+    /**
+     * Flushes and closes the log of a durable DiskBoolean, waits for the reads and writes in flight of an
+     * asynchronous one and closes its file, flushes a cached one and returns its byte to the shared file,
+     * or returns the slot of any other one to its store.
+     * A closed DiskBoolean can no longer be used.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        if (cache != null) {
+            try {
+                cache.flush();
+            } finally {
+                closed = true;
+                cache.release();
+            }
+        } else if (log != null) {
+            closed = true;
+            log.close();
+        } else if (async != null) {
+            closed = true;
+            async.close();
+        } else {
+            synchronized (this) {
+                closed = true;
+                cleanable.clean();
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * When the values of a cached DiskBoolean are forced to the device with {@link FileChannel#force}.
+     * Forces are shared: one force covers every write that was queued before it, from any thread.
+     */
+    public static final class Durability {
+        /**
+         * Values are written behind, and only forced by {@link DiskBoolean#flush()} and {@link DiskBoolean#close()}.
+         */
+        public static final Durability NONE = new Durability(-1);
+        /**
+         * Every setValue waits until its value is forced to the device.
+         */
+        public static final Durability SYNC = new Durability(0);
+
+        // -1 never, 0 on every write, otherwise the longest time a written value waits for its force
+        final long forceMillis;
+
+        private Durability(long forceMillis) {
+            this.forceMillis = forceMillis;
+        }
+
+        /**
+         * @param millis the longest time in milliseconds a written value waits until it is forced
+         * @return values are written behind and forced at most millis after they were written
+         * @throws IllegalArgumentException if millis is not positive
+         */
+        public static Durability every(long millis) {
+            if (millis <= 0) {
+                throw new IllegalArgumentException("The force interval must be positive, got " + millis);
+            }
+
+            return new Durability(millis);
+        }
+
+        @Override
+        public String toString() {
+            return forceMillis < 0 ? "NONE" : forceMillis == 0 ? "SYNC" : "every " + forceMillis + " ms";
+        }
+    }
+
+    private final class CachedValue extends WriteBehind.Target {
+        private final ByteBuffer buffer = ByteBuffer.allocate(1);
+        private volatile boolean value;
+        // guarded by this: once the byte is returned to the file, late writes must not touch it
+        private boolean released;
+        private boolean writing;
+
+        CachedValue(Durability durability) {
+            super(durability);
+        }
+
+        @Override
+        void write() throws IOException {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+
+                writing = true;
+            }
+
+            // not under the lock: a write to a page under writeback can wait for the whole fsync
+            try {
+                buffer.clear();
+                buffer.put(0, (byte) (value ? 1 : 0));
+                file.channel.write(buffer, slot);
+            } finally {
+                synchronized (this) {
+                    writing = false;
+                    notifyAll();
+                }
+            }
+        }
+
+        @Override
+        void force() throws IOException {
+            file.channel.force(false);
+        }
+
+        @Override
+        Object device() {
+            return file;
+        }
+
+        void release() {
+            synchronized (this) {
+                released = true;
+                boolean interrupted = false;
+                while (writing) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            cleanable.clean();
+        }
+    }
+
+    /**
+     * The temporary file shared by all cached DiskBooleans, one byte each, deleted when the JVM exits.
+     */
+    private static final class CachedFile {
+        private static final Cleaner CLEANER = Cleaner.create();
+        private static CachedFile shared;
+
+        private final FileChannel channel;
+        private final BitSet used = new BitSet();
+        // no byte below this one is free
+        private int hint;
+
+        private CachedFile(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        static synchronized CachedFile shared() throws IOException {
+            if (shared == null) {
+                shared = new CachedFile(FileChannel.open(Files.createTempFile("booleans", ".cached"),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE));
+            }
+
+            return shared;
+        }
+
+        synchronized int allocate() {
+            int ret = used.nextClearBit(hint);
+            used.set(ret);
+            hint = ret + 1;
+            return ret;
+        }
+
+        /**
+         * Frees the byte once the owner becomes unreachable, or when the returned cleanable is cleaned.
+         * A pending write keeps its owner reachable, so the byte is never freed under it.
+         */
+        Cleaner.Cleanable register(Object owner, int slot) {
+            return CLEANER.register(owner, () -> free(slot));
+        }
+
+        synchronized void free(int slot) {
+            used.clear(slot);
+            hint = Math.min(hint, slot);
         }
     }
 
@@ -0,0 +1,319 @@
+package bot.staro.booleans;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.Cleaner;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single memory-mapped file holding many disk booleans as bits, one slot each.
+ * Allocating a slot sets a bit of the free-slot bitmap, and every read or write of a value is
+ * a single atomic operation on the mapping, so a {@link DiskBoolean} costs no file, no file
+ * descriptor and no system call. Slots of DiskBooleans that become unreachable are returned to
+ * the bitmap by a {@link Cleaner}.
+ * <p>
+ * The file starts with a 4KB header (magic, version, region count), followed by regions of
+ * {@link #REGION_SLOTS} slots: first the allocation words of the region, then its value words,
+ * both little-endian like the payload of a {@link BigBoolean}. The file grows one region at a time.
+ * Values reach the disk whenever the operating system decides to; call {@link #force()} to be sure.
+ * A store file can be {@link #open(Path) opened} again later, with every slot allocated as it was left.
+ *
+ * @author St4ro.
+ */
+public final class DiskBooleanStore implements Closeable {
+    /**
+     * The number of slots every region of the file adds.
+     */
+    public static final int REGION_SLOTS = 1 << 18;
+    private static final int REGION_WORDS = REGION_SLOTS >>> 6;
+    private static final int REGION_SHIFT = 18;
+    private static final long REGION_BYTES = 16L * REGION_WORDS;
+    private static final int HEADER_BYTES = 4096;
+    private static final int MAX_REGIONS = Integer.MAX_VALUE / REGION_SLOTS;
+    private static final int MAGIC = 0x54534244; // "DBST"
+    private static final int VERSION = 1;
+    private static final VarHandle WORDS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final AtomicInteger allocated = new AtomicInteger();
+    private volatile MappedByteBuffer[] regions;
+    // the allocation word where the next search starts
+    private volatile int hint;
+
+    private DiskBooleanStore(FileChannel channel, Path path, boolean existing) throws IOException {
+        this.channel = channel;
+        if (existing && channel.size() < HEADER_BYTES) {
+            throw new IOException("Not a DiskBooleanStore file: " + path);
+        }
+
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        this.regions = new MappedByteBuffer[0];
+        if (!existing) {
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            grow(0);
+            return;
+        }
+
+        int count = header.getInt(8);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || count < 1 || count > MAX_REGIONS) {
+            throw new IOException("Not a DiskBooleanStore file: " + path);
+        }
+
+        if (channel.size() < HEADER_BYTES + count * REGION_BYTES) {
+            throw new IOException("Truncated DiskBooleanStore file: " + path);
+        }
+
+        MappedByteBuffer[] mapped = new MappedByteBuffer[count];
+        int taken = 0;
+        for (int r = 0; r < count; r++) {
+            mapped[r] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + r * REGION_BYTES, REGION_BYTES);
+            for (int offset = 0; offset < 8 * REGION_WORDS; offset += 8) {
+                taken += Long.bitCount((long) WORDS.get(mapped[r], offset));
+            }
+        }
+
+        this.regions = mapped;
+        allocated.set(taken);
+    }
+
+    /**
+     * Creates a new, empty store. An existing file at the path is replaced.
+     *
+     * @param path the file to create
+     * @return the store
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public static DiskBooleanStore create(Path path) throws IOException {
+        return open(path, false, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Opens an existing store. Every slot that was allocated when it was last used stays allocated,
+     * with its value, until it is {@link #free(int) freed}.
+     *
+     * @param path the file of the store
+     * @return the store
+     * @throws IOException if the file cannot be opened or mapped, or is not a store
+     */
+    public static DiskBooleanStore open(Path path) throws IOException {
+        return open(path, true);
+    }
+
+    /**
+     * Creates a new store in a temporary file, which is deleted when the store is closed or the JVM exits.
+     *
+     * @return the store
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public static DiskBooleanStore temporary() throws IOException {
+        return open(Files.createTempFile("booleans", ".store"), false, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * @return the temporary store that DiskBooleans created without a store share
+     */
+    public static DiskBooleanStore shared() {
+        return Shared.STORE;
+    }
+
+    private static DiskBooleanStore open(Path path, boolean existing, StandardOpenOption... options) throws IOException {
+        StandardOpenOption[] all = Arrays.copyOf(options, options.length + 2);
+        all[options.length] = StandardOpenOption.READ;
+        all[options.length + 1] = StandardOpenOption.WRITE;
+        FileChannel channel = FileChannel.open(path, all);
+        try {
+            return new DiskBooleanStore(channel, path, existing);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Allocates a free slot, growing the file by a region when every slot is taken.
+     * The value of a newly allocated slot is false.
+     *
+     * @return the slot
+     * @throws IllegalStateException if the store already holds Integer.MAX_VALUE slots
+     * @throws UncheckedIOException if the file cannot grow
+     */
+    public int allocate() {
+        while (true) {
+            MappedByteBuffer[] current = regions;
+            int words = current.length * REGION_WORDS;
+            int start = Math.min(hint, words - 1);
+            for (int n = 0; n < words; n++) {
+                int word = start + n < words ? start + n : start + n - words;
+                MappedByteBuffer region = current[word / REGION_WORDS];
+                int offset = (word % REGION_WORDS) * 8;
+                long bits = (long) WORDS.getVolatile(region, offset);
+                while (bits != -1L) {
+                    long bit = Long.lowestOneBit(~bits);
+                    long previous = (long) WORDS.getAndBitwiseOr(region, offset, bit);
+                    if ((previous & bit) == 0) {
+                        hint = word;
+                        allocated.incrementAndGet();
+                        return (word << 6) + Long.numberOfTrailingZeros(bit);
+                    }
+
+                    bits = previous | bit;
+                }
+            }
+
+            grow(current.length);
+        }
+    }
+
+    /**
+     * Returns a slot to the store. Its value is cleared, so the next owner of the slot starts with false.
+     *
+     * @param slot the slot to free
+     * @throws IndexOutOfBoundsException if the slot is outside of the store
+     * @throws IllegalStateException if the slot is not allocated
+     */
+    public void free(int slot) {
+        MappedByteBuffer region = region(slot);
+        int offset = offset(slot);
+        long bit = 1L << slot;
+        WORDS.getAndBitwiseAnd(region, offset + 8 * REGION_WORDS, ~bit);
+        if (((long) WORDS.getAndBitwiseAnd(region, offset, ~bit) & bit) == 0) {
+            throw new IllegalStateException("Slot " + slot + " is not allocated");
+        }
+
+        allocated.decrementAndGet();
+        if (slot >>> 6 < hint) {
+            hint = slot >>> 6;
+        }
+    }
+
+    /**
+     * @param slot the slot
+     * @return the value stored in the slot
+     * @throws IndexOutOfBoundsException if the slot is outside of the store
+     */
+    public boolean get(int slot) {
+        return ((long) WORDS.getVolatile(region(slot), offset(slot) + 8 * REGION_WORDS) & (1L << slot)) != 0;
+    }
+
+    /**
+     * Atomically sets the value stored in the slot.
+     *
+     * @param slot the slot
+     * @param value the new value
+     * @throws IndexOutOfBoundsException if the slot is outside of the store
+     */
+    public void set(int slot, boolean value) {
+        MappedByteBuffer region = region(slot);
+        int offset = offset(slot) + 8 * REGION_WORDS;
+        long bit = 1L << slot;
+        if (value) {
+            WORDS.getAndBitwiseOr(region, offset, bit);
+        } else {
+            WORDS.getAndBitwiseAnd(region, offset, ~bit);
+        }
+    }
+
+    /**
+     * @return the number of allocated slots
+     */
+    public int getAllocatedCount() {
+        return allocated.get();
+    }
+
+    /**
+     * @return the number of slots the file currently has room for
+     */
+    public int getCapacity() {
+        return regions.length * REGION_SLOTS;
+    }
+
+    /**
+     * Forces every value written so far to the device.
+     */
+    public void force() {
+        for (MappedByteBuffer region : regions) {
+            region.force();
+        }
+
+        header.force();
+    }
+
+    /**
+     * Forces and closes the store. DiskBooleans of the store must not be used after it was closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            force();
+            channel.close();
+        }
+    }
+
+    /**
+     * Frees the slot once the owner becomes unreachable, or when the returned cleanable is cleaned.
+     * The owner must only be reachable from its own fields, never from the slot.
+     */
+    Cleaner.Cleanable register(Object owner, int slot) {
+        return CLEANER.register(owner, () -> free(slot));
+    }
+
+    private synchronized void grow(int seen) {
+        if (regions.length != seen) {
+            return;
+        }
+
+        if (seen == MAX_REGIONS) {
+            throw new IllegalStateException("The store already holds " + getCapacity() + " slots");
+        }
+
+        try {
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + seen * REGION_BYTES, REGION_BYTES);
+            MappedByteBuffer[] next = Arrays.copyOf(regions, seen + 1);
+            next[seen] = region;
+            header.putInt(8, seen + 1);
+            regions = next;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not grow the store", e);
+        }
+    }
+
+    private MappedByteBuffer region(int slot) {
+        MappedByteBuffer[] current = regions;
+        if (slot < 0 || slot >>> REGION_SHIFT >= current.length) {
+            throw new IndexOutOfBoundsException("Index " + slot + " out of bounds for dimension " + current.length * REGION_SLOTS);
+        }
+
+        return current[slot >>> REGION_SHIFT];
+    }
+
+    private static int offset(int slot) {
+        return ((slot & (REGION_SLOTS - 1)) >>> 6) * 8;
+    }
+
+    private static final class Shared {
+        private static final DiskBooleanStore STORE;
+
+        static {
+            try {
+                STORE = temporary();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not create the shared DiskBoolean store", e);
+            }
+        }
+    }
+
+}
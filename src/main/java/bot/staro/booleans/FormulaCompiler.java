@@ -0,0 +1,572 @@
+package bot.staro.booleans;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Translates a {@link BooleanFormula} into the class file of a {@link CompiledFormula} subclass
+ * and defines it as a hidden class. Hidden classes are not registered with any class loader, so
+ * a compiled formula and its class can be unloaded as soon as the formula is no longer referenced.
+ * <p>
+ * The generated class has two methods: {@code test(boolean[])} computes the formula on ints and
+ * {@code evaluateWords} runs a loop whose body computes it on longs. Both evaluate the formula as a
+ * tree on the operand stack; a subformula used more than once is kept in a local variable after it
+ * was computed the first time. The class file is written by hand, as the JDK has no public class
+ * file API yet; the loop needs the only two stack map frames of the class.
+ *
+ * @author St4ro.
+ */
+final class FormulaCompiler {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final String NAME = "bot/staro/booleans/CompiledFormula$Bytecode";
+    private static final String SUPER = "bot/staro/booleans/CompiledFormula";
+    // below the 64KB method limit, and small enough that every branch fits a 16 bit offset
+    private static final int MAX_CODE = 32000;
+    // deeper formulas would need too deep a recursion to compile, and too large an operand stack to run
+    private static final int MAX_DEPTH = 1000;
+
+    private static final int ILOAD = 0x15, LLOAD = 0x16, ALOAD = 0x19, ISTORE = 0x36, LSTORE = 0x37, ASTORE = 0x3A;
+    private static final int ALOAD_0 = 0x2A, ALOAD_1 = 0x2B, ALOAD_2 = 0x2C;
+    private static final int ICONST_0 = 0x03, ICONST_1 = 0x04, LCONST_0 = 0x09, BIPUSH = 0x10, SIPUSH = 0x11;
+    private static final int LDC_W = 0x13, LDC2_W = 0x14;
+    private static final int LALOAD = 0x2F, AALOAD = 0x32, BALOAD = 0x33, LASTORE = 0x50;
+    private static final int DUP = 0x59, DUP2 = 0x5C;
+    private static final int IAND = 0x7E, LAND = 0x7F, IOR = 0x80, LOR = 0x81, IXOR = 0x82, LXOR = 0x83;
+    private static final int IINC = 0x84, IF_ICMPGE = 0xA2, GOTO = 0xA7, IRETURN = 0xAC, RETURN = 0xB1;
+    private static final int INVOKESPECIAL = 0xB7, WIDE = 0xC4;
+
+    private final Map<Object, Integer> constants = new HashMap<>();
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<BooleanFormula, Integer> uses = new HashMap<>();
+    private int poolCount = 1;
+
+    private FormulaCompiler() {
+    }
+
+    /**
+     * Compiles a formula into a new hidden class.
+     *
+     * @param formula the formula
+     * @return an instance of the hidden class, or null if the formula is too large for a JVM method
+     */
+    static CompiledFormula compile(BooleanFormula formula) {
+        FormulaCompiler compiler = new FormulaCompiler();
+        if (!compiler.count(formula)) {
+            return null;
+        }
+
+        byte[] bytes = compiler.classFile(formula);
+        if (bytes == null) {
+            return null;
+        }
+
+        try {
+            // without the STRONG option, the class lives exactly as long as something references it
+            MethodHandles.Lookup hidden = LOOKUP.defineHiddenClass(bytes, true);
+            return (CompiledFormula) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable t) {
+            throw new IllegalStateException("Could not define the class of " + formula, t);
+        }
+    }
+
+    /**
+     * Counts how often every distinct subformula is used, walking the formula iteratively.
+     *
+     * @return false if the formula is too deep to compile
+     */
+    private boolean count(BooleanFormula formula) {
+        Map<BooleanFormula, Integer> depths = new HashMap<>();
+        Deque<BooleanFormula> stack = new ArrayDeque<>();
+        stack.push(formula);
+        uses.put(formula, 1);
+        while (!stack.isEmpty()) {
+            BooleanFormula node = stack.peek();
+            if (depths.containsKey(node)) {
+                stack.pop();
+                continue;
+            }
+
+            boolean ready = true;
+            int depth = 0;
+            for (BooleanFormula operand : operands(node)) {
+                Integer known = depths.get(operand);
+                if (known == null) {
+                    stack.push(operand);
+                    ready = false;
+                } else {
+                    depth = Math.max(depth, known);
+                }
+            }
+
+            if (ready) {
+                stack.pop();
+                if (depth >= MAX_DEPTH) {
+                    return false;
+                }
+
+                depths.put(node, depth + 1);
+                for (BooleanFormula operand : operands(node)) {
+                    uses.merge(operand, 1, Integer::sum);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private byte[] classFile(BooleanFormula formula) {
+        int thisClass = classConstant(NAME);
+        int superClass = classConstant(SUPER);
+        int superInit = methodConstant(superClass, "<init>", "()V");
+
+        Method init = new Method(1);
+        init.op(ALOAD_0);
+        init.push(1);
+        init.op(INVOKESPECIAL);
+        init.u2(superInit);
+        init.pop(1);
+        init.op(RETURN);
+
+        Method test = testMethod(formula);
+        Method words = wordsMethod(formula, thisClass);
+        if (test == null || words == null) {
+            return null;
+        }
+
+        int[] names = {utf8("<init>"), utf8("test"), utf8("evaluateWords")};
+        int[] descriptors = {utf8("()V"), utf8("([Z)Z"), utf8("([[J[JII)V")};
+        int code = utf8("Code");
+        int stackMapTable = utf8("StackMapTable");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(61);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(0x0031); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            Method[] methods = {init, test, words};
+            out.writeShort(methods.length);
+            for (int m = 0; m < methods.length; m++) {
+                methods[m].write(out, names[m], descriptors[m], code, stackMapTable);
+            }
+
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * {@code public boolean test(boolean[] assignment)}: the formula computed on ints, where true is 1.
+     */
+    private Method testMethod(BooleanFormula formula) {
+        Method m = new Method(2);
+        emitScalar(m, formula, new HashMap<>());
+        m.op(IRETURN);
+        return m.size() > MAX_CODE ? null : m;
+    }
+
+    private void emitScalar(Method m, BooleanFormula node, Map<BooleanFormula, Integer> saved) {
+        Integer slot = saved.get(node);
+        if (slot != null) {
+            m.local(ILOAD, slot);
+            m.push(1);
+            return;
+        }
+
+        if (node instanceof BooleanFormula.Variable variable) {
+            m.op(ALOAD_1);
+            m.push(1);
+            pushInt(m, variable.index);
+            m.op(BALOAD);
+            m.pop(1);
+        } else if (node instanceof BooleanFormula.Constant constant) {
+            m.op(constant.value ? ICONST_1 : ICONST_0);
+            m.push(1);
+        } else if (node instanceof BooleanFormula.Not not) {
+            emitScalar(m, not.operand, saved);
+            flipInt(m);
+        } else {
+            BooleanFormula.Binary binary = (BooleanFormula.Binary) node;
+            emitScalar(m, binary.left, saved);
+            if (binary.op == BitOperator.IMPLIES) {
+                flipInt(m);
+            }
+
+            emitScalar(m, binary.right, saved);
+            if (binary.op == BitOperator.AND_NOT) {
+                flipInt(m);
+            }
+
+            m.op(switch (binary.op) {
+                case AND, AND_NOT, NAND -> IAND;
+                case OR, NOR, IMPLIES -> IOR;
+                case XOR, EQUIVALENCE -> IXOR;
+            });
+            m.pop(1);
+            if (binary.op == BitOperator.NAND || binary.op == BitOperator.NOR || binary.op == BitOperator.EQUIVALENCE) {
+                flipInt(m);
+            }
+        }
+
+        if (uses.get(node) > 1) {
+            int local = m.allocate(1);
+            m.op(DUP);
+            m.push(1);
+            m.local(ISTORE, local);
+            m.pop(1);
+            saved.put(node, local);
+        }
+    }
+
+    /**
+     * {@code public void evaluateWords(long[][] columns, long[] out, int from, int to)}: the columns
+     * of the used variables are loaded into locals once, then {@code from} counts up to {@code to}.
+     */
+    private Method wordsMethod(BooleanFormula formula, int thisClass) {
+        Method m = new Method(5);
+        Map<Integer, Integer> columns = new TreeMap<>();
+        for (BooleanFormula node : uses.keySet()) {
+            if (node instanceof BooleanFormula.Variable variable) {
+                columns.put(variable.index, -1);
+            }
+        }
+
+        for (Map.Entry<Integer, Integer> column : columns.entrySet()) {
+            int local = m.allocate(1);
+            column.setValue(local);
+            m.op(ALOAD_1);
+            m.push(1);
+            pushInt(m, column.getKey());
+            m.op(AALOAD);
+            m.pop(1);
+            m.local(ASTORE, local);
+            m.pop(1);
+        }
+
+        int loop = m.size();
+        m.local(ILOAD, 3);
+        m.local(ILOAD, 4);
+        m.push(2);
+        int exit = m.size();
+        m.op(IF_ICMPGE);
+        m.u2(0);
+        m.pop(2);
+
+        m.op(ALOAD_2);
+        m.local(ILOAD, 3);
+        m.push(2);
+        emitWords(m, formula, columns, new HashMap<>());
+        m.op(LASTORE);
+        m.pop(4);
+        m.op(WIDE);
+        m.op(IINC);
+        m.u2(3);
+        m.u2(1);
+        m.op(GOTO);
+        m.u2(loop - (m.size() - 1));
+        int end = m.size();
+        m.op(RETURN);
+        if (m.size() > MAX_CODE) {
+            return null;
+        }
+
+        m.patch(exit + 1, end - exit);
+        int longs = classConstant("[J");
+        int columnsClass = classConstant("[[J");
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(frames)) {
+            out.writeShort(2);
+            // full_frame at the loop condition: this, the parameters and the loaded columns
+            out.writeByte(255);
+            out.writeShort(loop);
+            out.writeShort(5 + columns.size());
+            out.writeByte(7);
+            out.writeShort(thisClass);
+            out.writeByte(7);
+            out.writeShort(columnsClass);
+            out.writeByte(7);
+            out.writeShort(longs);
+            out.writeByte(1);
+            out.writeByte(1);
+            for (int i = 0; i < columns.size(); i++) {
+                out.writeByte(7);
+                out.writeShort(longs);
+            }
+
+            out.writeShort(0);
+            // same_frame_extended at the return
+            out.writeByte(251);
+            out.writeShort(end - loop - 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        m.frames = frames.toByteArray();
+        return m;
+    }
+
+    private void emitWords(Method m, BooleanFormula node, Map<Integer, Integer> columns, Map<BooleanFormula, Integer> saved) {
+        Integer slot = saved.get(node);
+        if (slot != null) {
+            m.local(LLOAD, slot);
+            m.push(2);
+            return;
+        }
+
+        if (node instanceof BooleanFormula.Variable variable) {
+            m.local(ALOAD, columns.get(variable.index));
+            m.local(ILOAD, 3);
+            m.push(2);
+            m.op(LALOAD);
+        } else if (node instanceof BooleanFormula.Constant constant) {
+            if (constant.value) {
+                ones(m);
+            } else {
+                m.op(LCONST_0);
+                m.push(2);
+            }
+        } else if (node instanceof BooleanFormula.Not not) {
+            emitWords(m, not.operand, columns, saved);
+            flipLong(m);
+        } else {
+            BooleanFormula.Binary binary = (BooleanFormula.Binary) node;
+            emitWords(m, binary.left, columns, saved);
+            if (binary.op == BitOperator.IMPLIES) {
+                flipLong(m);
+            }
+
+            emitWords(m, binary.right, columns, saved);
+            if (binary.op == BitOperator.AND_NOT) {
+                flipLong(m);
+            }
+
+            m.op(switch (binary.op) {
+                case AND, AND_NOT, NAND -> LAND;
+                case OR, NOR, IMPLIES -> LOR;
+                case XOR, EQUIVALENCE -> LXOR;
+            });
+            m.pop(2);
+            if (binary.op == BitOperator.NAND || binary.op == BitOperator.NOR || binary.op == BitOperator.EQUIVALENCE) {
+                flipLong(m);
+            }
+        }
+
+        if (uses.get(node) > 1) {
+            int local = m.allocate(2);
+            m.op(DUP2);
+            m.push(2);
+            m.local(LSTORE, local);
+            m.pop(2);
+            saved.put(node, local);
+        }
+    }
+
+    private void flipInt(Method m) {
+        m.op(ICONST_1);
+        m.push(1);
+        m.op(IXOR);
+        m.pop(1);
+    }
+
+    private void flipLong(Method m) {
+        ones(m);
+        m.op(LXOR);
+        m.pop(2);
+    }
+
+    private void ones(Method m) {
+        m.op(LDC2_W);
+        m.u2(longConstant(-1L));
+        m.push(2);
+    }
+
+    private void pushInt(Method m, int value) {
+        if (value <= 5) {
+            m.op(ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            m.op(BIPUSH);
+            m.op(value);
+        } else if (value <= Short.MAX_VALUE) {
+            m.op(SIPUSH);
+            m.u2(value);
+        } else {
+            m.op(LDC_W);
+            m.u2(intConstant(value));
+        }
+
+        m.push(1);
+    }
+
+    private int utf8(String value) {
+        return constant("Utf8 " + value, 1, out -> out.writeUTF(value));
+    }
+
+    private int classConstant(String name) {
+        int utf8 = utf8(name);
+        return constant("Class " + name, 7, out -> out.writeShort(utf8));
+    }
+
+    private int methodConstant(int owner, String name, String descriptor) {
+        int utf8Name = utf8(name);
+        int utf8Descriptor = utf8(descriptor);
+        int nameAndType = constant("NameAndType " + name + descriptor, 12, out -> {
+            out.writeShort(utf8Name);
+            out.writeShort(utf8Descriptor);
+        });
+        return constant("Methodref " + owner + "." + name + descriptor, 10, out -> {
+            out.writeShort(owner);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private int intConstant(int value) {
+        return constant(value, 3, out -> out.writeInt(value));
+    }
+
+    private int longConstant(long value) {
+        boolean added = !constants.containsKey(value);
+        int ret = constant(value, 5, out -> out.writeLong(value));
+        if (added) {
+            // a long takes up two entries of the constant pool
+            poolCount++;
+        }
+
+        return ret;
+    }
+
+    private int constant(Object key, int tag, PoolWriter writer) {
+        Integer known = constants.get(key);
+        if (known != null) {
+            return known;
+        }
+
+        try {
+            poolOut.writeByte(tag);
+            writer.write(poolOut);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        constants.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private static BooleanFormula[] operands(BooleanFormula node) {
+        if (node instanceof BooleanFormula.Not not) {
+            return new BooleanFormula[]{not.operand};
+        }
+
+        if (node instanceof BooleanFormula.Binary binary) {
+            return new BooleanFormula[]{binary.left, binary.right};
+        }
+
+        return new BooleanFormula[0];
+    }
+
+    private interface PoolWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * The code of one method, tracking the depth of the operand stack and the local slots in use.
+     */
+    private static final class Method {
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private int locals;
+        private int stack;
+        private int maxStack;
+        private byte[] frames;
+
+        Method(int parameterSlots) {
+            this.locals = parameterSlots;
+        }
+
+        void op(int opcode) {
+            code.write(opcode);
+        }
+
+        void u2(int value) {
+            code.write(value >>> 8);
+            code.write(value);
+        }
+
+        void local(int opcode, int index) {
+            if (index > 255) {
+                op(WIDE);
+                op(opcode);
+                u2(index);
+            } else {
+                op(opcode);
+                op(index);
+            }
+        }
+
+        void push(int slots) {
+            stack += slots;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        void pop(int slots) {
+            stack -= slots;
+        }
+
+        int allocate(int slots) {
+            int ret = locals;
+            locals += slots;
+            return ret;
+        }
+
+        int size() {
+            return code.size();
+        }
+
+        void patch(int offset, int value) {
+            byte[] bytes = code.toByteArray();
+            bytes[offset] = (byte) (value >>> 8);
+            bytes[offset + 1] = (byte) value;
+            code.reset();
+            code.writeBytes(bytes);
+        }
+
+        void write(DataOutputStream out, int name, int descriptor, int codeName, int stackMapTableName) throws IOException {
+            out.writeShort(0x0001); // public
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + code.size() + (frames == null ? 0 : 6 + frames.length));
+            out.writeShort(maxStack);
+            out.writeShort(locals);
+            out.writeInt(code.size());
+            code.writeTo(out);
+            out.writeShort(0); // exception table
+            if (frames == null) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(1);
+                out.writeShort(stackMapTableName);
+                out.writeInt(frames.length);
+                out.write(frames);
+            }
+        }
+    }
+
+}
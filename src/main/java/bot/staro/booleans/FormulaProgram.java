@@ -0,0 +1,353 @@
+package bot.staro.booleans;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * A {@link BooleanFormula} compiled into a flat list of instructions over registers.
+ * Every register holds a block of {@link #BLOCK_WORDS} words, so every instruction evaluates the
+ * formula step for 64 * BLOCK_WORDS assignments at once with the {@link BitKernels} loops, and
+ * the interpreter overhead is paid once per block instead of once per assignment.
+ * <p>
+ * Equal subformulas are compiled once, and a register is reused as soon as the last instruction
+ * reading it has run, so the register file of a block stays in the L1 cache for most formulas.
+ * The program is immutable and can be run by several threads at once; every run allocates its own registers.
+ *
+ * @author St4ro.
+ */
+public final class FormulaProgram {
+    static final int BLOCK_WORDS = 256;
+    // words per task of the parallel evaluation
+    private static final int CHUNK_WORDS = 32 * BLOCK_WORDS;
+    // bit patterns of the first 6 variables of a truth table, where assignment i sets variable v to bit v of i
+    private static final long[] PATTERNS = {
+            0xAAAAAAAAAAAAAAAAL, 0xCCCCCCCCCCCCCCCCL, 0xF0F0F0F0F0F0F0F0L,
+            0xFF00FF00FF00FF00L, 0xFFFF0000FFFF0000L, 0xFFFFFFFF00000000L
+    };
+
+    private static final int LOAD = 0;
+    private static final int ZERO = 1;
+    private static final int ONE = 2;
+    private static final int NOT = 3;
+    private static final int OPERATOR = 4;
+    private static final BitOperator[] OPERATORS = BitOperator.values();
+
+    // four ints per instruction: opcode, destination register, first operand, second operand
+    private final int[] code;
+    private final int registers;
+    private final int result;
+    private final int variableCount;
+
+    private FormulaProgram(int[] code, int registers, int result, int variableCount) {
+        this.code = code;
+        this.registers = registers;
+        this.result = result;
+        this.variableCount = variableCount;
+    }
+
+    /**
+     * Compiles a formula. The formula is walked iteratively, so even very deep formulas compile.
+     *
+     * @param formula the formula
+     * @return the compiled program
+     */
+    public static FormulaProgram compile(BooleanFormula formula) {
+        // intern every distinct subformula in post-order, so operands always come first
+        Map<BooleanFormula, Integer> ids = new HashMap<>();
+        List<BooleanFormula> nodes = new ArrayList<>();
+        Deque<BooleanFormula> stack = new ArrayDeque<>();
+        stack.push(formula);
+        while (!stack.isEmpty()) {
+            BooleanFormula node = stack.peek();
+            if (ids.containsKey(node)) {
+                stack.pop();
+                continue;
+            }
+
+            boolean ready = true;
+            for (BooleanFormula operand : operands(node)) {
+                if (!ids.containsKey(operand)) {
+                    stack.push(operand);
+                    ready = false;
+                }
+            }
+
+            if (ready) {
+                stack.pop();
+                ids.put(node, nodes.size());
+                nodes.add(node);
+            }
+        }
+
+        int[] lastUse = new int[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            for (BooleanFormula operand : operands(nodes.get(i))) {
+                lastUse[ids.get(operand)] = i;
+            }
+        }
+
+        lastUse[nodes.size() - 1] = Integer.MAX_VALUE;
+        int[] code = new int[4 * nodes.size()];
+        int[] registerOf = new int[nodes.size()];
+        Deque<Integer> free = new ArrayDeque<>();
+        int registers = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            BooleanFormula node = nodes.get(i);
+            int a = -1;
+            int b = -1;
+            int opcode;
+            if (node instanceof BooleanFormula.Variable variable) {
+                opcode = LOAD;
+                a = variable.index;
+            } else if (node instanceof BooleanFormula.Constant constant) {
+                opcode = constant.value ? ONE : ZERO;
+            } else if (node instanceof BooleanFormula.Not not) {
+                opcode = NOT;
+                a = registerOf[ids.get(not.operand)];
+            } else {
+                BooleanFormula.Binary binary = (BooleanFormula.Binary) node;
+                opcode = OPERATOR + binary.op.ordinal();
+                a = registerOf[ids.get(binary.left)];
+                b = registerOf[ids.get(binary.right)];
+            }
+
+            // operands read for the last time free their registers, which the result may reuse at once
+            int previous = -1;
+            for (BooleanFormula operand : operands(node)) {
+                int id = ids.get(operand);
+                if (lastUse[id] == i && id != previous) {
+                    free.push(registerOf[id]);
+                }
+
+                previous = id;
+            }
+
+            int dst = free.isEmpty() ? registers++ : free.pop();
+            registerOf[i] = dst;
+            code[4 * i] = opcode;
+            code[4 * i + 1] = dst;
+            code[4 * i + 2] = a;
+            code[4 * i + 3] = b;
+        }
+
+        return new FormulaProgram(code, registers, registerOf[nodes.size() - 1], formula.getVariableCount());
+    }
+
+    /**
+     * @return the number of input columns the program needs
+     */
+    public int getVariableCount() {
+        return variableCount;
+    }
+
+    /**
+     * @return the number of instructions of the program
+     */
+    public int getInstructionCount() {
+        return code.length / 4;
+    }
+
+    /**
+     * @return the number of block registers a run of the program needs
+     */
+    public int getRegisterCount() {
+        return registers;
+    }
+
+    /**
+     * Evaluates the formula for every row of the input columns: row i assigns
+     * {@code inputs[v].getValue(i)} to variable v.
+     *
+     * @param inputs one column per variable, all of the same dimension
+     * @return a new BigBoolean holding the value of the formula for every row
+     * @throws IllegalArgumentException if there are fewer columns than variables
+     * @throws AssertionError if the dimensions of the columns are not equal
+     */
+    public BigBoolean evaluate(BigBoolean... inputs) {
+        return evaluateInto(new BigBoolean(dimensionOf(inputs)), inputs);
+    }
+
+    /**
+     * Evaluates the formula for every row of the input columns into an existing BigBoolean.
+     *
+     * @param dest the BigBoolean receiving the results
+     * @param inputs one column per variable, all of the dimension of dest
+     * @return dest
+     * @throws IllegalArgumentException if there are fewer columns than variables
+     * @throws AssertionError if the dimensions are not equal
+     */
+    public BigBoolean evaluateInto(BigBoolean dest, BigBoolean... inputs) {
+        long[][] columns = columns(dest, inputs);
+        long[] out = dest.words();
+        run(columns, out, 0, out.length, new long[registers][BLOCK_WORDS]);
+        dest.invalidate();
+        dest.maskPadding();
+        return dest;
+    }
+
+    /**
+     * Like {@link #evaluate}, with word ranges of the columns evaluated in parallel on the common pool.
+     *
+     * @param inputs one column per variable, all of the same dimension
+     * @return a new BigBoolean holding the value of the formula for every row
+     * @throws IllegalArgumentException if there are fewer columns than variables
+     * @throws AssertionError if the dimensions of the columns are not equal
+     */
+    public BigBoolean parallelEvaluate(BigBoolean... inputs) {
+        BigBoolean dest = new BigBoolean(dimensionOf(inputs));
+        long[][] columns = columns(dest, inputs);
+        long[] out = dest.words();
+        IntStream.range(0, (out.length + CHUNK_WORDS - 1) / CHUNK_WORDS).parallel().forEach(chunk -> {
+            int from = chunk * CHUNK_WORDS;
+            run(columns, out, from, Math.min(out.length, from + CHUNK_WORDS), new long[registers][BLOCK_WORDS]);
+        });
+
+        dest.maskPadding();
+        return dest;
+    }
+
+    /**
+     * Evaluates the formula for all 2^n assignments of its n variables, where assignment i
+     * sets variable v to bit v of i. The input columns are generated on the fly.
+     *
+     * @return the truth table, a new BigBoolean of dimension 2^n
+     * @throws IllegalStateException if the formula has more than 30 variables
+     */
+    public BigBoolean truthTable() {
+        if (variableCount > 30) {
+            throw new IllegalStateException("A truth table of " + variableCount + " variables does not fit into a BigBoolean");
+        }
+
+        BigBoolean dest = new BigBoolean(1 << variableCount);
+        long[] out = dest.words();
+        run(null, out, 0, out.length, new long[registers][BLOCK_WORDS]);
+        dest.maskPadding();
+        return dest;
+    }
+
+    /**
+     * Runs the program over the words {@code [from, to)} of the columns with registers of its own.
+     */
+    void evaluateWords(long[][] columns, long[] out, int from, int to) {
+        run(columns, out, from, to, new long[registers][BLOCK_WORDS]);
+    }
+
+    /**
+     * Evaluates the program for a single assignment, with registers of one word.
+     *
+     * @throws IndexOutOfBoundsException if the assignment has fewer values than the formula has variables
+     */
+    boolean test(boolean[] assignment) {
+        long[][] columns = new long[variableCount][];
+        for (int v = 0; v < variableCount; v++) {
+            columns[v] = new long[]{assignment[v] ? -1L : 0};
+        }
+
+        long[] out = new long[1];
+        run(columns, out, 0, 1, new long[registers][1]);
+        return (out[0] & 1) != 0;
+    }
+
+    /**
+     * Runs the program over the words {@code [from, to)}, one block at a time.
+     * Without columns, the variables are the truth table patterns.
+     */
+    private void run(long[][] columns, long[] out, int from, int to, long[][] file) {
+        for (int start = from; start < to; start += BLOCK_WORDS) {
+            int length = Math.min(BLOCK_WORDS, to - start);
+            for (int pc = 0; pc < code.length; pc += 4) {
+                long[] dst = file[code[pc + 1]];
+                switch (code[pc]) {
+                    case LOAD -> {
+                        if (columns != null) {
+                            System.arraycopy(columns[code[pc + 2]], start, dst, 0, length);
+                        } else {
+                            pattern(code[pc + 2], start, dst, length);
+                        }
+                    }
+                    case ZERO -> Arrays.fill(dst, 0, length, 0L);
+                    case ONE -> Arrays.fill(dst, 0, length, -1L);
+                    case NOT -> BitKernels.complement(file[code[pc + 2]], dst, 0, length);
+                    default -> BitKernels.apply(OPERATORS[code[pc] - OPERATOR], file[code[pc + 2]], file[code[pc + 3]], dst, 0, length);
+                }
+            }
+
+            System.arraycopy(file[result], 0, out, start, length);
+        }
+    }
+
+    private static void pattern(int variable, int start, long[] dst, int length) {
+        if (variable < PATTERNS.length) {
+            Arrays.fill(dst, 0, length, PATTERNS[variable]);
+            return;
+        }
+
+        // from variable 6 on, a variable is constant within a word: bit (v - 6) of the word index
+        for (int i = 0; i < length; i++) {
+            dst[i] = -((long) ((start + i) >>> (variable - 6)) & 1);
+        }
+    }
+
+    private long[][] columns(BigBoolean dest, BigBoolean[] inputs) {
+        if (inputs.length < variableCount) {
+            throw new IllegalArgumentException("Expected " + variableCount + " input columns, got " + inputs.length);
+        }
+
+        long[][] columns = new long[inputs.length][];
+        for (int v = 0; v < inputs.length; v++) {
+            if (inputs[v].getDimension() != dest.getDimension()) {
+                throw new AssertionError("a.dimension != b.dimension");
+            }
+
+            columns[v] = inputs[v].words();
+        }
+
+        return columns;
+    }
+
+    private int dimensionOf(BigBoolean[] inputs) {
+        if (inputs.length < Math.max(1, variableCount)) {
+            throw new IllegalArgumentException("Expected " + Math.max(1, variableCount) + " input columns, got " + inputs.length);
+        }
+
+        return inputs[0].getDimension();
+    }
+
+    static BooleanFormula[] operands(BooleanFormula node) {
+        if (node instanceof BooleanFormula.Not not) {
+            return new BooleanFormula[]{not.operand};
+        }
+
+        if (node instanceof BooleanFormula.Binary binary) {
+            return new BooleanFormula[]{binary.left, binary.right};
+        }
+
+        return new BooleanFormula[0];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int pc = 0; pc < code.length; pc += 4) {
+            builder.append('r').append(code[pc + 1]).append(" = ");
+            switch (code[pc]) {
+                case LOAD -> builder.append('x').append(code[pc + 2]);
+                case ZERO -> builder.append('0');
+                case ONE -> builder.append('1');
+                case NOT -> builder.append("NOT r").append(code[pc + 2]);
+                default -> builder.append(OPERATORS[code[pc] - OPERATOR]).append(" r").append(code[pc + 2]).append(" r").append(code[pc + 3]);
+            }
+
+            builder.append('\n');
+        }
+
+        return builder.toString();
+    }
+
+}
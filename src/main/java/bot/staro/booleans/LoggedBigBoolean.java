@@ -0,0 +1,424 @@
+package bot.staro.booleans;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32C;
+
+/**
+ * A bit vector that survives crashes, backed by an append-only write-ahead log in a directory of its own.
+ * The values live in memory; every change appends a 12 byte record to the current log file, and the
+ * records are written behind in batches by the {@link WriteBehind} writer with the {@link DiskBoolean.Durability}
+ * chosen when opening, so {@link DiskBoolean.Durability#SYNC SYNC} writers share their forces (group commit).
+ * Nothing is ever overwritten in place, so a crash can lose at most the writes that were not yet forced.
+ * <p>
+ * A record is the CRC32C of the log generation and the rest of the record, the index, and the value:
+ * <pre>
+ * 0 int crc32c
+ * 4 int index
+ * 8 int value, 1 or 0
+ * </pre>
+ * Once the current log grows past the checkpoint size, the writer forces it, starts the log of the next
+ * generation and stores a snapshot of all values as {@code checkpoint} (a {@link BigBooleanCodec} payload behind a
+ * 12 byte header), atomically replacing the previous one; then the older logs are deleted. Opening loads the
+ * checkpoint and replays the logs from its generation on, and stops at the first record that fails its checksum,
+ * so a record torn by a crash and everything after it are ignored. Recovery reads at most one checkpoint and about
+ * the checkpoint size of records.
+ *
+ * @author St4ro.
+ */
+public final class LoggedBigBoolean implements Closeable {
+    /**
+     * The log size after which a checkpoint is taken, unless another one is given when opening.
+     */
+    public static final long DEFAULT_CHECKPOINT_BYTES = 16L << 20;
+    private static final int RECORD_BYTES = 12;
+    private static final int HEADER_BYTES = 12;
+    private static final int MAGIC = 0x4B435742; // "BWCK"
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String LOG = "log.";
+    private static final int READ_BYTES = RECORD_BYTES << 12;
+
+    private final Path directory;
+    private final BigBoolean values;
+    private final long checkpointBytes;
+    private final Log log;
+    // guarded by this: the records not yet handed to the writer, and the log they go to
+    private ByteBuffer pending = records(1024);
+    private FileChannel channel;
+    private int generation;
+    private boolean checkpointRequested;
+    private boolean closed;
+    // only used by the writer thread
+    private ByteBuffer spare = records(1024);
+    private long logBytes;
+
+    private LoggedBigBoolean(Path directory, BigBoolean values, int generation, long checkpointBytes, DiskBoolean.Durability durability) {
+        this.directory = directory;
+        this.values = values;
+        this.generation = generation;
+        this.checkpointBytes = checkpointBytes;
+        this.log = new Log(durability);
+    }
+
+    /**
+     * Opens the log in a directory, with a checkpoint every {@link #DEFAULT_CHECKPOINT_BYTES} bytes of log.
+     *
+     * @see #open(Path, int, DiskBoolean.Durability, long)
+     */
+    public static LoggedBigBoolean open(Path directory, int dimension, DiskBoolean.Durability durability) throws IOException {
+        return open(directory, dimension, durability, DEFAULT_CHECKPOINT_BYTES);
+    }
+
+    /**
+     * Opens the log in a directory, recovering every value whose record reached the disk intact.
+     * A missing or empty directory starts with every value false.
+     *
+     * @param directory the directory of the log, used by nothing else
+     * @param dimension the number of boolean values
+     * @param durability when appended records are forced to the device
+     * @param checkpointBytes the log size after which a checkpoint is taken
+     * @return the recovered vector
+     * @throws IOException if the directory cannot be read or written, or holds a vector of another dimension
+     */
+    public static LoggedBigBoolean open(Path directory, int dimension, DiskBoolean.Durability durability, long checkpointBytes) throws IOException {
+        if (dimension < 0) {
+            throw new IllegalArgumentException("dimension < 0");
+        }
+
+        Files.createDirectories(directory);
+        BigBoolean values = new BigBoolean(dimension);
+        int generation = 0;
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        if (Files.exists(checkpoint)) {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(checkpoint)).order(ByteOrder.LITTLE_ENDIAN);
+            if (in.remaining() < HEADER_BYTES || in.getInt(0) != MAGIC) {
+                throw new IOException("Not a checkpoint: " + checkpoint);
+            }
+
+            generation = in.getInt(4);
+            if (in.getInt(8) != dimension) {
+                throw new IOException("The log in " + directory + " holds " + in.getInt(8) + " values, not " + dimension);
+            }
+
+            try {
+                values.copyFrom(BigBooleanCodec.decode(in.position(HEADER_BYTES)));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt checkpoint: " + checkpoint, e);
+            }
+        }
+
+        int last = generation;
+        while (Files.exists(log(directory, last)) && replay(log(directory, last), last, values)) {
+            last++;
+        }
+
+        // the recovered values become the first checkpoint, which also drops a torn tail and anything after it
+        LoggedBigBoolean ret = new LoggedBigBoolean(directory, values, Math.max(last, maxGeneration(directory)) + 1, checkpointBytes, durability);
+        synchronized (ret) {
+            ret.channel = ret.openLog(ret.generation);
+        }
+
+        ret.writeCheckpoint(values, ret.generation);
+        return ret;
+    }
+
+    /**
+     * @param index the index of the value, from 0 to dimension - 1
+     * @return the value at the index
+     * @throws IndexOutOfBoundsException if the index is outside of this LoggedBigBoolean
+     */
+    public synchronized boolean getValue(int index) {
+        return values.getValue(index);
+    }
+
+    /**
+     * Sets the value at the specified index and logs the change. Returns when the record is queued,
+     * or with {@link DiskBoolean.Durability#SYNC}, when it is forced.
+     *
+     * @param index the index of the value, from 0 to dimension - 1
+     * @param value the new value
+     * @throws IndexOutOfBoundsException if the index is outside of this LoggedBigBoolean
+     * @throws IOException if an earlier write to the log failed, or the log is closed
+     */
+    public void setValue(int index, boolean value) throws IOException {
+        append(index, value);
+        log.changed();
+    }
+
+    /**
+     * Sets the value at the specified index and logs the change, without ever waiting for the disk.
+     *
+     * @param index the index of the value, from 0 to dimension - 1
+     * @param value the new value
+     * @return a future completed once the record is forced with {@link DiskBoolean.Durability#SYNC},
+     * at once otherwise, or failed if the log is closed or a write to it failed
+     * @throws IndexOutOfBoundsException if the index is outside of this LoggedBigBoolean
+     */
+    public CompletableFuture<Void> setValueAsync(int index, boolean value) {
+        try {
+            append(index, value);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return log.changedAsync();
+    }
+
+    private void append(int index, boolean value) throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("The log is closed");
+            }
+
+            values.setValue(index, value);
+            if (pending.remaining() < RECORD_BYTES) {
+                pending = records(2 * pending.capacity()).put(pending.flip());
+            }
+
+            int position = pending.position();
+            pending.putInt(0).putInt(index).putInt(value ? 1 : 0);
+            pending.putInt(position, checksum(new CRC32C(), generation, pending.array(), position));
+        }
+    }
+
+    /**
+     * @return the number of boolean values
+     */
+    public int getDimension() {
+        return values.getDimension();
+    }
+
+    /**
+     * @return a copy of all values
+     */
+    public synchronized BigBoolean toBigBoolean() {
+        return new BigBoolean(values.getDimension()).copyFrom(values);
+    }
+
+    /**
+     * Blocks until every change made so far is written and forced, whatever the durability.
+     */
+    public void flush() throws IOException {
+        log.flush();
+    }
+
+    /**
+     * Takes a checkpoint now and blocks until it is stored, so the next recovery replays no records at all.
+     */
+    public void checkpoint() throws IOException {
+        synchronized (this) {
+            checkpointRequested = true;
+        }
+
+        // queue a batch even if nothing changed, as only a batch runs the checkpoint
+        log.changed();
+        log.flush();
+    }
+
+    /**
+     * Flushes the log and closes it. The directory can be opened again.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+        }
+
+        try {
+            log.flush();
+        } finally {
+            synchronized (this) {
+                channel.close();
+            }
+        }
+    }
+
+    private final class Log extends WriteBehind.Target {
+        Log(DiskBoolean.Durability durability) {
+            super(durability);
+        }
+
+        @Override
+        void write() throws IOException {
+            ByteBuffer batch;
+            FileChannel out;
+            boolean checkpoint;
+            synchronized (LoggedBigBoolean.this) {
+                batch = pending.flip();
+                pending = spare.clear();
+                spare = batch;
+                out = channel;
+                checkpoint = checkpointRequested;
+            }
+
+            logBytes += batch.remaining();
+            while (batch.hasRemaining()) {
+                out.write(batch);
+            }
+
+            if (checkpoint || logBytes >= checkpointBytes) {
+                rollOver(out);
+            }
+        }
+
+        @Override
+        void force() throws IOException {
+            FileChannel out;
+            synchronized (LoggedBigBoolean.this) {
+                out = channel;
+            }
+
+            out.force(false);
+        }
+    }
+
+    /**
+     * Starts the next log generation and stores the values as its checkpoint. The old log is forced first:
+     * until the checkpoint replaces the old one, recovery needs every record of it before the new log.
+     */
+    private void rollOver(FileChannel old) throws IOException {
+        old.force(false);
+        BigBoolean snapshot;
+        int next;
+        synchronized (this) {
+            next = generation + 1;
+            channel = openLog(next);
+            generation = next;
+            checkpointRequested = false;
+            // records still pending carry the old generation; the snapshot holds their changes anyway
+            pending.clear();
+            snapshot = new BigBoolean(values.getDimension()).copyFrom(values);
+        }
+
+        old.close();
+        logBytes = 0;
+        writeCheckpoint(snapshot, next);
+    }
+
+    private void writeCheckpoint(BigBoolean snapshot, int checkpointGeneration) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + BigBooleanCodec.encodedSize(snapshot)).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC).putInt(checkpointGeneration).putInt(snapshot.getDimension());
+        BigBooleanCodec.encode(snapshot, out);
+        Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            out.flip();
+            while (out.hasRemaining()) {
+                file.write(out);
+            }
+
+            file.force(true);
+        }
+
+        Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, LOG + "*")) {
+            for (Path file : files) {
+                int fileGeneration = generationOf(file);
+                if (fileGeneration >= 0 && fileGeneration < checkpointGeneration) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private FileChannel openLog(int logGeneration) throws IOException {
+        FileChannel ret = FileChannel.open(log(directory, logGeneration), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        forceDirectory();
+        return ret;
+    }
+
+    /**
+     * Makes renames and new files in the directory durable, where the platform allows opening a directory.
+     */
+    private void forceDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // not supported on every platform, where the rename itself has to be enough
+        }
+    }
+
+    /**
+     * Applies the records of one log to the values.
+     *
+     * @return true if the log ended cleanly, false if it ended with a torn or corrupt record
+     */
+    private static boolean replay(Path file, int logGeneration, BigBoolean values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32C crc = new CRC32C();
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (true) {
+                int read = in.read(buffer);
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_BYTES) {
+                    int position = buffer.position();
+                    int checksum = buffer.getInt();
+                    int index = buffer.getInt();
+                    int value = buffer.getInt();
+                    if (checksum(crc, logGeneration, buffer.array(), position) != checksum || index < 0 || index >= values.getDimension() || (value & ~1) != 0) {
+                        return false;
+                    }
+
+                    values.setValue(index, value != 0);
+                }
+
+                if (read < 0) {
+                    return !buffer.hasRemaining();
+                }
+
+                buffer.compact();
+            }
+        }
+    }
+
+    private static int checksum(CRC32C crc, int logGeneration, byte[] record, int offset) {
+        crc.reset();
+        for (int shift = 0; shift < 32; shift += 8) {
+            crc.update(logGeneration >>> shift);
+        }
+
+        crc.update(record, offset + 4, RECORD_BYTES - 4);
+        return (int) crc.getValue();
+    }
+
+    private static int maxGeneration(Path directory) throws IOException {
+        int ret = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, LOG + "*")) {
+            for (Path file : files) {
+                ret = Math.max(ret, generationOf(file));
+            }
+        }
+
+        return ret;
+    }
+
+    private static int generationOf(Path file) {
+        try {
+            return Integer.parseInt(file.getFileName().toString().substring(LOG.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Path log(Path directory, int logGeneration) {
+        return directory.resolve(LOG + logGeneration);
+    }
+
+    private static ByteBuffer records(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+}
@@ -0,0 +1,302 @@
+package bot.staro.booleans;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link BigBoolean} whose values live in a memory-mapped file.
+ * Opening an existing file only maps it, the operating system pages the values in
+ * when they are first touched, so a restart costs O(1) instead of parsing every bit.
+ * <p>
+ * The file starts with a 16 byte header (magic, version, dimension) followed by the
+ * little-endian words in the same layout as the payload of a BigBoolean.
+ * Bulk operations stream the mapping through small chunks and reuse the {@link BitKernels} loops.
+ * Changes reach the disk whenever the operating system decides to; call {@link #force()} to be sure.
+ *
+ * @author St4ro.
+ */
+public final class MappedBigBoolean implements Closeable {
+    private static final int MAGIC = 0x42424F4C; // "BBOL"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int CHUNK_WORDS = 1024;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer mapping;
+    private final LongBuffer words;
+    private final int dimension;
+    private final int wordCount;
+
+    private MappedBigBoolean(FileChannel channel, MappedByteBuffer mapping, int dimension) {
+        this.channel = channel;
+        this.mapping = mapping;
+        this.dimension = dimension;
+        this.wordCount = BigBoolean.wordsFor(dimension);
+        this.words = mapping.slice(HEADER_BYTES, wordCount * 8).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+    }
+
+    /**
+     * Creates a new file holding a MappedBigBoolean where every value is false.
+     * An existing file at the path is replaced.
+     *
+     * @param path the file to create
+     * @param dimension the number of boolean values the file can hold
+     * @return the mapped BigBoolean
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public static MappedBigBoolean create(Path path, int dimension) throws IOException {
+        if (dimension < 0) {
+            throw new IllegalArgumentException("dimension < 0");
+        }
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = HEADER_BYTES + 8L * BigBoolean.wordsFor(dimension);
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            mapping.order(ByteOrder.LITTLE_ENDIAN);
+            mapping.putInt(0, MAGIC);
+            mapping.putInt(4, VERSION);
+            mapping.putInt(8, dimension);
+            return new MappedBigBoolean(channel, mapping, dimension);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a new file holding the values of a BigBoolean.
+     *
+     * @param path the file to create
+     * @param src the values to store
+     * @return the mapped BigBoolean
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public static MappedBigBoolean create(Path path, BigBoolean src) throws IOException {
+        MappedBigBoolean ret = create(path, src.getDimension());
+        ret.copyFrom(src);
+        return ret;
+    }
+
+    /**
+     * Maps an existing file. No values are read until they are used.
+     *
+     * @param path the file to open
+     * @return the mapped BigBoolean
+     * @throws IOException if the file cannot be mapped or is not a MappedBigBoolean file
+     */
+    public static MappedBigBoolean open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Not a MappedBigBoolean file: " + path);
+            }
+
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            mapping.order(ByteOrder.LITTLE_ENDIAN);
+            int dimension = mapping.getInt(8);
+            if (mapping.getInt(0) != MAGIC || mapping.getInt(4) != VERSION || dimension < 0
+                    || channel.size() < HEADER_BYTES + 8L * BigBoolean.wordsFor(dimension)) {
+                throw new IOException("Not a MappedBigBoolean file: " + path);
+            }
+
+            return new MappedBigBoolean(channel, mapping, dimension);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the boolean value at the specified index.
+     *
+     * @param index the index of the value, from 0 to dimension - 1
+     * @return the value at the index
+     * @throws IndexOutOfBoundsException if the index is outside of this MappedBigBoolean
+     */
+    public boolean getValue(int index) {
+        checkIndex(index);
+        return (words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Sets the boolean value at the specified index.
+     *
+     * @param index the index of the value, from 0 to dimension - 1
+     * @param value the new value
+     * @throws IndexOutOfBoundsException if the index is outside of this MappedBigBoolean
+     */
+    public void setValue(int index, boolean value) {
+        checkIndex(index);
+        int word = index >>> 6;
+        long bit = 1L << index;
+        words.put(word, value ? words.get(word) | bit : words.get(word) & ~bit);
+    }
+
+    /**
+     * @return the number of boolean values this MappedBigBoolean holds
+     */
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Counts the values of this MappedBigBoolean that are true.
+     *
+     * @return the number of set bits
+     */
+    public int cardinality() {
+        long[] chunk = new long[CHUNK_WORDS];
+        long count = 0;
+        for (int from = 0; from < wordCount; from += CHUNK_WORDS) {
+            int length = Math.min(CHUNK_WORDS, wordCount - from);
+            words.get(from, chunk, 0, length);
+            count += BitKernels.popCount(chunk, 0, length);
+        }
+
+        return (int) count;
+    }
+
+    /**
+     * Sets this MappedBigBoolean to {@code op(this, other)}, working directly on the mapping.
+     *
+     * @param op the operator to apply
+     * @param other the other operand
+     * @return this MappedBigBoolean
+     * @throws AssertionError if the dimensions of the operands are not equal
+     */
+    public MappedBigBoolean applyInPlace(BitOperator op, BigBoolean other) {
+        checkDimension(other.getDimension());
+        long[] src = other.words();
+        long[] chunk = new long[CHUNK_WORDS];
+        long[] operand = new long[CHUNK_WORDS];
+        for (int from = 0; from < wordCount; from += CHUNK_WORDS) {
+            int length = Math.min(CHUNK_WORDS, wordCount - from);
+            words.get(from, chunk, 0, length);
+            System.arraycopy(src, from, operand, 0, length);
+            BitKernels.apply(op, chunk, operand, chunk, 0, length);
+            words.put(from, chunk, 0, length);
+        }
+
+        if (op.fillsPadding()) {
+            maskPadding();
+        }
+
+        return this;
+    }
+
+    /**
+     * Sets this MappedBigBoolean to {@code op(this, other)}, working directly on both mappings.
+     *
+     * @param op the operator to apply
+     * @param other the other operand
+     * @return this MappedBigBoolean
+     * @throws AssertionError if the dimensions of the operands are not equal
+     */
+    public MappedBigBoolean applyInPlace(BitOperator op, MappedBigBoolean other) {
+        checkDimension(other.dimension);
+        long[] chunk = new long[CHUNK_WORDS];
+        long[] operand = new long[CHUNK_WORDS];
+        for (int from = 0; from < wordCount; from += CHUNK_WORDS) {
+            int length = Math.min(CHUNK_WORDS, wordCount - from);
+            words.get(from, chunk, 0, length);
+            other.words.get(from, operand, 0, length);
+            BitKernels.apply(op, chunk, operand, chunk, 0, length);
+            words.put(from, chunk, 0, length);
+        }
+
+        if (op.fillsPadding()) {
+            maskPadding();
+        }
+
+        return this;
+    }
+
+    /**
+     * Flips all boolean values of this MappedBigBoolean.
+     *
+     * @return this MappedBigBoolean
+     */
+    public MappedBigBoolean complementInPlace() {
+        long[] chunk = new long[CHUNK_WORDS];
+        for (int from = 0; from < wordCount; from += CHUNK_WORDS) {
+            int length = Math.min(CHUNK_WORDS, wordCount - from);
+            words.get(from, chunk, 0, length);
+            BitKernels.complement(chunk, chunk, 0, length);
+            words.put(from, chunk, 0, length);
+        }
+
+        maskPadding();
+        return this;
+    }
+
+    /**
+     * Overwrites all values with the values of a BigBoolean.
+     *
+     * @param src the BigBoolean to copy from
+     * @return this MappedBigBoolean
+     * @throws AssertionError if the dimensions are not equal
+     */
+    public MappedBigBoolean copyFrom(BigBoolean src) {
+        checkDimension(src.getDimension());
+        words.put(0, src.words(), 0, wordCount);
+        return this;
+    }
+
+    /**
+     * Reads all values into a new BigBoolean on the heap.
+     *
+     * @return a new BigBoolean holding the same values
+     */
+    public BigBoolean toBigBoolean() {
+        long[] payload = new long[wordCount];
+        words.get(0, payload, 0, wordCount);
+        return new BigBoolean(payload, dimension);
+    }
+
+    /**
+     * Writes all changes of the mapping to the storage device.
+     */
+    public void force() {
+        mapping.force();
+    }
+
+    /**
+     * Closes the file channel. The mapping itself stays valid until it is garbage collected,
+     * so this object must not be used afterwards.
+     *
+     * @throws IOException if the channel cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void maskPadding() {
+        int last = wordCount - 1;
+        int valid = dimension - last * 64;
+        if (valid < 64) {
+            words.put(last, words.get(last) & (valid <= 0 ? 0L : (1L << valid) - 1));
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= dimension) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for dimension " + dimension);
+        }
+    }
+
+    private void checkDimension(int other) {
+        if (dimension != other) {
+            throw new AssertionError("a.dimension != b.dimension");
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package bot.staro.booleans;
+
+/**
+ * The x64 128-bit variant of MurmurHash3, with seed 0.
+ * Both halves of the hash are written to a two element array, so callers
+ * can derive any number of hash functions from one pass over the key.
+ *
+ * @author St4ro.
+ */
+final class Murmur3 {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private Murmur3() {
+    }
+
+    /**
+     * Hashes a long as its 8 little-endian bytes.
+     */
+    static void hash128(long key, long[] out) {
+        long h1 = mixK1(key);
+        long h2 = 0;
+        finish(h1, h2, 8, out);
+    }
+
+    /**
+     * Hashes {@code data[offset, offset + length)}.
+     */
+    static void hash128(byte[] data, int offset, int length, long[] out) {
+        long h1 = 0;
+        long h2 = 0;
+        int blocks = length >>> 4;
+        for (int i = 0; i < blocks; i++) {
+            int at = offset + (i << 4);
+            h1 ^= mixK1(getLong(data, at));
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(getLong(data, at + 8));
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int tail = offset + (blocks << 4);
+        int rest = length & 15;
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = rest - 1; i >= 8; i--) {
+            k2 = (k2 << 8) | (data[tail + i] & 0xFF);
+        }
+
+        for (int i = Math.min(rest, 8) - 1; i >= 0; i--) {
+            k1 = (k1 << 8) | (data[tail + i] & 0xFF);
+        }
+
+        if (rest > 8) {
+            h2 ^= mixK2(k2);
+        }
+
+        if (rest > 0) {
+            h1 ^= mixK1(k1);
+        }
+
+        finish(h1, h2, length, out);
+    }
+
+    private static void finish(long h1, long h2, int length, long[] out) {
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+        out[0] = h1;
+        out[1] = h2;
+    }
+
+    private static long mixK1(long k1) {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(long k2) {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static long getLong(byte[] data, int at) {
+        long ret = 0;
+        for (int i = 7; i >= 0; i--) {
+            ret = (ret << 8) | (data[at + i] & 0xFF);
+        }
+
+        return ret;
+    }
+
+}
@@ -0,0 +1,567 @@
+package bot.staro.booleans;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A bit vector that lives on disk and only keeps a bounded number of its pages in memory, for vectors
+ * larger than the heap. Like a {@link SegmentedBigBoolean}, the values are indexed with longs. The words
+ * are stored in pages of {@link #PAGE_WORDS} words, and every access goes through a buffer pool of a fixed
+ * number of frames: a missing page is read into a frame chosen by the CLOCK algorithm, and a changed page
+ * is only written back when its frame is reused or on {@link #flush()}. The table mapping pages to frames
+ * is sized by the pool as well, so no part of the memory use grows with the dimension.
+ * <p>
+ * Bulk operations ({@link #apply}, {@link #complement}, {@link #cardinality()}) stream through the vectors
+ * page by page, so their memory use is set by the pool size, not the dimension. A page they miss is read
+ * together with the following missing pages in one sequential read (read-ahead), and a destination page
+ * that is overwritten entirely is never read at all.
+ * <p>
+ * The file starts with a header page (magic, version, dimension) followed by the pages, little-endian
+ * like the payload of a {@link BigBoolean}. Like BigBoolean, a PagedBigBoolean is not thread-safe.
+ *
+ * @author St4ro.
+ */
+public final class PagedBigBoolean implements Closeable {
+    /**
+     * The number of words of a page.
+     */
+    public static final int PAGE_WORDS = 512;
+    private static final int PAGE_BYTES = PAGE_WORDS * 8;
+    private static final int PAGE_SHIFT = 15; // bits per page
+    private static final int MAGIC = 0x47504242; // "BBPG"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 20;
+    private static final int MIN_POOL_PAGES = 4;
+    private static final int MAX_POOL_PAGES = 1 << 28;
+    private static final int READ_AHEAD_PAGES = 16;
+
+    private final FileChannel channel;
+    private final long dimension;
+    private final long words;
+    private final long pageCount;
+    private final int readAhead;
+    // the buffer pool: the words, page, state and pin count of every frame
+    private final long[][] frames;
+    private final long[] pageOf;
+    private final boolean[] dirty;
+    private final boolean[] referenced;
+    private final int[] pins;
+    // the frame of every page in the pool, in an open addressing table with linear probing
+    private final long[] tablePages;
+    private final int[] tableFrames;
+    private final ByteBuffer io;
+    private int hand;
+
+    private PagedBigBoolean(FileChannel channel, long dimension, int poolPages) {
+        if (poolPages < MIN_POOL_PAGES || poolPages > MAX_POOL_PAGES) {
+            throw new IllegalArgumentException("The pool needs " + MIN_POOL_PAGES + " to " + MAX_POOL_PAGES + " pages, got " + poolPages);
+        }
+
+        this.channel = channel;
+        this.dimension = dimension;
+        this.words = (dimension >>> 6) + ((dimension & 63) == 0 ? 0 : 1);
+        this.pageCount = (words + PAGE_WORDS - 1) / PAGE_WORDS;
+        this.readAhead = Math.min(READ_AHEAD_PAGES, poolPages / 4);
+        this.frames = new long[poolPages][PAGE_WORDS];
+        this.pageOf = new long[poolPages];
+        this.dirty = new boolean[poolPages];
+        this.referenced = new boolean[poolPages];
+        this.pins = new int[poolPages];
+        // at most half full, so probe sequences stay short
+        this.tablePages = new long[Integer.highestOneBit(poolPages) << 2];
+        this.tableFrames = new int[tablePages.length];
+        this.io = ByteBuffer.allocateDirect(readAhead * PAGE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        Arrays.fill(pageOf, -1L);
+        Arrays.fill(tablePages, -1L);
+    }
+
+    /**
+     * Creates a new file holding a PagedBigBoolean where every value is false.
+     * The file is sparse until pages are written. An existing file at the path is replaced.
+     *
+     * @param path the file to create
+     * @param dimension the number of boolean values the file can hold
+     * @param poolPages the number of pages the buffer pool keeps in memory, at least 4
+     * @return the paged BigBoolean
+     * @throws IOException if the file cannot be created
+     */
+    public static PagedBigBoolean create(Path path, long dimension, int poolPages) throws IOException {
+        if (dimension < 0) {
+            throw new IllegalArgumentException("Unsupported dimension: " + dimension);
+        }
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            PagedBigBoolean ret = new PagedBigBoolean(channel, dimension, poolPages);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(dimension).putInt(PAGE_WORDS).flip();
+            ret.writeFully(header, 0);
+            // the last byte sets the length of the file, every page before it reads as zeros
+            ret.writeFully(ByteBuffer.allocate(1), (ret.pageCount + 1) * PAGE_BYTES - 1);
+            return ret;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing file. No page is read until it is used.
+     *
+     * @param path the file to open
+     * @param poolPages the number of pages the buffer pool keeps in memory, at least 4
+     * @return the paged BigBoolean
+     * @throws IOException if the file cannot be opened or is not a PagedBigBoolean file
+     */
+    public static PagedBigBoolean open(Path path, int poolPages) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // keep reading until the header is complete or the file ends
+            }
+
+            long dimension = header.getLong(8);
+            if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+                    || header.getInt(16) != PAGE_WORDS || dimension < 0) {
+                throw new IOException("Not a PagedBigBoolean file: " + path);
+            }
+
+            PagedBigBoolean ret = new PagedBigBoolean(channel, dimension, poolPages);
+            if (channel.size() < (ret.pageCount + 1) * PAGE_BYTES) {
+                throw new IOException("Truncated PagedBigBoolean file: " + path);
+            }
+
+            return ret;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the boolean value at the specified index, reading its page if it is not in the pool.
+     *
+     * @param index the index of the value, from 0 to dimension - 1
+     * @return the value at the index
+     * @throws IndexOutOfBoundsException if the index is outside of this PagedBigBoolean
+     * @throws IOException if the page cannot be read, or a page it replaces cannot be written
+     */
+    public boolean getValue(long index) throws IOException {
+        checkIndex(index);
+        int frame = fetch(index >>> PAGE_SHIFT, true, false);
+        try {
+            return (frames[frame][(int) (index >>> 6) & (PAGE_WORDS - 1)] & (1L << index)) != 0;
+        } finally {
+            pins[frame]--;
+        }
+    }
+
+    /**
+     * Sets the boolean value at the specified index. The change reaches the file when its page
+     * leaves the pool, or on {@link #flush()}.
+     *
+     * @param index the index of the value, from 0 to dimension - 1
+     * @param value the new value
+     * @throws IndexOutOfBoundsException if the index is outside of this PagedBigBoolean
+     * @throws IOException if the page cannot be read, or a page it replaces cannot be written
+     */
+    public void setValue(long index, boolean value) throws IOException {
+        checkIndex(index);
+        int frame = fetch(index >>> PAGE_SHIFT, true, false);
+        try {
+            int word = (int) (index >>> 6) & (PAGE_WORDS - 1);
+            long bit = 1L << index;
+            frames[frame][word] = value ? frames[frame][word] | bit : frames[frame][word] & ~bit;
+            dirty[frame] = true;
+        } finally {
+            pins[frame]--;
+        }
+    }
+
+    /**
+     * Counts the true values, streaming through the pages.
+     *
+     * @return the number of set bits
+     * @throws IOException if a page cannot be read
+     */
+    public long cardinality() throws IOException {
+        long count = 0;
+        for (long page = 0; page < pageCount; page++) {
+            int frame = fetch(page, true, true);
+            try {
+                count += BitKernels.popCount(frames[frame], 0, wordsOf(page));
+            } finally {
+                pins[frame]--;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Computes {@code dest = a AND b} page by page. Any of the vectors may be the same one.
+     *
+     * @return dest
+     * @throws AssertionError if the dimensions are not equal
+     * @throws IOException if a page cannot be read or written
+     */
+    public static PagedBigBoolean conjunction(PagedBigBoolean a, PagedBigBoolean b, PagedBigBoolean dest) throws IOException {
+        return apply(BitOperator.AND, a, b, dest);
+    }
+
+    /**
+     * Computes {@code dest = op(a, b)} page by page, with one page of each vector pinned at a time.
+     * Any of the vectors may be the same one.
+     *
+     * @param op the operator
+     * @param a the first operand
+     * @param b the second operand
+     * @param dest the vector receiving the result
+     * @return dest
+     * @throws AssertionError if the dimensions are not equal
+     * @throws IOException if a page cannot be read or written
+     */
+    public static PagedBigBoolean apply(BitOperator op, PagedBigBoolean a, PagedBigBoolean b, PagedBigBoolean dest) throws IOException {
+        if (a.dimension != b.dimension || a.dimension != dest.dimension) {
+            throw new AssertionError("a.dimension != b.dimension");
+        }
+
+        for (long page = 0; page < dest.pageCount; page++) {
+            int fa = a.fetch(page, true, true);
+            try {
+                int fb = b.fetch(page, true, true);
+                try {
+                    int fd = dest.fetch(page, false, true);
+                    try {
+                        BitKernels.apply(op, a.frames[fa], b.frames[fb], dest.frames[fd], 0, dest.wordsOf(page));
+                        dest.overwritten(page, fd);
+                    } finally {
+                        dest.pins[fd]--;
+                    }
+                } finally {
+                    b.pins[fb]--;
+                }
+            } finally {
+                a.pins[fa]--;
+            }
+        }
+
+        return dest;
+    }
+
+    /**
+     * Computes {@code dest = NOT src} page by page. The vectors may be the same one.
+     *
+     * @return dest
+     * @throws AssertionError if the dimensions are not equal
+     * @throws IOException if a page cannot be read or written
+     */
+    public static PagedBigBoolean complement(PagedBigBoolean src, PagedBigBoolean dest) throws IOException {
+        if (src.dimension != dest.dimension) {
+            throw new AssertionError("a.dimension != b.dimension");
+        }
+
+        for (long page = 0; page < dest.pageCount; page++) {
+            int fs = src.fetch(page, true, true);
+            try {
+                int fd = dest.fetch(page, false, true);
+                try {
+                    BitKernels.complement(src.frames[fs], dest.frames[fd], 0, dest.wordsOf(page));
+                    dest.overwritten(page, fd);
+                } finally {
+                    dest.pins[fd]--;
+                }
+            } finally {
+                src.pins[fs]--;
+            }
+        }
+
+        return dest;
+    }
+
+    /**
+     * Copies all values into memory. Only sensible for vectors that fit into the heap.
+     *
+     * @return a new BigBoolean holding the values
+     * @throws IllegalStateException if the dimension is larger than a BigBoolean can hold
+     * @throws IOException if a page cannot be read
+     */
+    public BigBoolean toBigBoolean() throws IOException {
+        if (dimension > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Dimension " + dimension + " is too large for a BigBoolean");
+        }
+
+        BigBoolean ret = new BigBoolean((int) dimension);
+        long[] dst = ret.words();
+        for (long page = 0; page < pageCount; page++) {
+            int frame = fetch(page, true, true);
+            try {
+                System.arraycopy(frames[frame], 0, dst, (int) page * PAGE_WORDS, wordsOf(page));
+            } finally {
+                pins[frame]--;
+            }
+        }
+
+        ret.invalidate();
+        return ret;
+    }
+
+    /**
+     * @return the number of boolean values this PagedBigBoolean holds
+     */
+    public long getDimension() {
+        return dimension;
+    }
+
+    /**
+     * @return the number of pages the values are stored in
+     */
+    public long getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @return the number of pages the buffer pool keeps in memory
+     */
+    public int getPoolPages() {
+        return frames.length;
+    }
+
+    /**
+     * Writes every changed page back, in file order, and forces the file to the device.
+     *
+     * @throws IOException if a page cannot be written
+     */
+    public void flush() throws IOException {
+        long[] changed = new long[frames.length];
+        int count = 0;
+        for (int frame = 0; frame < frames.length; frame++) {
+            if (dirty[frame]) {
+                changed[count++] = pageOf[frame];
+            }
+        }
+
+        Arrays.sort(changed, 0, count);
+        for (int i = 0; i < count; i++) {
+            writeBack(frameOf(changed[i]));
+        }
+
+        channel.force(false);
+    }
+
+    /**
+     * Flushes and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Pins the page into a frame, reading it unless the caller overwrites all of it.
+     * A sequential caller that misses a page also reads the missing pages after it, as far as
+     * the read-ahead and the unpinned frames allow. If this fails, no frame stays pinned.
+     *
+     * @return the frame, pinned until the caller decrements its pin count
+     */
+    private int fetch(long page, boolean read, boolean sequential) throws IOException {
+        int frame = frameOf(page);
+        if (frame >= 0) {
+            referenced[frame] = true;
+            pins[frame]++;
+            return frame;
+        }
+
+        int[] run = new int[read && sequential ? readAhead : 1];
+        int count = 0;
+        try {
+            do {
+                int victim = victim(count == 0);
+                if (victim < 0) {
+                    break;
+                }
+
+                // claimed frames stay pinned, so the next victim is a different one
+                pins[victim]++;
+                run[count++] = victim;
+            } while (count < run.length && page + count < pageCount && frameOf(page + count) < 0);
+
+            if (read) {
+                io.clear().limit(count * PAGE_BYTES);
+                readFully(io, (page + 1) * PAGE_BYTES);
+                io.flip();
+            }
+        } catch (IOException | RuntimeException e) {
+            // the claimed frames hold no page yet, so they are simply free again
+            for (int i = 0; i < count; i++) {
+                pins[run[i]]--;
+            }
+
+            throw e;
+        }
+
+        for (int i = 0; i < count; i++) {
+            int loaded = run[i];
+            if (read) {
+                io.asLongBuffer().get(i * PAGE_WORDS, frames[loaded], 0, PAGE_WORDS);
+            }
+
+            pageOf[loaded] = page + i;
+            map(page + i, loaded);
+            referenced[loaded] = true;
+            if (i > 0) {
+                pins[loaded]--;
+            }
+        }
+
+        return run[0];
+    }
+
+    /**
+     * Chooses a frame with the CLOCK algorithm: the hand skips pinned frames, and gives every recently
+     * referenced frame a second chance. The page in the chosen frame is written back if it changed.
+     *
+     * @param required whether the caller cannot do without a frame
+     * @return the free frame, or -1 if every frame is pinned and the frame was not required
+     * @throws IllegalStateException if a required frame cannot be found
+     */
+    private int victim(boolean required) throws IOException {
+        for (int step = 0; step < 2 * frames.length; step++) {
+            int frame = hand;
+            hand = hand + 1 == frames.length ? 0 : hand + 1;
+            if (pins[frame] > 0) {
+                continue;
+            }
+
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                continue;
+            }
+
+            if (pageOf[frame] >= 0) {
+                if (dirty[frame]) {
+                    writeBack(frame);
+                }
+
+                unmap(pageOf[frame]);
+                pageOf[frame] = -1;
+            }
+
+            return frame;
+        }
+
+        if (required) {
+            throw new IllegalStateException("Every page of the pool is pinned");
+        }
+
+        return -1;
+    }
+
+    /**
+     * Marks a page that was overwritten entirely as changed, clearing the padding bits of the last page.
+     */
+    private void overwritten(long page, int frame) {
+        if (page == pageCount - 1 && (dimension & 63) != 0) {
+            frames[frame][wordsOf(page) - 1] &= (1L << dimension) - 1;
+        }
+
+        dirty[frame] = true;
+    }
+
+    private void writeBack(int frame) throws IOException {
+        io.clear().limit(PAGE_BYTES);
+        io.asLongBuffer().put(frames[frame]);
+        writeFully(io, (pageOf[frame] + 1) * PAGE_BYTES);
+        dirty[frame] = false;
+    }
+
+    private int frameOf(long page) {
+        int mask = tablePages.length - 1;
+        for (int i = slot(page); ; i = (i + 1) & mask) {
+            if (tablePages[i] == page) {
+                return tableFrames[i];
+            }
+
+            if (tablePages[i] < 0) {
+                return -1;
+            }
+        }
+    }
+
+    private void map(long page, int frame) {
+        int mask = tablePages.length - 1;
+        int i = slot(page);
+        while (tablePages[i] >= 0) {
+            i = (i + 1) & mask;
+        }
+
+        tablePages[i] = page;
+        tableFrames[i] = frame;
+    }
+
+    /**
+     * Removes a page from the table, shifting back the entries after it so that no probe sequence breaks.
+     */
+    private void unmap(long page) {
+        int mask = tablePages.length - 1;
+        int hole = slot(page);
+        while (tablePages[hole] != page) {
+            hole = (hole + 1) & mask;
+        }
+
+        for (int i = (hole + 1) & mask; tablePages[i] >= 0; i = (i + 1) & mask) {
+            // an entry may fill the hole unless its home slot lies cyclically within (hole, i]
+            int home = slot(tablePages[i]);
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                tablePages[hole] = tablePages[i];
+                tableFrames[hole] = tableFrames[i];
+                hole = i;
+            }
+        }
+
+        tablePages[hole] = -1;
+    }
+
+    private int slot(long page) {
+        return (int) ((page * 0x9E3779B97F4A7C15L) >>> 32) & (tablePages.length - 1);
+    }
+
+    private int wordsOf(long page) {
+        return (int) Math.min(PAGE_WORDS, words - page * PAGE_WORDS);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the PagedBigBoolean file");
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private void checkIndex(long index) {
+        if (index < 0 || index >= dimension) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for dimension " + dimension);
+        }
+    }
+
+}
@@ -0,0 +1,261 @@
+package bot.staro.booleans;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork/join versions of the bulk operations of {@link BigBoolean}.
+ * The payload is split into halves until a range is shorter than the threshold, and every
+ * split point is rounded to a cache line (8 words) so no two tasks ever write the same line.
+ * Vectors shorter than the threshold are processed on the calling thread without any task overhead.
+ *
+ * @author St4ro.
+ */
+public final class ParallelBitOps {
+    /**
+     * The default number of words below which a range is processed sequentially (64KB).
+     */
+    public static final int DEFAULT_THRESHOLD = 1 << 13;
+    private static final int LINE_WORDS = 8;
+    private static final ParallelBitOps COMMON = new ParallelBitOps(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    /**
+     * @param pool the pool the tasks are run on
+     * @param threshold the number of words below which a range is not split any further
+     */
+    public ParallelBitOps(ForkJoinPool pool, int threshold) {
+        // at least two cache lines, so that every split produces two non-empty halves
+        if (threshold < 2 * LINE_WORDS) {
+            throw new IllegalArgumentException("threshold < " + 2 * LINE_WORDS);
+        }
+
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return an instance running on the common pool with the default threshold
+     */
+    public static ParallelBitOps common() {
+        return COMMON;
+    }
+
+    /**
+     * Parallel version of {@link BigBoolean#conjunction(BigBoolean, BigBoolean)}.
+     */
+    public BigBoolean conjunction(BigBoolean a, BigBoolean b) {
+        return apply(BitOperator.AND, a, b, new BigBoolean(a.getDimension()));
+    }
+
+    /**
+     * Parallel version of {@link BigBoolean#apply(BitOperator, BigBoolean, BigBoolean, BigBoolean)}.
+     *
+     * @param op the operator to apply
+     * @param a the first BigBoolean operand
+     * @param b the second BigBoolean operand
+     * @param dest the BigBoolean receiving the result, which may be one of the operands
+     * @return dest
+     * @throws AssertionError if the dimensions of the BigBooleans are not equal
+     */
+    public BigBoolean apply(BitOperator op, BigBoolean a, BigBoolean b, BigBoolean dest) {
+        checkDimension(a, b);
+        checkDimension(a, dest);
+        long[] dst = dest.words();
+        if (dst.length < threshold) {
+            return BigBoolean.apply(op, a, b, dest);
+        }
+
+        dest.invalidate();
+        pool.invoke(new ApplyTask(op, a.words(), b.words(), dst, 0, dst.length));
+        if (op.fillsPadding()) {
+            dest.maskPadding();
+        }
+
+        return dest;
+    }
+
+    /**
+     * Parallel version of {@link BigBoolean#complement()}.
+     */
+    public BigBoolean complement(BigBoolean src) {
+        return complementInto(src, new BigBoolean(src.getDimension()));
+    }
+
+    /**
+     * Parallel version of {@link BigBoolean#complementInto(BigBoolean)}.
+     */
+    public BigBoolean complementInto(BigBoolean src, BigBoolean dest) {
+        checkDimension(src, dest);
+        long[] dst = dest.words();
+        if (dst.length < threshold) {
+            return src.complementInto(dest);
+        }
+
+        dest.invalidate();
+        pool.invoke(new ComplementTask(src.words(), dst, 0, dst.length));
+        dest.maskPadding();
+        return dest;
+    }
+
+    /**
+     * Parallel version of {@link BigBoolean#cardinality()}.
+     */
+    public int cardinality(BigBoolean src) {
+        long[] words = src.words();
+        if (words.length < threshold) {
+            return src.cardinality();
+        }
+
+        return pool.invoke(new CountTask(words, 0, words.length)).intValue();
+    }
+
+    /**
+     * Parallel version of {@link BigBoolean#equals(Object)}.
+     */
+    public boolean equal(BigBoolean a, BigBoolean b) {
+        if (a.getDimension() != b.getDimension()) {
+            return false;
+        }
+
+        long[] words = a.words();
+        if (words.length < threshold) {
+            return a.equals(b);
+        }
+
+        return pool.invoke(new EqualTask(words, b.words(), 0, words.length));
+    }
+
+    private int split(int from, int to) {
+        return (from + (to - from) / 2) & -LINE_WORDS;
+    }
+
+    private static void checkDimension(BigBoolean a, BigBoolean b) {
+        if (a.getDimension() != b.getDimension()) {
+            throw new AssertionError("a.dimension != b.dimension");
+        }
+    }
+
+    private final class ApplyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BitOperator op;
+        private final long[] a;
+        private final long[] b;
+        private final long[] dst;
+        private final int from;
+        private final int to;
+
+        ApplyTask(BitOperator op, long[] a, long[] b, long[] dst, int from, int to) {
+            this.op = op;
+            this.a = a;
+            this.b = b;
+            this.dst = dst;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < threshold) {
+                BitKernels.apply(op, a, b, dst, from, to);
+                return;
+            }
+
+            int mid = split(from, to);
+            invokeAll(new ApplyTask(op, a, b, dst, from, mid), new ApplyTask(op, a, b, dst, mid, to));
+        }
+    }
+
+    private final class ComplementTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] src;
+        private final long[] dst;
+        private final int from;
+        private final int to;
+
+        ComplementTask(long[] src, long[] dst, int from, int to) {
+            this.src = src;
+            this.dst = dst;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < threshold) {
+                BitKernels.complement(src, dst, from, to);
+                return;
+            }
+
+            int mid = split(from, to);
+            invokeAll(new ComplementTask(src, dst, from, mid), new ComplementTask(src, dst, mid, to));
+        }
+    }
+
+    private final class CountTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] words;
+        private final int from;
+        private final int to;
+
+        CountTask(long[] words, int from, int to) {
+            this.words = words;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from < threshold) {
+                return BitKernels.popCount(words, from, to);
+            }
+
+            int mid = split(from, to);
+            CountTask left = new CountTask(words, from, mid);
+            left.fork();
+            long right = new CountTask(words, mid, to).compute();
+            return left.join() + right;
+        }
+    }
+
+    private final class EqualTask extends RecursiveTask<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] a;
+        private final long[] b;
+        private final int from;
+        private final int to;
+
+        EqualTask(long[] a, long[] b, int from, int to) {
+            this.a = a;
+            this.b = b;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Boolean compute() {
+            if (to - from < threshold) {
+                return BitKernels.equal(a, b, from, to);
+            }
+
+            int mid = split(from, to);
+            EqualTask left = new EqualTask(a, b, from, mid);
+            left.fork();
+            // a mismatch on the right makes the left result irrelevant
+            if (!new EqualTask(a, b, mid, to).compute()) {
+                left.cancel(false);
+                return false;
+            }
+
+            return left.join();
+        }
+    }
+
+}
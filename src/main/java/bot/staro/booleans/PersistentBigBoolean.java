@@ -0,0 +1,512 @@
+package bot.staro.booleans;
+
+import java.util.Arrays;
+
+/**
+ * An immutable {@link BigBoolean}, in the spirit of {@link ImmutableBoolean} but for millions of values.
+ * Changing a value returns a new version that shares everything but one path with the old one,
+ * so many near-identical versions of a large vector cost memory in proportion to their differences.
+ * <p>
+ * The values are stored in a tree of fanout 32 over leaves of 64 words (4096 values). Subtrees that
+ * are all false are not stored at all, and subtrees that are all true are one shared instance per level.
+ * Bulk operations compare the subtrees of their operands by identity first, so the parts two versions
+ * share, and the empty and full parts, are never visited word by word.
+ *
+ * @author St4ro.
+ */
+public final class PersistentBigBoolean {
+    private static final int LEAF_WORDS = 64;
+    private static final int LEAF_SHIFT = 6;
+    private static final int FANOUT = 32;
+    private static final int FANOUT_SHIFT = 5;
+    // a tree of this height covers more than Integer.MAX_VALUE values
+    private static final int MAX_HEIGHT = 5;
+    // FULL[level] is the canonical subtree of the given level where every value is true
+    private static final Object[] FULL = new Object[MAX_HEIGHT + 1];
+    // FULL_HASH[level] is the hash of FULL[level], so hashing never walks the shared full subtrees
+    private static final int[] FULL_HASH = new int[MAX_HEIGHT + 1];
+
+    static {
+        long[] leaf = new long[LEAF_WORDS];
+        Arrays.fill(leaf, -1L);
+        FULL[0] = leaf;
+        FULL_HASH[0] = Arrays.hashCode(leaf);
+        for (int level = 1; level <= MAX_HEIGHT; level++) {
+            Object[] node = new Object[FANOUT];
+            Arrays.fill(node, FULL[level - 1]);
+            FULL[level] = node;
+            int hash = 1;
+            for (int c = 0; c < FANOUT; c++) {
+                hash = 31 * hash + FULL_HASH[level - 1];
+            }
+
+            FULL_HASH[level] = hash;
+        }
+    }
+
+    // a long[] leaf at height 0, an Object[] node above it, null if every value is false
+    private final Object root;
+    private final int height;
+    private final int dimension;
+
+    /**
+     * Creates a new PersistentBigBoolean where every value is false. It takes no memory besides this object.
+     *
+     * @param dimension the number of boolean values this PersistentBigBoolean holds
+     */
+    public PersistentBigBoolean(int dimension) {
+        this(null, heightFor(dimension), dimension);
+    }
+
+    private PersistentBigBoolean(Object root, int height, int dimension) {
+        this.root = root;
+        this.height = height;
+        this.dimension = dimension;
+    }
+
+    /**
+     * Creates a PersistentBigBoolean holding the values of a BigBoolean.
+     *
+     * @param src the values to copy
+     * @return a new PersistentBigBoolean
+     */
+    public static PersistentBigBoolean fromBigBoolean(BigBoolean src) {
+        int dimension = src.getDimension();
+        int height = heightFor(dimension);
+        return new PersistentBigBoolean(build(src.words(), 0, height), height, dimension);
+    }
+
+    /**
+     * Copies all values into a new BigBoolean.
+     *
+     * @return a new BigBoolean holding the same values
+     */
+    public BigBoolean toBigBoolean() {
+        long[] payload = new long[BigBoolean.wordsFor(dimension)];
+        copy(root, height, 0, payload);
+        return new BigBoolean(payload, dimension);
+    }
+
+    /**
+     * Gets the boolean value at the specified index.
+     *
+     * @param index the index of the value, from 0 to dimension - 1
+     * @return the value at the index
+     * @throws IndexOutOfBoundsException if the index is outside of this PersistentBigBoolean
+     */
+    public boolean getValue(int index) {
+        checkIndex(index);
+        int word = index >>> 6;
+        int leaf = word >>> LEAF_SHIFT;
+        Object node = root;
+        for (int level = height; level > 0 && node != null; level--) {
+            node = ((Object[]) node)[child(leaf, level)];
+        }
+
+        return node != null && (((long[]) node)[word & (LEAF_WORDS - 1)] & (1L << index)) != 0;
+    }
+
+    /**
+     * Returns a version of this PersistentBigBoolean with one value changed.
+     * Only the nodes on the path to the value are copied; this one is left untouched.
+     *
+     * @param index the index of the value, from 0 to dimension - 1
+     * @param value the new value
+     * @return the new version, or this one if the value already was the given one
+     * @throws IndexOutOfBoundsException if the index is outside of this PersistentBigBoolean
+     */
+    public PersistentBigBoolean with(int index, boolean value) {
+        if (getValue(index) == value) {
+            return this;
+        }
+
+        return new PersistentBigBoolean(with(root, height, index, value), height, dimension);
+    }
+
+    /**
+     * @return the number of boolean values this PersistentBigBoolean holds
+     */
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Counts the values that are true. Empty and full subtrees are counted without visiting them.
+     *
+     * @return the number of set bits
+     */
+    public int cardinality() {
+        return (int) count(root, height);
+    }
+
+    /**
+     * Performs a logical AND operation between two PersistentBigBoolean objects.
+     *
+     * @param a the first operand
+     * @param b the second operand
+     * @return a new PersistentBigBoolean sharing all subtrees the operands had in common
+     * @throws AssertionError if the dimensions of the operands are not equal
+     */
+    public static PersistentBigBoolean conjunction(PersistentBigBoolean a, PersistentBigBoolean b) {
+        return apply(BitOperator.AND, a, b);
+    }
+
+    /**
+     * Performs a logical OR operation between two PersistentBigBoolean objects.
+     *
+     * @param a the first operand
+     * @param b the second operand
+     * @return a new PersistentBigBoolean sharing all subtrees the operands had in common
+     * @throws AssertionError if the dimensions of the operands are not equal
+     */
+    public static PersistentBigBoolean disjunction(PersistentBigBoolean a, PersistentBigBoolean b) {
+        return apply(BitOperator.OR, a, b);
+    }
+
+    /**
+     * Performs a logical XOR operation between two PersistentBigBoolean objects.
+     * This is the diff of two versions, computed in proportion to the subtrees they do not share.
+     *
+     * @param a the first operand
+     * @param b the second operand
+     * @return a new PersistentBigBoolean with the values that differ set to true
+     * @throws AssertionError if the dimensions of the operands are not equal
+     */
+    public static PersistentBigBoolean exclusiveDisjunction(PersistentBigBoolean a, PersistentBigBoolean b) {
+        return apply(BitOperator.XOR, a, b);
+    }
+
+    /**
+     * Performs a logical AND NOT operation between two PersistentBigBoolean objects.
+     *
+     * @param a the first operand
+     * @param b the second operand
+     * @return a new PersistentBigBoolean for {@code a AND NOT b}
+     * @throws AssertionError if the dimensions of the operands are not equal
+     */
+    public static PersistentBigBoolean difference(PersistentBigBoolean a, PersistentBigBoolean b) {
+        return apply(BitOperator.AND_NOT, a, b);
+    }
+
+    /**
+     * Computes {@code op(a, b)}. Subtrees that both operands share, or where one operand is empty or full,
+     * are resolved by identity without visiting their words, and are shared with the result where possible.
+     *
+     * @param op the operator to apply
+     * @param a the first operand
+     * @param b the second operand
+     * @return a new PersistentBigBoolean holding the result
+     * @throws AssertionError if the dimensions of the operands are not equal
+     */
+    public static PersistentBigBoolean apply(BitOperator op, PersistentBigBoolean a, PersistentBigBoolean b) {
+        if (a.dimension != b.dimension) {
+            throw new AssertionError("a.dimension != b.dimension");
+        }
+
+        Object root = apply(op, a.root, b.root, a.height);
+        return new PersistentBigBoolean(op.fillsPadding() ? a.trim(root) : root, a.height, a.dimension);
+    }
+
+    /**
+     * Flips all boolean values.
+     *
+     * @return a new PersistentBigBoolean holding the complement
+     */
+    public PersistentBigBoolean complement() {
+        return new PersistentBigBoolean(trim(complement(root, height)), height, dimension);
+    }
+
+    private static int heightFor(int dimension) {
+        int leaves = ((BigBoolean.wordsFor(dimension) - 1) >>> LEAF_SHIFT) + 1;
+        int height = 0;
+        while (height < MAX_HEIGHT && (long) leaves > 1L << (FANOUT_SHIFT * height)) {
+            height++;
+        }
+
+        return height;
+    }
+
+    private static int child(int leaf, int level) {
+        return (leaf >>> (FANOUT_SHIFT * (level - 1))) & (FANOUT - 1);
+    }
+
+    private static Object with(Object node, int level, int index, boolean value) {
+        int word = index >>> 6;
+        if (level == 0) {
+            long[] words = node == null ? new long[LEAF_WORDS] : ((long[]) node).clone();
+            int i = word & (LEAF_WORDS - 1);
+            words[i] = value ? words[i] | (1L << index) : words[i] & ~(1L << index);
+            return normalize(words);
+        }
+
+        Object[] children = node == null ? new Object[FANOUT] : ((Object[]) node).clone();
+        int c = child(word >>> LEAF_SHIFT, level);
+        children[c] = with(children[c], level - 1, index, value);
+        return normalize(children, level);
+    }
+
+    private static Object build(long[] words, int firstLeaf, int level) {
+        if (level == 0) {
+            int from = firstLeaf << LEAF_SHIFT;
+            if (from >= words.length) {
+                return null;
+            }
+
+            long[] leaf = new long[LEAF_WORDS];
+            System.arraycopy(words, from, leaf, 0, Math.min(LEAF_WORDS, words.length - from));
+            return normalize(leaf);
+        }
+
+        Object[] children = new Object[FANOUT];
+        int span = 1 << (FANOUT_SHIFT * (level - 1));
+        for (int c = 0; c < FANOUT; c++) {
+            children[c] = build(words, firstLeaf + c * span, level - 1);
+        }
+
+        return normalize(children, level);
+    }
+
+    private static void copy(Object node, int level, int firstLeaf, long[] payload) {
+        if (node == null) {
+            return;
+        }
+
+        if (level == 0) {
+            int from = firstLeaf << LEAF_SHIFT;
+            System.arraycopy((long[]) node, 0, payload, from, Math.min(LEAF_WORDS, payload.length - from));
+            return;
+        }
+
+        Object[] children = (Object[]) node;
+        int span = 1 << (FANOUT_SHIFT * (level - 1));
+        for (int c = 0; c < FANOUT && ((firstLeaf + c * span) << LEAF_SHIFT) < payload.length; c++) {
+            copy(children[c], level - 1, firstLeaf + c * span, payload);
+        }
+    }
+
+    private static long count(Object node, int level) {
+        if (node == null) {
+            return 0;
+        }
+
+        if (node == FULL[level]) {
+            return (long) LEAF_WORDS * 64 << (FANOUT_SHIFT * level);
+        }
+
+        if (level == 0) {
+            return BitKernels.popCount((long[]) node, 0, LEAF_WORDS);
+        }
+
+        long count = 0;
+        for (Object child : (Object[]) node) {
+            count += count(child, level - 1);
+        }
+
+        return count;
+    }
+
+    private static Object apply(BitOperator op, Object a, Object b, int level) {
+        // with one operand known, op is one of x, NOT x, false or true per bit of the other operand
+        if (a == b) {
+            return unary(op.apply(0, 0), op.apply(-1L, -1L), a, level);
+        }
+
+        if (a == null) {
+            return unary(op.apply(0, 0), op.apply(0, -1L), b, level);
+        }
+
+        if (b == null) {
+            return unary(op.apply(0, 0), op.apply(-1L, 0), a, level);
+        }
+
+        if (a == FULL[level]) {
+            return unary(op.apply(-1L, 0), op.apply(-1L, -1L), b, level);
+        }
+
+        if (b == FULL[level]) {
+            return unary(op.apply(0, -1L), op.apply(-1L, -1L), a, level);
+        }
+
+        if (level == 0) {
+            long[] words = new long[LEAF_WORDS];
+            BitKernels.apply(op, (long[]) a, (long[]) b, words, 0, LEAF_WORDS);
+            return normalize(words);
+        }
+
+        Object[] left = (Object[]) a;
+        Object[] right = (Object[]) b;
+        Object[] children = new Object[FANOUT];
+        for (int c = 0; c < FANOUT; c++) {
+            children[c] = apply(op, left[c], right[c], level - 1);
+        }
+
+        return normalize(children, level);
+    }
+
+    /**
+     * @param ifFalse the result for a false value of the node, 0 or -1
+     * @param ifTrue the result for a true value of the node, 0 or -1
+     */
+    private static Object unary(long ifFalse, long ifTrue, Object node, int level) {
+        if (ifFalse == ifTrue) {
+            return ifFalse == 0 ? null : FULL[level];
+        }
+
+        return ifTrue == -1L ? node : complement(node, level);
+    }
+
+    private static Object complement(Object node, int level) {
+        if (node == null) {
+            return FULL[level];
+        }
+
+        if (node == FULL[level]) {
+            return null;
+        }
+
+        if (level == 0) {
+            long[] words = new long[LEAF_WORDS];
+            BitKernels.complement((long[]) node, words, 0, LEAF_WORDS);
+            return normalize(words);
+        }
+
+        Object[] children = new Object[FANOUT];
+        for (int c = 0; c < FANOUT; c++) {
+            children[c] = complement(((Object[]) node)[c], level - 1);
+        }
+
+        return normalize(children, level);
+    }
+
+    /**
+     * Clears everything past the last value, after an operation that may have set it.
+     */
+    private Object trim(Object root) {
+        int lastWord = BigBoolean.wordsFor(dimension) - 1;
+        long lastMask = (1L << (dimension - lastWord * 64)) - 1;
+        return trim(root, height, lastWord, lastMask);
+    }
+
+    private static Object trim(Object node, int level, int lastWord, long lastMask) {
+        if (node == null) {
+            return null;
+        }
+
+        if (level == 0) {
+            long[] words = ((long[]) node).clone();
+            int last = lastWord & (LEAF_WORDS - 1);
+            Arrays.fill(words, last + 1, LEAF_WORDS, 0L);
+            words[last] &= lastMask;
+            return normalize(words);
+        }
+
+        Object[] children = ((Object[]) node).clone();
+        int last = child(lastWord >>> LEAF_SHIFT, level);
+        Arrays.fill(children, last + 1, FANOUT, null);
+        children[last] = trim(children[last], level - 1, lastWord, lastMask);
+        return normalize(children, level);
+    }
+
+    /**
+     * Keeps the tree canonical: an empty leaf becomes null and a full one the shared full leaf,
+     * so that equal subtrees of these kinds are always identical.
+     */
+    private static Object normalize(long[] words) {
+        long and = -1L;
+        long or = 0;
+        for (long word : words) {
+            and &= word;
+            or |= word;
+        }
+
+        return or == 0 ? null : and == -1L ? FULL[0] : words;
+    }
+
+    private static Object normalize(Object[] children, int level) {
+        boolean empty = true;
+        boolean full = true;
+        for (Object child : children) {
+            empty &= child == null;
+            full &= child == FULL[level - 1];
+        }
+
+        return empty ? null : full ? FULL[level] : children;
+    }
+
+    private static boolean equal(Object a, Object b, int level) {
+        if (a == b) {
+            return true;
+        }
+
+        // the tree is canonical, so an empty or full subtree is never equal to anything but itself
+        if (a == null || b == null || a == FULL[level] || b == FULL[level]) {
+            return false;
+        }
+
+        if (level == 0) {
+            return Arrays.equals((long[]) a, (long[]) b);
+        }
+
+        Object[] left = (Object[]) a;
+        Object[] right = (Object[]) b;
+        for (int c = 0; c < FANOUT; c++) {
+            if (!equal(left[c], right[c], level - 1)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int hash(Object node, int level) {
+        if (node == null) {
+            return 0;
+        }
+
+        if (node == FULL[level]) {
+            return FULL_HASH[level];
+        }
+
+        if (level == 0) {
+            return Arrays.hashCode((long[]) node);
+        }
+
+        int hash = 1;
+        for (Object child : (Object[]) node) {
+            hash = 31 * hash + hash(child, level - 1);
+        }
+
+        return hash;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= dimension) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for dimension " + dimension);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toBigBoolean().toString();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+
+        PersistentBigBoolean other = (PersistentBigBoolean) obj;
+        return dimension == other.dimension && equal(root, other.root, height);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * hash(root, height) + dimension;
+    }
+
+}
@@ -0,0 +1,109 @@
+package bot.staro.booleans;
+
+/**
+ * A succinct rank directory over a packed bit vector.
+ * It stores the number of set bits in front of every block of {@link #BLOCK_WORDS} words,
+ * which costs one int per 1024 bits (about 3% of the vector) and answers rank in one
+ * lookup plus at most 15 popcounts, and select in a binary search plus one block scan.
+ * <p>
+ * The directory is a snapshot: it has to be rebuilt whenever the words change.
+ *
+ * @author St4ro.
+ */
+final class RankDirectory {
+    static final int BLOCK_WORDS = 16;
+    private static final int BLOCK_SHIFT = 4;
+
+    // counts[b] is the number of set bits in words [0, b * BLOCK_WORDS)
+    private final int[] counts;
+
+    RankDirectory(long[] words) {
+        int blocks = (words.length + BLOCK_WORDS - 1) >>> BLOCK_SHIFT;
+        counts = new int[blocks + 1];
+        int total = 0;
+        for (int b = 0; b < blocks; b++) {
+            counts[b] = total;
+            int from = b << BLOCK_SHIFT;
+            total += (int) BitKernels.popCount(words, from, Math.min(from + BLOCK_WORDS, words.length));
+        }
+
+        counts[blocks] = total;
+    }
+
+    /**
+     * @return the number of set bits in the whole vector
+     */
+    int cardinality() {
+        return counts[counts.length - 1];
+    }
+
+    /**
+     * @return the number of set bits in {@code [0, index)}
+     */
+    int rank(long[] words, int index) {
+        int word = index >>> 6;
+        int block = word >>> BLOCK_SHIFT;
+        int count = counts[block];
+        for (int i = block << BLOCK_SHIFT; i < word; i++) {
+            count += Long.bitCount(words[i]);
+        }
+
+        int bit = index & 63;
+        if (bit != 0) {
+            count += Long.bitCount(words[word] & ((1L << bit) - 1));
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the index of the set bit with the given rank, or -1 if there are not enough set bits
+     */
+    int select(long[] words, int k) {
+        if (k < 0 || k >= cardinality()) {
+            return -1;
+        }
+
+        // find the last block that starts with at most k set bits in front of it
+        int low = 0;
+        int high = counts.length - 2;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (counts[mid] <= k) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        int remaining = k - counts[low];
+        for (int i = low << BLOCK_SHIFT; ; i++) {
+            int c = Long.bitCount(words[i]);
+            if (remaining < c) {
+                return (i << 6) + selectInWord(words[i], remaining);
+            }
+
+            remaining -= c;
+        }
+    }
+
+    /**
+     * @return the position of the set bit with the given rank inside a single word
+     */
+    static int selectInWord(long word, int k) {
+        for (int shift = 0; ; shift += 8) {
+            long b = (word >>> shift) & 0xFFL;
+            int c = Long.bitCount(b);
+            if (k < c) {
+                for (; k > 0; k--) {
+                    b &= b - 1;
+                }
+
+                return shift + Long.numberOfTrailingZeros(b);
+            }
+
+            k -= c;
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package bot.staro.booleans;
+
+/**
+ * One 2^16 bit chunk of a {@link CompressedBigBoolean}.
+ * Values inside a container are the low 16 bits of an index, stored as unsigned chars.
+ * There are three representations, and {@link #optimize()} picks the smallest one:
+ * <ul>
+ *     <li>{@link ArrayContainer} - a sorted array of the set values, for sparse chunks</li>
+ *     <li>{@link BitmapContainer} - 1024 plain words, for dense chunks</li>
+ *     <li>{@link RunContainer} - sorted runs of consecutive set values, for clustered chunks</li>
+ * </ul>
+ * {@link #add} and {@link #remove} modify the container and return the container that now
+ * holds the values, which may be a new one. The set operations never modify their operands.
+ *
+ * @author St4ro.
+ */
+abstract class RoaringContainer {
+    static final int BITS = 1 << 16;
+    static final int WORDS = BITS / 64;
+    static final int BITMAP_BYTES = WORDS * 8;
+
+    abstract int cardinality();
+
+    abstract boolean contains(char value);
+
+    abstract RoaringContainer add(char value);
+
+    abstract RoaringContainer remove(char value);
+
+    abstract RoaringContainer copy();
+
+    /**
+     * @return the number of runs of consecutive set values
+     */
+    abstract int numberOfRuns();
+
+    /**
+     * @return a bitmap holding the same values, which may be this container
+     */
+    abstract BitmapContainer toBitmap();
+
+    /**
+     * ORs the values of this container into a dense payload. Words beyond the payload are skipped.
+     *
+     * @param words the dense payload
+     * @param offset the index of the word holding value 0 of this container
+     */
+    abstract void writeTo(long[] words, int offset);
+
+    abstract RoaringContainer and(RoaringContainer other);
+
+    abstract RoaringContainer or(RoaringContainer other);
+
+    /**
+     * @param limit the number of values this container covers, at most {@link #BITS}
+     * @return the complement of this container within {@code [0, limit)}
+     */
+    abstract RoaringContainer not(int limit);
+
+    /**
+     * Picks the representation that needs the fewest bytes for the values of this container.
+     *
+     * @return the optimized container, which may be this one
+     */
+    RoaringContainer optimize() {
+        int cardinality = cardinality();
+        int runBytes = 4 * numberOfRuns();
+        int arrayBytes = 2 * cardinality;
+        if (runBytes < Math.min(arrayBytes, BITMAP_BYTES)) {
+            return this instanceof RunContainer ? this : toBitmap().toRuns();
+        }
+
+        if (cardinality <= ArrayContainer.MAX_SIZE) {
+            return this instanceof ArrayContainer ? this : toBitmap().toArray();
+        }
+
+        return toBitmap();
+    }
+
+    /**
+     * @return true if both containers hold the same values, whatever their representation
+     */
+    boolean contentEquals(RoaringContainer other) {
+        if (cardinality() != other.cardinality()) {
+            return false;
+        }
+
+        return and(other).cardinality() == cardinality();
+    }
+
+    /**
+     * @return an estimate of the heap bytes used by this container
+     */
+    abstract int sizeInBytes();
+
+    /**
+     * Sets the values {@code [from, to]} in a dense payload.
+     */
+    static void setRange(long[] words, int offset, int from, int to) {
+        int first = from >>> 6;
+        int last = to >>> 6;
+        for (int w = first; w <= last && offset + w < words.length; w++) {
+            long mask = -1L;
+            if (w == first) {
+                mask &= -1L << from;
+            }
+
+            if (w == last) {
+                mask &= -1L >>> (63 - (to & 63));
+            }
+
+            words[offset + w] |= mask;
+        }
+    }
+
+}
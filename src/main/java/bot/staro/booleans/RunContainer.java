@@ -0,0 +1,254 @@
+package bot.staro.booleans;
+
+import java.util.Arrays;
+
+/**
+ * A {@link RoaringContainer} storing its values as sorted, non-adjacent runs.
+ * Run i starts at {@code runs[2 * i]} and covers {@code runs[2 * i + 1] + 1} values.
+ *
+ * @author St4ro.
+ */
+final class RunContainer extends RoaringContainer {
+    private char[] runs;
+    private int count;
+
+    RunContainer(char[] runs, int count) {
+        this.runs = runs;
+        this.count = count;
+    }
+
+    private int start(int run) {
+        return runs[2 * run];
+    }
+
+    private int end(int run) {
+        return runs[2 * run] + runs[2 * run + 1];
+    }
+
+    /**
+     * @return the index of the last run starting at or before value, or -1
+     */
+    private int find(int value) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (start(mid) <= value) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return high;
+    }
+
+    @Override
+    int cardinality() {
+        int cardinality = count;
+        for (int i = 0; i < count; i++) {
+            cardinality += runs[2 * i + 1];
+        }
+
+        return cardinality;
+    }
+
+    @Override
+    boolean contains(char value) {
+        int run = find(value);
+        return run >= 0 && value <= end(run);
+    }
+
+    @Override
+    RoaringContainer add(char value) {
+        int run = find(value);
+        if (run >= 0 && value <= end(run)) {
+            return this;
+        }
+
+        boolean joinsPrevious = run >= 0 && end(run) + 1 == value;
+        boolean joinsNext = run + 1 < count && start(run + 1) == value + 1;
+        if (joinsPrevious && joinsNext) {
+            runs[2 * run + 1] = (char) (end(run + 1) - start(run));
+            removeRun(run + 1);
+        } else if (joinsPrevious) {
+            runs[2 * run + 1]++;
+        } else if (joinsNext) {
+            runs[2 * (run + 1)] = value;
+            runs[2 * (run + 1) + 1]++;
+        } else {
+            insertRun(run + 1, value, 0);
+        }
+
+        return this;
+    }
+
+    @Override
+    RoaringContainer remove(char value) {
+        int run = find(value);
+        if (run < 0 || value > end(run)) {
+            return this;
+        }
+
+        int start = start(run);
+        int end = end(run);
+        if (start == end) {
+            removeRun(run);
+        } else if (value == start) {
+            runs[2 * run] = (char) (value + 1);
+            runs[2 * run + 1]--;
+        } else if (value == end) {
+            runs[2 * run + 1]--;
+        } else {
+            runs[2 * run + 1] = (char) (value - 1 - start);
+            insertRun(run + 1, value + 1, end - value - 1);
+        }
+
+        return this;
+    }
+
+    private void insertRun(int index, int start, int lengthMinusOne) {
+        if (2 * count + 2 > runs.length) {
+            runs = Arrays.copyOf(runs, Math.max(4, runs.length * 2));
+        }
+
+        System.arraycopy(runs, 2 * index, runs, 2 * index + 2, 2 * (count - index));
+        runs[2 * index] = (char) start;
+        runs[2 * index + 1] = (char) lengthMinusOne;
+        count++;
+    }
+
+    private void removeRun(int index) {
+        System.arraycopy(runs, 2 * index + 2, runs, 2 * index, 2 * (count - index - 1));
+        count--;
+    }
+
+    @Override
+    RoaringContainer copy() {
+        return new RunContainer(Arrays.copyOf(runs, Math.max(2 * count, 4)), count);
+    }
+
+    @Override
+    int numberOfRuns() {
+        return count;
+    }
+
+    @Override
+    BitmapContainer toBitmap() {
+        long[] words = new long[WORDS];
+        writeTo(words, 0);
+        return new BitmapContainer(words, cardinality());
+    }
+
+    @Override
+    void writeTo(long[] words, int offset) {
+        for (int i = 0; i < count; i++) {
+            setRange(words, offset, start(i), end(i));
+        }
+    }
+
+    @Override
+    RoaringContainer and(RoaringContainer other) {
+        if (!(other instanceof RunContainer run)) {
+            return other.and(this);
+        }
+
+        char[] result = new char[2 * (count + run.count)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < count && j < run.count) {
+            int start = Math.max(start(i), run.start(j));
+            int end = Math.min(end(i), run.end(j));
+            if (start <= end) {
+                result[2 * size] = (char) start;
+                result[2 * size + 1] = (char) (end - start);
+                size++;
+            }
+
+            if (end(i) < run.end(j)) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+
+        return new RunContainer(result, size);
+    }
+
+    @Override
+    RoaringContainer or(RoaringContainer other) {
+        if (other instanceof BitmapContainer) {
+            return other.or(this);
+        }
+
+        RunContainer run = other instanceof RunContainer r ? r : other.toBitmap().toRuns();
+        char[] result = new char[2 * (count + run.count)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < count || j < run.count) {
+            int start;
+            int end;
+            if (j == run.count || (i < count && start(i) <= run.start(j))) {
+                start = start(i);
+                end = end(i++);
+            } else {
+                start = run.start(j);
+                end = run.end(j++);
+            }
+
+            // merge with the previous run when they overlap or touch
+            if (size > 0 && start <= result[2 * (size - 1)] + result[2 * (size - 1) + 1] + 1) {
+                int previousStart = result[2 * (size - 1)];
+                int previousEnd = previousStart + result[2 * (size - 1) + 1];
+                result[2 * (size - 1) + 1] = (char) (Math.max(previousEnd, end) - previousStart);
+            } else {
+                result[2 * size] = (char) start;
+                result[2 * size + 1] = (char) (end - start);
+                size++;
+            }
+        }
+
+        return new RunContainer(result, size);
+    }
+
+    @Override
+    RoaringContainer not(int limit) {
+        char[] result = new char[2 * (count + 1)];
+        int size = 0;
+        int start = 0;
+        for (int i = 0; i < count && start(i) < limit; i++) {
+            if (start(i) > start) {
+                result[2 * size] = (char) start;
+                result[2 * size + 1] = (char) (start(i) - start - 1);
+                size++;
+            }
+
+            start = end(i) + 1;
+        }
+
+        if (start < limit) {
+            result[2 * size] = (char) start;
+            result[2 * size + 1] = (char) (limit - start - 1);
+            size++;
+        }
+
+        return new RunContainer(result, size);
+    }
+
+    @Override
+    boolean contentEquals(RoaringContainer other) {
+        if (other instanceof RunContainer run) {
+            return count == run.count && Arrays.equals(runs, 0, 2 * count, run.runs, 0, 2 * count);
+        }
+
+        return super.contentEquals(other);
+    }
+
+    @Override
+    int sizeInBytes() {
+        return 16 + 2 * runs.length;
+    }
+
+}
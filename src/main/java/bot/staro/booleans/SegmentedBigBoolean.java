@@ -0,0 +1,384 @@
+package bot.staro.booleans;
+
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A {@link BigBoolean} for more values than an int can count.
+ * The values are indexed with longs and stored in pages of {@link #PAGE_WORDS} words.
+ * Each page is 64KB, well below the G1 humongous object threshold, so even tens of
+ * billions of values are spread over ordinary heap objects instead of one giant array.
+ * <p>
+ * Every bulk operation runs page by page, which keeps the working set of a single step
+ * inside the cache. The {@code parallel} variants process the pages concurrently on the common pool.
+ *
+ * @author St4ro.
+ */
+public final class SegmentedBigBoolean {
+    /**
+     * The number of words in every page but the last one.
+     */
+    public static final int PAGE_WORDS = 1 << 13;
+    private static final int PAGE_SHIFT = 19;
+    private static final long PAGE_MASK = (1L << PAGE_SHIFT) - 1;
+
+    private final long[][] pages;
+    private final long dimension;
+
+    /**
+     * Creates a new SegmentedBigBoolean where every value is false.
+     *
+     * @param dimension the number of boolean values this SegmentedBigBoolean can hold
+     * @throws IllegalArgumentException if the dimension is negative or needs more than Integer.MAX_VALUE pages
+     */
+    public SegmentedBigBoolean(long dimension) {
+        if (dimension < 0 || (dimension >>> PAGE_SHIFT) >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported dimension: " + dimension);
+        }
+
+        this.dimension = dimension;
+        long words = (dimension + 63) >>> 6;
+        int pageCount = (int) ((words + PAGE_WORDS - 1) / PAGE_WORDS);
+        pages = new long[pageCount][];
+        for (int p = 0; p < pageCount; p++) {
+            // only the last page is cut to the words it actually needs
+            pages[p] = new long[(int) Math.min(PAGE_WORDS, words - (long) p * PAGE_WORDS)];
+        }
+    }
+
+    /**
+     * Copies the values of a BigBoolean into a new SegmentedBigBoolean.
+     *
+     * @param src the BigBoolean to copy
+     * @return a new SegmentedBigBoolean holding the same values
+     */
+    public static SegmentedBigBoolean fromBigBoolean(BigBoolean src) {
+        SegmentedBigBoolean ret = new SegmentedBigBoolean(src.getDimension());
+        long[] words = src.words();
+        for (int p = 0; p < ret.pages.length; p++) {
+            System.arraycopy(words, p * PAGE_WORDS, ret.pages[p], 0, ret.pages[p].length);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Copies the values of this SegmentedBigBoolean into a new BigBoolean.
+     *
+     * @return a new BigBoolean holding the same values
+     * @throws IllegalStateException if the dimension does not fit into a BigBoolean
+     */
+    public BigBoolean toBigBoolean() {
+        if (dimension > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Dimension " + dimension + " is too large for a BigBoolean");
+        }
+
+        long[] words = new long[BigBoolean.wordsFor((int) dimension)];
+        for (int p = 0; p < pages.length; p++) {
+            System.arraycopy(pages[p], 0, words, p * PAGE_WORDS, pages[p].length);
+        }
+
+        return new BigBoolean(words, (int) dimension);
+    }
+
+    /**
+     * Gets the boolean value at the specified index.
+     *
+     * @param index the index of the value, from 0 to dimension - 1
+     * @return the value at the index
+     * @throws IndexOutOfBoundsException if the index is outside of this SegmentedBigBoolean
+     */
+    public boolean getValue(long index) {
+        checkIndex(index);
+        return (pages[(int) (index >>> PAGE_SHIFT)][(int) ((index & PAGE_MASK) >>> 6)] & (1L << index)) != 0;
+    }
+
+    /**
+     * Sets the boolean value at the specified index.
+     *
+     * @param index the index of the value, from 0 to dimension - 1
+     * @param value the new value
+     * @throws IndexOutOfBoundsException if the index is outside of this SegmentedBigBoolean
+     */
+    public void setValue(long index, boolean value) {
+        checkIndex(index);
+        long[] page = pages[(int) (index >>> PAGE_SHIFT)];
+        int word = (int) ((index & PAGE_MASK) >>> 6);
+        if (value) {
+            page[word] |= 1L << index;
+        } else {
+            page[word] &= ~(1L << index);
+        }
+    }
+
+    /**
+     * @return the number of boolean values this SegmentedBigBoolean holds
+     */
+    public long getDimension() {
+        return dimension;
+    }
+
+    /**
+     * @return the number of pages the values are stored in
+     */
+    public int getPageCount() {
+        return pages.length;
+    }
+
+    /**
+     * Counts the values of this SegmentedBigBoolean that are true.
+     *
+     * @return the number of set bits
+     */
+    public long cardinality() {
+        long count = 0;
+        for (long[] page : pages) {
+            count += BitKernels.popCount(page, 0, page.length);
+        }
+
+        return count;
+    }
+
+    /**
+     * Counts the true values using one task per page.
+     *
+     * @return the number of set bits
+     */
+    public long parallelCardinality() {
+        return IntStream.range(0, pages.length).parallel()
+                .mapToLong(p -> BitKernels.popCount(pages[p], 0, pages[p].length))
+                .sum();
+    }
+
+    /**
+     * Finds the first true value at or after the specified index.
+     *
+     * @param fromIndex the index to start from
+     * @return the index of the next set bit, or -1 if there is none
+     */
+    public long nextSetBit(long fromIndex) {
+        if (fromIndex < 0) {
+            throw new IndexOutOfBoundsException("fromIndex < 0: " + fromIndex);
+        }
+
+        if (fromIndex >= dimension) {
+            return -1;
+        }
+
+        int p = (int) (fromIndex >>> PAGE_SHIFT);
+        int w = (int) ((fromIndex & PAGE_MASK) >>> 6);
+        long word = pages[p][w] & (-1L << fromIndex);
+        while (word == 0) {
+            if (++w == pages[p].length) {
+                if (++p == pages.length) {
+                    return -1;
+                }
+
+                w = 0;
+            }
+
+            word = pages[p][w];
+        }
+
+        return ((long) p << PAGE_SHIFT) + ((long) w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * Calls the action with the index of every true value in ascending order, without allocating.
+     *
+     * @param action the action to call for every set bit
+     */
+    public void forEachSetBit(LongConsumer action) {
+        for (int p = 0; p < pages.length; p++) {
+            long[] page = pages[p];
+            long base = (long) p << PAGE_SHIFT;
+            for (int w = 0; w < page.length; w++) {
+                long word = page[w];
+                while (word != 0) {
+                    action.accept(base + ((long) w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams the indexes of all true values in ascending order.
+     * A parallel stream processes the pages concurrently.
+     *
+     * @return a stream of the indexes of the set bits
+     */
+    public LongStream bits() {
+        return LongStream.range(0, pages.length).flatMap(p -> {
+            long[] page = pages[(int) p];
+            return StreamSupport.intStream(new SetBitSpliterator(page, 0, page.length), false)
+                    .mapToLong(i -> (p << PAGE_SHIFT) + i);
+        });
+    }
+
+    /**
+     * Performs a logical AND operation between two SegmentedBigBoolean objects.
+     *
+     * @param a the first SegmentedBigBoolean operand
+     * @param b the second SegmentedBigBoolean operand
+     * @return a new SegmentedBigBoolean containing the result of the AND operation
+     * @throws AssertionError if the dimensions of the operands are not equal
+     */
+    public static SegmentedBigBoolean conjunction(SegmentedBigBoolean a, SegmentedBigBoolean b) {
+        checkDimension(a, b);
+        return apply(BitOperator.AND, a, b, new SegmentedBigBoolean(a.dimension));
+    }
+
+    /**
+     * Returns the complement of this SegmentedBigBoolean.
+     *
+     * @return a new SegmentedBigBoolean containing the complement
+     */
+    public SegmentedBigBoolean complement() {
+        return complementInto(new SegmentedBigBoolean(dimension));
+    }
+
+    /**
+     * Applies a word operator page by page, writing the result into dest.
+     * The destination may be one of the operands.
+     *
+     * @param op the operator to apply
+     * @param a the first SegmentedBigBoolean operand
+     * @param b the second SegmentedBigBoolean operand
+     * @param dest the SegmentedBigBoolean receiving the result
+     * @return dest
+     * @throws AssertionError if the dimensions of the SegmentedBigBooleans are not equal
+     */
+    public static SegmentedBigBoolean apply(BitOperator op, SegmentedBigBoolean a, SegmentedBigBoolean b, SegmentedBigBoolean dest) {
+        checkDimension(a, b);
+        checkDimension(a, dest);
+        for (int p = 0; p < dest.pages.length; p++) {
+            BitKernels.apply(op, a.pages[p], b.pages[p], dest.pages[p], 0, dest.pages[p].length);
+        }
+
+        if (op.fillsPadding()) {
+            dest.maskPadding();
+        }
+
+        return dest;
+    }
+
+    /**
+     * Applies a word operator with one task per page on the common pool.
+     *
+     * @see #apply(BitOperator, SegmentedBigBoolean, SegmentedBigBoolean, SegmentedBigBoolean)
+     */
+    public static SegmentedBigBoolean parallelApply(BitOperator op, SegmentedBigBoolean a, SegmentedBigBoolean b, SegmentedBigBoolean dest) {
+        checkDimension(a, b);
+        checkDimension(a, dest);
+        IntStream.range(0, dest.pages.length).parallel()
+                .forEach(p -> BitKernels.apply(op, a.pages[p], b.pages[p], dest.pages[p], 0, dest.pages[p].length));
+        if (op.fillsPadding()) {
+            dest.maskPadding();
+        }
+
+        return dest;
+    }
+
+    /**
+     * Writes the complement of this SegmentedBigBoolean into dest.
+     * The destination may be this SegmentedBigBoolean.
+     *
+     * @param dest the SegmentedBigBoolean receiving the complement
+     * @return dest
+     * @throws AssertionError if the dimensions are not equal
+     */
+    public SegmentedBigBoolean complementInto(SegmentedBigBoolean dest) {
+        checkDimension(this, dest);
+        for (int p = 0; p < pages.length; p++) {
+            BitKernels.complement(pages[p], dest.pages[p], 0, pages[p].length);
+        }
+
+        dest.maskPadding();
+        return dest;
+    }
+
+    /**
+     * Writes the complement into dest with one task per page on the common pool.
+     *
+     * @see #complementInto(SegmentedBigBoolean)
+     */
+    public SegmentedBigBoolean parallelComplementInto(SegmentedBigBoolean dest) {
+        checkDimension(this, dest);
+        IntStream.range(0, pages.length).parallel()
+                .forEach(p -> BitKernels.complement(pages[p], dest.pages[p], 0, pages[p].length));
+        dest.maskPadding();
+        return dest;
+    }
+
+    private void maskPadding() {
+        int valid = (int) (dimension & 63);
+        if (pages.length > 0 && valid != 0) {
+            long[] last = pages[pages.length - 1];
+            last[last.length - 1] &= (1L << valid) - 1;
+        }
+    }
+
+    private void checkIndex(long index) {
+        if (index < 0 || index >= dimension) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for dimension " + dimension);
+        }
+    }
+
+    private static void checkDimension(SegmentedBigBoolean a, SegmentedBigBoolean b) {
+        if (a.dimension != b.dimension) {
+            throw new AssertionError("a.dimension != b.dimension");
+        }
+    }
+
+    /**
+     * Two SegmentedBigBoolean objects are equal if they have the same dimension and the same values.
+     *
+     * @param obj the object to compare with
+     * @return true if the objects are equal, false otherwise
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+
+        SegmentedBigBoolean other = (SegmentedBigBoolean) obj;
+        if (dimension != other.dimension) {
+            return false;
+        }
+
+        for (int p = 0; p < pages.length; p++) {
+            if (!BitKernels.equal(pages[p], other.pages[p], 0, pages[p].length)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns a hash code value for this SegmentedBigBoolean.
+     *
+     * @return a hash code value
+     */
+    @Override
+    public int hashCode() {
+        int result = 17;
+        result = 31 * result + Long.hashCode(dimension);
+        for (long[] page : pages) {
+            for (long value : page) {
+                result = 31 * result + Long.hashCode(value);
+            }
+        }
+
+        return result;
+    }
+
+}
@@ -0,0 +1,104 @@
+package bot.staro.booleans;
+
+/**
+ * A reusable iterator that copies the indexes of set bits into an {@code int[]} buffer in batches.
+ * Filling a buffer costs one call per batch instead of one callback per bit, and a single
+ * iterator can be {@link #reset(BigBoolean) reset} to walk another vector without allocating.
+ *
+ * <pre>
+ * int[] rows = new int[1024];
+ * SetBitIterator it = result.setBitIterator();
+ * for (int n; (n = it.next(rows)) != 0; ) {
+ *     process(rows, n);
+ * }
+ * </pre>
+ *
+ * The iterator reads the vector as it goes, so writes to it during the iteration may or may not be seen.
+ *
+ * @author St4ro.
+ */
+public final class SetBitIterator {
+    private long[] words;
+    private int index;
+    // the bits of words[index] that have not been reported yet
+    private long current;
+
+    /**
+     * Creates an iterator over the set bits of a BigBoolean.
+     *
+     * @param src the vector to iterate
+     */
+    public SetBitIterator(BigBoolean src) {
+        reset(src);
+    }
+
+    /**
+     * Restarts this iterator at the first set bit of a BigBoolean.
+     *
+     * @param src the vector to iterate, which may be a different one than before
+     * @return this iterator
+     */
+    public SetBitIterator reset(BigBoolean src) {
+        this.words = src.words();
+        this.index = 0;
+        this.current = words[0];
+        return this;
+    }
+
+    /**
+     * @return true if there is at least one more set bit
+     */
+    public boolean hasNext() {
+        while (current == 0) {
+            if (index + 1 >= words.length) {
+                return false;
+            }
+
+            current = words[++index];
+        }
+
+        return true;
+    }
+
+    /**
+     * Fills the buffer with the next indexes of set bits, in ascending order.
+     *
+     * @param buffer the buffer to fill
+     * @return the number of indexes written, 0 once the iteration is done
+     */
+    public int next(int[] buffer) {
+        return next(buffer, 0, buffer.length);
+    }
+
+    /**
+     * Writes up to length of the next indexes of set bits into the buffer, in ascending order.
+     *
+     * @param buffer the buffer to fill
+     * @param offset the first position of the buffer to write
+     * @param length the maximum number of indexes to write
+     * @return the number of indexes written, 0 once the iteration is done
+     */
+    public int next(int[] buffer, int offset, int length) {
+        int count = 0;
+        long word = current;
+        int i = index;
+        while (count < length) {
+            if (word == 0) {
+                if (i + 1 >= words.length) {
+                    break;
+                }
+
+                word = words[++i];
+                continue;
+            }
+
+            buffer[offset + count++] = (i << 6) + Long.numberOfTrailingZeros(word);
+            word &= word - 1;
+        }
+
+        index = i;
+        current = word;
+        return count;
+    }
+
+}
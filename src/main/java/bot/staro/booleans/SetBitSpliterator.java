@@ -0,0 +1,106 @@
+package bot.staro.booleans;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+
+/**
+ * A spliterator over the indexes of the set bits of a packed bit vector, in ascending order.
+ * It splits on cache line boundaries (8 words), so the halves of a parallel stream never touch
+ * the same line, and it finds set bits with {@link Long#numberOfTrailingZeros} instead of testing every bit.
+ *
+ * @author St4ro.
+ */
+final class SetBitSpliterator implements Spliterator.OfInt {
+    private static final int LINE_WORDS = 8;
+
+    private final long[] words;
+    private int index;
+    private final int end;
+    // the bits of words[index] that have not been reported yet
+    private long current;
+
+    /**
+     * @param words the payload to iterate
+     * @param from the first word to visit
+     * @param to the word after the last one to visit
+     */
+    SetBitSpliterator(long[] words, int from, int to) {
+        this.words = words;
+        this.index = from;
+        this.end = to;
+        this.current = from < to ? words[from] : 0;
+    }
+
+    @Override
+    public boolean tryAdvance(IntConsumer action) {
+        while (current == 0) {
+            if (++index >= end) {
+                return false;
+            }
+
+            current = words[index];
+        }
+
+        action.accept((index << 6) + Long.numberOfTrailingZeros(current));
+        current &= current - 1;
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(IntConsumer action) {
+        if (index >= end) {
+            return;
+        }
+
+        long word = current;
+        for (int i = index; ; ) {
+            while (word != 0) {
+                action.accept((i << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+
+            if (++i >= end) {
+                break;
+            }
+
+            word = words[i];
+        }
+
+        index = end;
+        current = 0;
+    }
+
+    @Override
+    public Spliterator.OfInt trySplit() {
+        // the word at index may be partly consumed, so only whole words after it are handed out
+        int from = index + 1;
+        int mid = (from + (end - from) / 2) & -LINE_WORDS;
+        if (mid <= from || mid >= end) {
+            return null;
+        }
+
+        SetBitSpliterator prefix = new SetBitSpliterator(words, index, mid);
+        prefix.current = current;
+        index = mid;
+        current = words[mid];
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        // assume half of the remaining bits are set
+        return (long) Math.max(0, end - index) * 32;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | DISTINCT | SORTED | NONNULL;
+    }
+
+    @Override
+    public Comparator<? super Integer> getComparator() {
+        return null;
+    }
+
+}
@@ -0,0 +1,266 @@
+package bot.staro.booleans;
+
+import java.util.Arrays;
+
+/**
+ * One boolean per tick for the last {@code window} ticks of a stream, such as "was the event seen in this tick".
+ * The values live in a ring of words in the layout of a {@link BigBoolean}: moving to the next tick only
+ * moves the head and clears the words that fall out of the window, so {@link #advance(long)} costs
+ * O(k / 64) and never allocates.
+ * <p>
+ * The queries read 64 ticks at a time, starting at any position of the ring, and count them with masked
+ * popcounts. Ticks before the first one count as false.
+ *
+ * @author St4ro.
+ */
+public final class SlidingWindowBoolean {
+    private final long[] words;
+    private final int window;
+    // the number of bits of the ring, a multiple of 64 and at least window
+    private final int capacity;
+    private long tick;
+
+    /**
+     * Creates a new SlidingWindowBoolean at tick 0, where every value of the window is false.
+     *
+     * @param window the number of most recent ticks to keep, the current one included
+     * @throws IllegalArgumentException if the window is smaller than 1
+     */
+    public SlidingWindowBoolean(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window < 1");
+        }
+
+        this.window = window;
+        this.words = new long[(window + 63) >>> 6];
+        this.capacity = words.length << 6;
+    }
+
+    /**
+     * @return the number of ticks in the window
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * @return the current tick, which is the number of ticks advanced so far
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Sets the value of the current tick to true.
+     */
+    public void set() {
+        setValue(0, true);
+    }
+
+    /**
+     * Sets the value of a tick in the window.
+     *
+     * @param ticksAgo 0 for the current tick, up to window - 1 for the oldest one
+     * @param value the new value
+     * @throws IndexOutOfBoundsException if the tick is outside of the window
+     */
+    public void setValue(int ticksAgo, boolean value) {
+        int position = position(ticksAgo);
+        if (value) {
+            words[position >>> 6] |= 1L << position;
+        } else {
+            words[position >>> 6] &= ~(1L << position);
+        }
+    }
+
+    /**
+     * Gets the value of a tick in the window.
+     *
+     * @param ticksAgo 0 for the current tick, up to window - 1 for the oldest one
+     * @return the value of the tick
+     * @throws IndexOutOfBoundsException if the tick is outside of the window
+     */
+    public boolean getValue(int ticksAgo) {
+        int position = position(ticksAgo);
+        return (words[position >>> 6] & (1L << position)) != 0;
+    }
+
+    /**
+     * Moves to the next tick, whose value starts out false.
+     */
+    public void advance() {
+        advance(1);
+    }
+
+    /**
+     * Moves k ticks ahead. The values of all skipped ticks and of the new current tick start out false.
+     *
+     * @param k the number of ticks to move
+     * @throws IllegalArgumentException if k is negative
+     */
+    public void advance(long k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k < 0");
+        }
+
+        if (k >= capacity) {
+            Arrays.fill(words, 0L);
+        } else if (k > 0) {
+            int from = (int) ((tick + 1) % capacity);
+            int to = from + (int) k;
+            if (to <= capacity) {
+                clear(from, to);
+            } else {
+                clear(from, capacity);
+                clear(0, to - capacity);
+            }
+        }
+
+        tick += k;
+    }
+
+    /**
+     * @return the number of ticks in the window whose value is true
+     */
+    public int cardinalityInWindow() {
+        return cardinalityInLast(window);
+    }
+
+    /**
+     * Counts the true values of the most recent ticks.
+     *
+     * @param m the number of ticks to look at, the current one included
+     * @return the number of true values among them
+     * @throws IllegalArgumentException if m is not between 0 and the window
+     */
+    public int cardinalityInLast(int m) {
+        checkLength(m);
+        int position = start(m);
+        int count = 0;
+        for (int remaining = m; remaining > 0; remaining -= 64) {
+            count += Long.bitCount(chunk(position) & mask(remaining));
+            position = next(position);
+        }
+
+        return count;
+    }
+
+    /**
+     * @param m the number of ticks to look at, the current one included
+     * @return true if at least one of the m most recent ticks is true
+     * @throws IllegalArgumentException if m is not between 0 and the window
+     */
+    public boolean anyInLast(int m) {
+        checkLength(m);
+        int position = start(m);
+        for (int remaining = m; remaining > 0; remaining -= 64) {
+            if ((chunk(position) & mask(remaining)) != 0) {
+                return true;
+            }
+
+            position = next(position);
+        }
+
+        return false;
+    }
+
+    /**
+     * @param m the number of ticks to look at, the current one included
+     * @return true if all of the m most recent ticks are true, which holds for m = 0
+     * @throws IllegalArgumentException if m is not between 0 and the window
+     */
+    public boolean allInLast(int m) {
+        checkLength(m);
+        int position = start(m);
+        for (int remaining = m; remaining > 0; remaining -= 64) {
+            long mask = mask(remaining);
+            if ((chunk(position) & mask) != mask) {
+                return false;
+            }
+
+            position = next(position);
+        }
+
+        return true;
+    }
+
+    /**
+     * Copies the window into a new BigBoolean, from the oldest tick at index 0 to the current tick at index window - 1.
+     *
+     * @return a new BigBoolean of dimension window
+     */
+    public BigBoolean toBigBoolean() {
+        BigBoolean ret = new BigBoolean(window);
+        long[] dst = ret.words();
+        int position = start(window);
+        for (int i = 0; i << 6 < window; i++) {
+            dst[i] = chunk(position) & mask(window - (i << 6));
+            position = next(position);
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return the position in the ring of the oldest of the m most recent ticks
+     */
+    private int start(int m) {
+        return (int) Math.floorMod(tick - m + 1, (long) capacity);
+    }
+
+    private int position(int ticksAgo) {
+        if (ticksAgo < 0 || ticksAgo >= window) {
+            throw new IndexOutOfBoundsException("Index " + ticksAgo + " out of bounds for dimension " + window);
+        }
+
+        return start(ticksAgo + 1);
+    }
+
+    private int next(int position) {
+        position += 64;
+        return position >= capacity ? position - capacity : position;
+    }
+
+    /**
+     * Reads the 64 ticks starting at a position, wrapping around the end of the ring.
+     */
+    private long chunk(int position) {
+        int word = position >>> 6;
+        int offset = position & 63;
+        if (offset == 0) {
+            return words[word];
+        }
+
+        long high = words[word + 1 == words.length ? 0 : word + 1];
+        return (words[word] >>> offset) | (high << (64 - offset));
+    }
+
+    /**
+     * Clears the positions {@code [from, to)}, with {@code to <= capacity}.
+     */
+    private void clear(int from, int to) {
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (first == last) {
+            words[first] &= ~(firstMask & lastMask);
+            return;
+        }
+
+        words[first] &= ~firstMask;
+        Arrays.fill(words, first + 1, last, 0L);
+        words[last] &= ~lastMask;
+    }
+
+    private static long mask(int remaining) {
+        return remaining >= 64 ? -1L : (1L << remaining) - 1;
+    }
+
+    private void checkLength(int m) {
+        if (m < 0 || m > window) {
+            throw new IllegalArgumentException("m must be between 0 and " + window + ", got " + m);
+        }
+    }
+
+}
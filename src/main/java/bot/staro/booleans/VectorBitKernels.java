@@ -0,0 +1,163 @@
+package bot.staro.booleans;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD versions of the {@link BitKernels} loops, built on the incubating Vector API.
+ * This class is only touched by {@link BitKernels} after it has verified that the
+ * {@code jdk.incubator.vector} module is present, so it must not be referenced from anywhere else.
+ * Every loop handles the part of the range that fills whole vectors and leaves the tail to the scalar loops.
+ *
+ * @author St4ro.
+ */
+final class VectorBitKernels {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final VectorSpecies<Short> CHAR_SPECIES = ShortVector.SPECIES_PREFERRED;
+
+    private VectorBitKernels() {
+    }
+
+    /**
+     * @return true if the preferred species of this host is wider than a single long
+     */
+    static boolean isUsable() {
+        return LANES > 1;
+    }
+
+    /**
+     * Vectorized {@link BitKernels#apply}. The operators are written out per loop because
+     * the Vector API only compiles to SIMD instructions when the lane operation is a constant.
+     *
+     * @return the index of the first word that was not processed
+     */
+    static int apply(BitOperator op, long[] a, long[] b, long[] dst, int from, int to) {
+        int upper = vectorEnd(from, to);
+        int i = from;
+        switch (op) {
+            case AND -> {
+                for (; i < upper; i += LANES) {
+                    LongVector.fromArray(SPECIES, a, i).and(LongVector.fromArray(SPECIES, b, i)).intoArray(dst, i);
+                }
+            }
+            case OR -> {
+                for (; i < upper; i += LANES) {
+                    LongVector.fromArray(SPECIES, a, i).or(LongVector.fromArray(SPECIES, b, i)).intoArray(dst, i);
+                }
+            }
+            case XOR -> {
+                for (; i < upper; i += LANES) {
+                    LongVector.fromArray(SPECIES, a, i)
+                            .lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, b, i)).intoArray(dst, i);
+                }
+            }
+            case AND_NOT -> {
+                for (; i < upper; i += LANES) {
+                    LongVector.fromArray(SPECIES, a, i)
+                            .lanewise(VectorOperators.AND_NOT, LongVector.fromArray(SPECIES, b, i)).intoArray(dst, i);
+                }
+            }
+            case NAND -> {
+                for (; i < upper; i += LANES) {
+                    LongVector.fromArray(SPECIES, a, i).and(LongVector.fromArray(SPECIES, b, i)).not().intoArray(dst, i);
+                }
+            }
+            case NOR -> {
+                for (; i < upper; i += LANES) {
+                    LongVector.fromArray(SPECIES, a, i).or(LongVector.fromArray(SPECIES, b, i)).not().intoArray(dst, i);
+                }
+            }
+            case IMPLIES -> {
+                for (; i < upper; i += LANES) {
+                    LongVector.fromArray(SPECIES, a, i).not().or(LongVector.fromArray(SPECIES, b, i)).intoArray(dst, i);
+                }
+            }
+            case EQUIVALENCE -> {
+                for (; i < upper; i += LANES) {
+                    LongVector.fromArray(SPECIES, a, i)
+                            .lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, b, i)).not().intoArray(dst, i);
+                }
+            }
+        }
+
+        return upper;
+    }
+
+    /**
+     * Vectorized {@link BitKernels#complement}.
+     *
+     * @return the index of the first word that was not processed
+     */
+    static int complement(long[] src, long[] dst, int from, int to) {
+        int upper = vectorEnd(from, to);
+        for (int i = from; i < upper; i += LANES) {
+            LongVector.fromArray(SPECIES, src, i).not().intoArray(dst, i);
+        }
+
+        return upper;
+    }
+
+    /**
+     * @return the end of the part of {@code [from, to)} that fills whole vectors
+     */
+    static int vectorEnd(int from, int to) {
+        return from + SPECIES.loopBound(to - from);
+    }
+
+    /**
+     * Counts the set bits with a SWAR popcount per lane, which only needs shifts,
+     * masks and adds and therefore vectorizes on every SIMD level.
+     *
+     * @param upper the end of the range, as returned by {@link #vectorEnd}
+     * @return the number of set bits in {@code [from, upper)}
+     */
+    static long popCount(long[] words, int from, int upper) {
+        LongVector sum = LongVector.zero(SPECIES);
+        for (int i = from; i < upper; i += LANES) {
+            LongVector x = LongVector.fromArray(SPECIES, words, i);
+            x = x.sub(x.lanewise(VectorOperators.LSHR, 1).and(0x5555555555555555L));
+            x = x.and(0x3333333333333333L).add(x.lanewise(VectorOperators.LSHR, 2).and(0x3333333333333333L));
+            x = x.add(x.lanewise(VectorOperators.LSHR, 4)).and(0x0f0f0f0f0f0f0f0fL);
+            x = x.add(x.lanewise(VectorOperators.LSHR, 8));
+            x = x.add(x.lanewise(VectorOperators.LSHR, 16));
+            x = x.add(x.lanewise(VectorOperators.LSHR, 32)).and(0x7fL);
+            sum = sum.add(x);
+        }
+
+        return sum.reduceLanes(VectorOperators.ADD);
+    }
+
+    /**
+     * Compares the vector part of two ranges.
+     *
+     * @return the index of the first word that was not compared, or -1 if a difference was found
+     */
+    static int mismatch(long[] a, long[] b, int from, int to) {
+        int upper = vectorEnd(from, to);
+        for (int i = from; i < upper; i += LANES) {
+            if (LongVector.fromArray(SPECIES, a, i).compare(VectorOperators.NE, LongVector.fromArray(SPECIES, b, i)).anyTrue()) {
+                return -1;
+            }
+        }
+
+        return upper;
+    }
+
+    /**
+     * Packs 64 '0'/'1' characters into a word, bit j being {@code chars[offset + j] == '1'}.
+     * Each compare produces one mask bit per lane, which {@code toLong()} hands back as a bit field.
+     */
+    static long packChars(char[] chars, int offset) {
+        int lanes = CHAR_SPECIES.length();
+        long word = 0;
+        for (int i = 0; i < 64; i += lanes) {
+            word |= ShortVector.fromCharArray(CHAR_SPECIES, chars, offset + i).compare(VectorOperators.EQ, (short) '1').toLong() << i;
+        }
+
+        return word;
+    }
+
+}
@@ -0,0 +1,316 @@
+package bot.staro.booleans;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The background writer behind cached disk booleans. A setter only changes memory and queues its
+ * {@link Target}; a single daemon thread drains everything queued so far, writes every target once
+ * with its latest state, and then forces every {@link Target#device() device} that needs it once.
+ * Writers that arrive while a force is running are collected into the next batch, so a burst of
+ * concurrent writers shares one fsync per device (group commit), no matter how many of them there are.
+ * Cached DiskBooleans all live in one shared file, so a burst over any number of them costs one fsync.
+ *
+ * @author St4ro.
+ */
+final class WriteBehind {
+    private static final BlockingQueue<Target> QUEUE = new LinkedBlockingQueue<>();
+
+    static {
+        Thread writer = new Thread(WriteBehind::run, "DiskBoolean writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private WriteBehind() {
+    }
+
+    /**
+     * Something with in-memory state that the writer brings to disk. All bookkeeping is guarded by the target itself.
+     */
+    abstract static class Target {
+        private final DiskBoolean.Durability durability;
+        // tickets: every change takes the next one, and the writer records how far it got
+        private long requested;
+        private long written;
+        private long forced;
+        private boolean queued;
+        private boolean forceRequested;
+        private boolean scheduled;
+        private long forceAt;
+        private IOException failure;
+        // SYNC changes of changedAsync callers, in ticket order, completed once their ticket is forced
+        private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+        Target(DiskBoolean.Durability durability) {
+            this.durability = durability;
+        }
+
+        /**
+         * Writes the current state, without forcing it. Only ever called by the writer thread.
+         */
+        abstract void write() throws IOException;
+
+        /**
+         * Forces everything written so far to the device. Only ever called by the writer thread.
+         */
+        abstract void force() throws IOException;
+
+        /**
+         * @return the device that {@link #force()} forces; one force covers every target with the same device
+         */
+        Object device() {
+            return this;
+        }
+
+        /**
+         * Queues a write of the state after a change. With {@link DiskBoolean.Durability#SYNC}, waits until the change is forced.
+         *
+         * @throws IOException if an earlier write of this target failed
+         */
+        final void changed() throws IOException {
+            synchronized (this) {
+                rethrow();
+                long ticket = ++requested;
+                enqueue();
+                if (durability.forceMillis == 0) {
+                    await(ticket);
+                }
+            }
+        }
+
+        /**
+         * Queues a write of the state after a change, without ever waiting.
+         *
+         * @return a future completed once the change is forced with {@link DiskBoolean.Durability#SYNC}, at once otherwise,
+         * or failed with the IOException of an earlier or later write. It completes on the common pool, never on the writer.
+         */
+        final CompletableFuture<Void> changedAsync() {
+            synchronized (this) {
+                if (failure != null) {
+                    return CompletableFuture.failedFuture(new IOException("An earlier write failed", failure));
+                }
+
+                long ticket = ++requested;
+                enqueue();
+                if (durability.forceMillis != 0) {
+                    return CompletableFuture.completedFuture(null);
+                }
+
+                Waiter waiter = new Waiter(ticket);
+                waiters.add(waiter);
+                return waiter.future;
+            }
+        }
+
+        /**
+         * Writes and forces every change made so far, whatever the durability.
+         *
+         * @throws IOException if a write or the force failed
+         */
+        final void flush() throws IOException {
+            synchronized (this) {
+                rethrow();
+                long ticket = requested;
+                if (forced >= ticket) {
+                    return;
+                }
+
+                forceRequested = true;
+                enqueue();
+                await(ticket);
+            }
+        }
+
+        private void enqueue() {
+            if (!queued) {
+                queued = true;
+                QUEUE.add(this);
+            }
+        }
+
+        private void await(long ticket) throws IOException {
+            while (forced < ticket && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a disk write");
+                }
+            }
+
+            rethrow();
+        }
+
+        private void rethrow() throws IOException {
+            if (failure != null) {
+                throw new IOException("An earlier write failed", failure);
+            }
+        }
+
+        private void fail(IOException e) {
+            List<Waiter> failed;
+            synchronized (this) {
+                failure = e;
+                notifyAll();
+                failed = new ArrayList<>(waiters);
+                waiters.clear();
+            }
+
+            for (Waiter waiter : failed) {
+                waiter.future.completeAsync(() -> {
+                    throw new CompletionException(e);
+                });
+            }
+        }
+
+        /**
+         * Removes the waiters whose changes are forced. Must hold the lock of the target.
+         */
+        private List<Waiter> forcedWaiters() {
+            List<Waiter> ret = new ArrayList<>();
+            while (!waiters.isEmpty() && waiters.peek().ticket <= forced) {
+                ret.add(waiters.poll());
+            }
+
+            return ret;
+        }
+    }
+
+    private static final class Waiter {
+        private final long ticket;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Waiter(long ticket) {
+            this.ticket = ticket;
+        }
+    }
+
+    private static void run() {
+        List<Target> batch = new ArrayList<>();
+        PriorityQueue<Target> periodic = new PriorityQueue<>((a, b) -> Long.compare(a.forceAt, b.forceAt));
+        while (true) {
+            try {
+                Target first = periodic.isEmpty() ? QUEUE.take()
+                        : QUEUE.poll(Math.max(0, periodic.peek().forceAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+                batch.clear();
+                if (first != null) {
+                    batch.add(first);
+                    QUEUE.drainTo(batch);
+                }
+            } catch (InterruptedException e) {
+                // the writer is a daemon and is never interrupted on purpose
+                continue;
+            }
+
+            for (Target target : batch) {
+                write(target);
+            }
+
+            long now = System.nanoTime();
+            Map<Object, List<Target>> devices = new LinkedHashMap<>();
+            for (Target target : batch) {
+                boolean forceNow;
+                synchronized (target) {
+                    forceNow = target.durability.forceMillis == 0 || target.forceRequested;
+                    if (!forceNow && target.durability.forceMillis > 0 && !target.scheduled) {
+                        target.scheduled = true;
+                        target.forceAt = now + TimeUnit.MILLISECONDS.toNanos(target.durability.forceMillis);
+                        periodic.add(target);
+                    }
+                }
+
+                if (forceNow) {
+                    devices.computeIfAbsent(target.device(), device -> new ArrayList<>()).add(target);
+                }
+            }
+
+            while (!periodic.isEmpty() && periodic.peek().forceAt - now <= 0) {
+                Target target = periodic.poll();
+                synchronized (target) {
+                    target.scheduled = false;
+                }
+
+                devices.computeIfAbsent(target.device(), device -> new ArrayList<>()).add(target);
+            }
+
+            for (List<Target> targets : devices.values()) {
+                force(targets);
+            }
+        }
+    }
+
+    private static void write(Target target) {
+        long ticket;
+        synchronized (target) {
+            target.queued = false;
+            ticket = target.requested;
+        }
+
+        try {
+            // the state is read after the ticket was taken, so it is at least as new as the ticket
+            target.write();
+            synchronized (target) {
+                target.written = Math.max(target.written, ticket);
+            }
+        } catch (IOException e) {
+            target.fail(e);
+        }
+    }
+
+    /**
+     * Forces a device once for all of its targets, which covers everything they had written before.
+     */
+    private static void force(List<Target> targets) {
+        long[] tickets = new long[targets.size()];
+        for (int i = 0; i < tickets.length; i++) {
+            Target target = targets.get(i);
+            synchronized (target) {
+                tickets[i] = target.failure != null ? -1 : target.written;
+            }
+        }
+
+        try {
+            targets.get(0).force();
+        } catch (IOException e) {
+            for (Target target : targets) {
+                target.fail(e);
+            }
+
+            return;
+        }
+
+        for (int i = 0; i < tickets.length; i++) {
+            Target target = targets.get(i);
+            if (tickets[i] < 0) {
+                continue;
+            }
+
+            List<Waiter> done;
+            synchronized (target) {
+                target.forced = Math.max(target.forced, tickets[i]);
+                // a flush that arrived during the force is still queued, and needs the next force
+                target.forceRequested &= target.forced < target.requested;
+                target.notifyAll();
+                done = target.forcedWaiters();
+            }
+
+            // callbacks of the futures must not hold up the writer
+            for (Waiter waiter : done) {
+                waiter.future.completeAsync(() -> null);
+            }
+        }
+    }
+
+}